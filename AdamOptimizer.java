@@ -0,0 +1,84 @@
+/* AdamOptimizer.java
+ * 
+ * Updates weights with the Adam rule (Kingma and Ba, 2015).
+ * The first and second moment estimates of each weight are kept in arrays parallel to the weights, which are allocated once.
+ * 
+ */
+
+public class AdamOptimizer implements Optimizer
+{
+	private double learningRate;
+	private double beta1 = 0.9;
+	private double beta2 = 0.999;
+	private double epsilon = 1.0e-8;
+	
+	// Moment estimates of each weight.
+	private double[] firstMoments;
+	private double[] secondMoments;
+	
+	// The number of steps taken, and the bias corrections for the current step.
+	private long numSteps = 0;
+	private double firstCorrection = 1.0;
+	private double secondCorrection = 1.0;
+	
+	// Constructor. numWeights is the number of weights in the network being trained.
+	public AdamOptimizer(int numWeights, double learningRate)
+	{
+		this.learningRate = learningRate;
+		this.firstMoments = new double[numWeights];
+		this.secondMoments = new double[numWeights];
+	}
+	
+	// Advances the step count and updates the bias corrections.
+	public void beginStep()
+	{
+		numSteps++;
+		firstCorrection = 1.0 / (1.0 - Math.pow(beta1, numSteps));
+		secondCorrection = 1.0 / (1.0 - Math.pow(beta2, numSteps));
+	}
+	
+	// Returns the change to make to the weight at the passed index.
+	public double step(int index, double gradient)
+	{
+		double m = (beta1 * firstMoments[index]) + ((1.0 - beta1) * gradient);
+		double v = (beta2 * secondMoments[index]) + ((1.0 - beta2) * gradient * gradient);
+		firstMoments[index] = m;
+		secondMoments[index] = v;
+		
+		return -learningRate * (m * firstCorrection) / (Math.sqrt(v * secondCorrection) + epsilon);
+	}
+	
+	// Returns the learning rate.
+	public double getLearningRate()
+	{
+		return learningRate;
+	}
+	
+	// Sets the learning rate.
+	public void setLearningRate(double learningRate)
+	{
+		this.learningRate = learningRate;
+	}
+	
+	// Returns the name of the update rule.
+	public String getName()
+	{
+		return "adam";
+	}
+	
+	// Returns the first and second moment arrays.
+	public double[][] getState()
+	{
+		return new double[][] { firstMoments, secondMoments };
+	}
+	
+	// Returns/sets the number of steps taken (which decides the bias corrections).
+	public long getNumSteps()
+	{
+		return numSteps;
+	}
+	public void setNumSteps(long numSteps)
+	{
+		this.numSteps = numSteps;
+	}
+}
\ No newline at end of file
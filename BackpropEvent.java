@@ -0,0 +1,47 @@
+/* BackpropEvent.java
+ * 
+ * Java Flight Recorder event for one phase of backpropagateUpdate on one layer:
+ * calculating the layer's deltas ("delta"), or changing its weights ("update").
+ * 
+ */
+
+import jdk.jfr.*;
+
+@Name("NeuralNetwork.Backprop")
+@Label("Backpropagation")
+@Category({ "Neural Network", "Backward" })
+@Description("Calculates the deltas of, or updates the weights of, one layer of units.")
+@StackTrace(false)
+public class BackpropEvent extends Event
+{
+	@Label("Layer")
+	public String layer;
+	
+	@Label("Phase")
+	public String phase;
+	
+	@Label("Layer Size")
+	@Description("Number of units in the layer.")
+	public int layerSize;
+	
+	@Label("Input Size")
+	@Description("Number of inputs to each unit.")
+	public int inputSize;
+	
+	@Label("Samples")
+	public int samples;
+	
+	// Ends the event and records it, if a recording is running.
+	public void record(String layer, String phase, int layerSize, int inputSize)
+	{
+		if (shouldCommit())
+		{
+			this.layer = layer;
+			this.phase = phase;
+			this.layerSize = layerSize;
+			this.inputSize = inputSize;
+			this.samples = 1;
+			commit();
+		}
+	}
+}
@@ -0,0 +1,76 @@
+/* CascadePredictor.java
+ * 
+ * Predicts image values with a two-stage cascade of neural networks.
+ * Every image is first scored by a cheap network (e.g. one with few hidden units).
+ * Only images whose cheap prediction has a confidence below the threshold are passed on to the full network.
+ * 
+ */
+
+public class CascadePredictor
+{
+	private InferenceNetwork cheapNetwork;
+	private InferenceNetwork fullNetwork;
+	
+	// Cheap predictions with at least this confidence (in [0.5, 1.0]) are accepted without running the full network.
+	private double confidenceThreshold;
+	
+	private long numPredictions = 0;
+	private long numShortCircuited = 0;
+	
+	// Constructor.
+	public CascadePredictor(InferenceNetwork cheapNetwork, InferenceNetwork fullNetwork, double confidenceThreshold)
+	{
+		this.cheapNetwork = cheapNetwork;
+		this.fullNetwork = fullNetwork;
+		this.confidenceThreshold = confidenceThreshold;
+	}
+	
+	// Returns the prediction for the passed image.
+	public double predict(FaceImage face)
+	{
+		numPredictions++;
+		
+		cheapNetwork.calculateOutputs(face);
+		double result = cheapNetwork.getFinalOutput();
+		
+		if (MatthewMartin.calculateConfidence(result) >= confidenceThreshold)
+		{ // The cheap network is confident enough, so the full network is skipped.
+			numShortCircuited++;
+			return result;
+		}
+		
+		fullNetwork.calculateOutputs(face);
+		return fullNetwork.getFinalOutput();
+	}
+	
+	// Returns the confidence threshold.
+	public double getConfidenceThreshold()
+	{
+		return confidenceThreshold;
+	}
+	
+	// Returns the number of predictions made.
+	public long getNumPredictions()
+	{
+		return numPredictions;
+	}
+	
+	// Returns the number of predictions that were answered by the cheap network alone.
+	public long getNumShortCircuited()
+	{
+		return numShortCircuited;
+	}
+	
+	// Returns the fraction of predictions that were answered by the cheap network alone.
+	public double getShortCircuitFraction()
+	{
+		return (numPredictions == 0) ? 0.0 : (double)numShortCircuited / (double)numPredictions;
+	}
+	
+	// Resets the prediction counters.
+	public void resetCounters()
+	{
+		numPredictions = 0;
+		numShortCircuited = 0;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,95 @@
+/* CheckpointWriter.java
+ * 
+ * Saves training checkpoints on a background thread, so the training loop never waits for the disk.
+ * A single snapshot buffer is reused. If the previous checkpoint is still being written when the next one is due,
+ * the new checkpoint is skipped rather than blocking training.
+ * 
+ */
+
+import java.util.Random;
+import java.util.concurrent.*;
+
+public class CheckpointWriter
+{
+	private String fileName;
+	private TrainingCheckpoint checkpoint;
+	private ExecutorService executor;
+	private Future<Boolean> pendingWrite = null;
+	
+	private int numWritten = 0;
+	private int numSkipped = 0;
+	
+	// Constructor. Checkpoints of the network, the options' optimizer (which may be null) and the options' settings are saved to the file.
+	public CheckpointWriter(String fileName, NeuralNetwork nn, TrainingOptions options)
+	{
+		this.fileName = fileName;
+		this.checkpoint = new TrainingCheckpoint(nn, options.optimizer);
+		this.checkpoint.setSettings(options);
+		
+		executor = Executors.newSingleThreadExecutor(new ThreadFactory()
+		{
+			public Thread newThread(Runnable r)
+			{
+				Thread thread = new Thread(r, "CheckpointWriter");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+	
+	// Snapshots the training state and starts saving it in the background.
+	// Returns false if the checkpoint was skipped because the previous one is still being written.
+	public boolean checkpoint(NeuralNetwork nn, Optimizer optimizer, int round, Random rand)
+	{
+		if (pendingWrite != null && !pendingWrite.isDone())
+		{
+			numSkipped++;
+			return false;
+		}
+		if (pendingWrite != null && getResult(pendingWrite)) numWritten++;
+		
+		checkpoint.capture(nn, optimizer, round, rand);
+		pendingWrite = executor.submit(new Callable<Boolean>()
+		{
+			public Boolean call()
+			{
+				return checkpoint.saveToFile(fileName);
+			}
+		});
+		
+		return true;
+	}
+	
+	// Waits for the last checkpoint to be written, and stops the background thread.
+	public void close()
+	{
+		if (pendingWrite != null && getResult(pendingWrite)) numWritten++;
+		pendingWrite = null;
+		executor.shutdown();
+	}
+	
+	// Returns the result of a write, waiting for it if necessary.
+	private static boolean getResult(Future<Boolean> write)
+	{
+		try
+		{
+			return write.get();
+		}
+		catch (InterruptedException | ExecutionException e)
+		{
+			return false;
+		}
+	}
+	
+	// Returns the number of checkpoints written.
+	public int getNumWritten()
+	{
+		return numWritten;
+	}
+	
+	// Returns the number of checkpoints skipped because a previous one was still being written.
+	public int getNumSkipped()
+	{
+		return numSkipped;
+	}
+}
\ No newline at end of file
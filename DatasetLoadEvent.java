@@ -0,0 +1,32 @@
+/* DatasetLoadEvent.java
+ * 
+ * Java Flight Recorder event for loading a directory of face images.
+ * 
+ */
+
+import jdk.jfr.*;
+
+@Name("NeuralNetwork.DatasetLoad")
+@Label("Dataset Load")
+@Category({ "Neural Network", "I/O" })
+@Description("Loads a directory of face images.")
+public class DatasetLoadEvent extends Event
+{
+	@Label("Directory")
+	public String directory;
+	
+	@Label("Samples")
+	@Description("Number of images loaded.")
+	public int samples;
+	
+	// Ends the event and records it, if a recording is running.
+	public void record(String directory, int samples)
+	{
+		if (shouldCommit())
+		{
+			this.directory = directory;
+			this.samples = samples;
+			commit();
+		}
+	}
+}
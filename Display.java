@@ -1,51 +1,218 @@
 /* Display.java
  * 
  * Used to assist in the displaying of images.
+ * Images are laid out in a scrollable grid that fills the width of the window. Only the tiles that are visible are drawn.
+ * When the images come from an image collection, each tile is rendered on demand on a background thread,
+ * and a bounded number of rendered tiles are kept in a least-recently-used cache, so even very large
+ * collections can be browsed.
  * 
  */
 
 import java.awt.*;
 import java.awt.Color;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
 import java.awt.image.BufferedImage;
+import java.util.*;
+import java.util.concurrent.*;
 import javax.swing.*;
 
-public class Display extends javax.swing.JPanel
+public class Display extends javax.swing.JPanel implements Scrollable
 {
-	private Image[] images;
+	private static final int tileWidth = 128;
+	private static final int tileHeight = 120;
+	private static final Color placeholderColor = new Color(48, 48, 48);
+	
+	// The images to display: either already rendered images, or a collection to render on demand.
+	private Image[] images = null;
+	private ImageCollection collection = null;
+	
+	// Rendered tiles, by image index, in least-recently-used order. Only used on the event dispatch thread.
+	private LinkedHashMap<Integer, Image> tileCache;
+	private Set<Integer> pendingTiles = new HashSet<Integer>();
+	private ExecutorService renderer = null;
+	
+	// The range of visible image indices, read by the rendering threads to skip tiles that were scrolled away.
+	private volatile int firstVisible = 0;
+	private volatile int lastVisible = -1;
+	
+	private int columns = 1;
 	
 	// Constructors.
 	public Display(Image image)
 	{
-		this.images = new Image[1];
-		images[0] = image;
+		this(new Image[] { image });
 	}
 	public Display(Image[] images)
 	{
 		this.images = images;
+		init();
+	}
+	
+	// Constructor. The collection's images are rendered when they are first shown, and up to cacheSize rendered tiles are kept.
+	public Display(ImageCollection collection, final int cacheSize)
+	{
+		this.collection = collection;
+		this.tileCache = new LinkedHashMap<Integer, Image>(16, 0.75f, true)
+		{
+			protected boolean removeEldestEntry(Map.Entry<Integer, Image> eldest)
+			{
+				return size() > cacheSize;
+			}
+		};
+		this.renderer = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1), new ThreadFactory()
+		{
+			public Thread newThread(Runnable r)
+			{
+				Thread thread = new Thread(r, "DisplayRenderer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		init();
 	}
 	
-	// Assists in displaying the images.
-	public void paint(Graphics g)
+	// Lays the grid out again whenever the width changes the number of columns.
+	private void init()
 	{
-		int n = images.length;
+		setBackground(Color.BLACK);
+		addComponentListener(new ComponentAdapter()
+		{
+			public void componentResized(ComponentEvent e)
+			{
+				int newColumns = Math.max(1, getWidth() / tileWidth);
+				if (newColumns != columns)
+				{
+					columns = newColumns;
+					revalidate();
+					repaint();
+				}
+			}
+		});
+		columns = getWidth(numImages());
+	}
+	
+	// Returns the number of images displayed.
+	public int numImages()
+	{
+		return (images != null) ? images.length : collection.numImages();
+	}
+	
+	// Stops the background rendering threads.
+	public void dispose()
+	{
+		if (renderer != null) renderer.shutdownNow();
+	}
+	
+	// Assists in displaying the images. Only the tiles that intersect the clip are drawn.
+	public void paintComponent(Graphics g)
+	{
+		super.paintComponent(g);
+		
+		int n = numImages();
+		Rectangle clip = g.getClipBounds();
+		if (clip == null) clip = new Rectangle(0, 0, getWidth(), getHeight());
+		
+		int firstRow = Math.max(0, clip.y / tileHeight);
+		int lastRow = (clip.y + clip.height - 1) / tileHeight;
 		
-		int h = getHeight(n);
-		int w = getWidth(n);
+		Rectangle visible = getVisibleRect();
+		firstVisible = (visible.y / tileHeight) * columns;
+		lastVisible = Math.min(n - 1, (((visible.y + visible.height - 1) / tileHeight) + 1) * columns - 1);
 		
-		int index = 0;
-		for (int i = 0; i < w; i++)
+		for (int row = firstRow; row <= lastRow; row++)
 		{
-			for (int j = 0; j < h; j++)
+			for (int column = 0; column < columns; column++)
 			{
-				g.drawImage(images[index], 128 * i, 120 * j, this);
+				int index = (row * columns) + column;
+				if (index >= n) return;
 				
-				index++;
-				if (index >= images.length) break;
+				Image tile = getTile(index);
+				if (tile != null)
+				{
+					g.drawImage(tile, column * tileWidth, row * tileHeight, this);
+				}
+				else
+				{
+					g.setColor(placeholderColor);
+					g.fillRect(column * tileWidth, row * tileHeight, tileWidth - 1, tileHeight - 1);
+				}
 			}
-			if (index >= images.length) break;
 		}
 	}
 	
+	// Returns the rendered tile for the image, or null if it is still being rendered (in which case it is requested).
+	private Image getTile(int index)
+	{
+		if (images != null) return images[index];
+		
+		Image tile = tileCache.get(index);
+		if (tile == null && pendingTiles.add(index))
+		{
+			final int tileIndex = index;
+			renderer.execute(new Runnable()
+			{
+				public void run()
+				{
+					// Tiles that were scrolled out of view before their turn came are not rendered.
+					final Image rendered = (tileIndex >= firstVisible && tileIndex <= lastVisible)
+						? collection.getImage(tileIndex).getBufferedImage()
+						: null;
+					
+					SwingUtilities.invokeLater(new Runnable()
+					{
+						public void run()
+						{
+							pendingTiles.remove(tileIndex);
+							if (rendered != null)
+							{
+								tileCache.put(tileIndex, rendered);
+								repaint((tileIndex % columns) * tileWidth, (tileIndex / columns) * tileHeight, tileWidth, tileHeight);
+							}
+						}
+					});
+				}
+			});
+		}
+		
+		return tile;
+	}
+	
+	// The grid is as wide as the window, and as tall as its rows.
+	public Dimension getPreferredSize()
+	{
+		int n = numImages();
+		int rows = (n + columns - 1) / columns;
+		return new Dimension(columns * tileWidth, Math.max(1, rows) * tileHeight);
+	}
+	
+	public Dimension getPreferredScrollableViewportSize()
+	{
+		int n = numImages();
+		int width = getWidth(n);
+		return new Dimension(width * tileWidth, Math.min(getHeight(n), (n + width - 1) / width) * tileHeight);
+	}
+	
+	public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction)
+	{
+		return (orientation == SwingConstants.VERTICAL) ? tileHeight / 4 : tileWidth / 4;
+	}
+	
+	public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction)
+	{
+		return (orientation == SwingConstants.VERTICAL) ? Math.max(tileHeight, visibleRect.height - tileHeight) : visibleRect.width;
+	}
+	
+	public boolean getScrollableTracksViewportWidth()
+	{
+		return true;
+	}
+	
+	public boolean getScrollableTracksViewportHeight()
+	{
+		return false;
+	}
+	
 	// Returns the height of the image-display pane.
 	public static int getHeight(int n)
 	{
@@ -70,7 +237,7 @@ public class Display extends javax.swing.JPanel
 		}
 		else
 		{
-			return ((n / getHeight(n)) + 1);
+			return Math.min(hMax, (n / getHeight(n)) + 1);
 		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,180 @@
+/* DistributedWorker.java
+ * 
+ * A distributed training worker process. It connects to the parameter server, which assigns it an index and sends the
+ * training settings and the initial weights. The worker then trains on its shard of the images: the images whose name
+ * hashes to its index, so the shards are disjoint and do not depend on the order the directories are listed in.
+ * After each batch, it sends the batch's summed gradient to the server and continues from the weights sent back.
+ * 
+ * With top-k sparsification, only the largest topK fraction of the gradients (by magnitude) is sent. The rest is kept
+ * and added to the next batch's gradients (error feedback), so small gradients are delayed rather than lost.
+ * 
+ */
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+public class DistributedWorker
+{
+	private NeuralNetwork nn;
+	private GradientAccumulator accumulator;
+	private ParameterFrame frame = new ParameterFrame();
+	
+	// Top-k sparsification: the gradients not yet sent, the indices of those being sent, and a buffer for selecting them.
+	private double[] residual = null;
+	private int[] topIndices = null;
+	private float[] magnitudes = null;
+	
+	// Connects to the parameter server at host:port and trains on this worker's shard of the labeled images,
+	// until the configured number of rounds is done. Returns true iff the training finished successfully.
+	public static boolean run(String host, int port, String maleDir, String femaleDir)
+	{
+		try (Socket socket = new Socket(host, port))
+		{
+			socket.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+			
+			return new DistributedWorker().train(in, out, maleDir, femaleDir);
+		}
+		catch (IOException e)
+		{
+			System.out.printf("Distributed training worker failed: %s%n", e);
+		}
+		return false;
+	}
+	
+	// Runs the training, exchanging frames with the server over the streams.
+	private boolean train(DataInputStream in, DataOutputStream out, String maleDir, String femaleDir) throws IOException
+	{
+		frame.read(in);
+		if (frame.type != ParameterFrame.CONFIG) throw new IOException("Expected the training settings from the parameter server.");
+		int workerIndex = frame.workerIndex;
+		int numWorkers = frame.numWorkers;
+		int rounds = frame.rounds;
+		int batchSize = frame.batchSize;
+		double topK = frame.topK;
+		Random rand = new Random(frame.seed + workerIndex);
+		
+		// As in -train, each female image is used four times to balance the classes. The copies share a name, and so a shard.
+		ImageCollection normalizedTrainingData = new ImageCollection(femaleDir, "Female").duplicate(4);
+		normalizedTrainingData.addAll(new ImageCollection(maleDir, "Male"));
+		ImageCollection shard = normalizedTrainingData.getShard(workerIndex, numWorkers);
+		double[] targets = MatthewMartin.trueOutputs(shard);
+		System.out.printf("Worker %d of %d: training on %d images.%n", workerIndex, numWorkers, shard.numImages());
+		
+		frame.read(in);
+		if (frame.type != ParameterFrame.WEIGHTS) throw new IOException("Expected the initial weights from the parameter server.");
+		nn = new NeuralNetwork_AllConnected(frame.values.length / ((128 * 120) + 1));
+		nn.setWeights(frame.values);
+		long version = frame.version;
+		accumulator = new GradientAccumulator(nn.numWeights());
+		
+		int[] order = new int[shard.numImages()];
+		double loss = 0.0;
+		for (int round = 0; round < rounds; round++)
+		{
+			for (int i = 0; i < order.length; i++)
+			{
+				order[i] = i;
+			}
+			MatthewMartin.shuffle(order, rand);
+			
+			loss = 0.0;
+			for (int start = 0; start < order.length; start += batchSize)
+			{
+				accumulator.reset();
+				int end = Math.min(order.length, start + batchSize);
+				for (int i = start; i < end; i++)
+				{
+					nn.calculateOutputs(shard.getImage(order[i]));
+					loss += Math.pow(targets[order[i]] - nn.getFinalOutput(), 2);
+					nn.backpropagateUpdate(targets[order[i]], accumulator);
+				}
+				
+				sendGradients(out, version, topK);
+				
+				frame.read(in);
+				if (frame.type != ParameterFrame.WEIGHTS) throw new IOException("Expected weights from the parameter server.");
+				nn.setWeights(frame.values);
+				version = frame.version;
+			}
+			
+			loss = (order.length == 0) ? 0.0 : loss / order.length;
+			System.out.printf("Worker %d: round %d of %d done, loss %.4f, model version %d.%n", workerIndex, round + 1, rounds, loss, version);
+		}
+		
+		frame.writeDone(out, loss);
+		return true;
+	}
+	
+	// Sends the accumulated gradients, densely or (when topK is below 1) as the largest topK fraction.
+	private void sendGradients(DataOutputStream out, long version, double topK) throws IOException
+	{
+		double[] gradients = accumulator.getGradients();
+		if (topK >= 1.0)
+		{
+			frame.writeDense(out, accumulator.getNumImages(), version, gradients);
+			return;
+		}
+		
+		if (residual == null)
+		{
+			residual = new double[gradients.length];
+			topIndices = new int[gradients.length];
+			magnitudes = new float[gradients.length];
+		}
+		for (int i = 0; i < gradients.length; i++)
+		{
+			residual[i] += gradients[i];
+			magnitudes[i] = (float)Math.abs(residual[i]);
+		}
+		
+		int k = Math.max(1, (int)(topK * gradients.length));
+		float threshold = selectLargest(magnitudes, k);
+		
+		int count = 0;
+		for (int i = 0; i < residual.length && count < k; i++)
+		{
+			if ((float)Math.abs(residual[i]) >= threshold) topIndices[count++] = i;
+		}
+		
+		frame.writeSparse(out, accumulator.getNumImages(), version, residual, topIndices, count);
+		// The values are sent as floats, so only the float part is subtracted and the rounding error is carried over.
+		for (int i = 0; i < count; i++)
+		{
+			residual[topIndices[i]] -= (float)residual[topIndices[i]];
+		}
+	}
+	
+	// Returns the k-th largest value. The values are reordered.
+	private static float selectLargest(float[] values, int k)
+	{
+		int left = 0;
+		int right = values.length - 1;
+		int target = k - 1;
+		while (left < right)
+		{
+			float pivot = values[(left + right) >>> 1];
+			int i = left;
+			int j = right;
+			while (i <= j)
+			{
+				while (values[i] > pivot) i++;
+				while (values[j] < pivot) j--;
+				if (i <= j)
+				{
+					float temp = values[i];
+					values[i] = values[j];
+					values[j] = temp;
+					i++;
+					j--;
+				}
+			}
+			if (target <= j) right = j;
+			else if (target >= i) left = i;
+			else break;
+		}
+		return values[target];
+	}
+}
@@ -0,0 +1,299 @@
+/* EvaluationReport.java
+ * 
+ * Accumulates the results of evaluating a neural network on labeled images in a single streaming pass.
+ * The accuracy and squared error statistics are updated with Welford's method, so no per-image values are stored.
+ * Predictions are also counted in a confusion matrix (at the 0.5 decision threshold) and in a histogram of outputs per
+ * class, from which the ROC curve and its area are computed. Reports from separate partitions of the data can be merged,
+ * so the evaluation can run in parallel, one report per thread.
+ * 
+ */
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class EvaluationReport
+{
+	// The number of output histogram bins, which sets the resolution of the ROC curve.
+	public static final int HISTOGRAM_BINS = 1000;
+	
+	// The per-image detail is written to the sink in blocks of about this many characters.
+	private static final int detailBlockChars = 64 * 1024;
+	
+	private long count = 0;
+	
+	// Running mean and sum of squared deviations (Welford) of the per-image accuracy and squared error.
+	private double accuracyMean = 0.0;
+	private double accuracyM2 = 0.0;
+	private double squaredErrorMean = 0.0;
+	private double squaredErrorM2 = 0.0;
+	
+	// The confusion matrix, indexed by [actual][predicted], where 1 is male and 0 is female.
+	private long[][] confusion = new long[2][2];
+	
+	// The number of images of each class whose output falls in each histogram bin.
+	private long[][] histogram = new long[2][HISTOGRAM_BINS];
+	
+	// Adds the result of one image to the report.
+	public void add(double expected, double output)
+	{
+		count++;
+		
+		double accuracy = MatthewMartin.getAccuracy(expected, output);
+		double delta = accuracy - accuracyMean;
+		accuracyMean += delta / count;
+		accuracyM2 += delta * (accuracy - accuracyMean);
+		
+		double squaredError = (expected - output) * (expected - output);
+		delta = squaredError - squaredErrorMean;
+		squaredErrorMean += delta / count;
+		squaredErrorM2 += delta * (squaredError - squaredErrorMean);
+		
+		int actual = (expected >= 0.5) ? 1 : 0;
+		confusion[actual][(output >= 0.5) ? 1 : 0]++;
+		
+		int bin = (int)(output * HISTOGRAM_BINS);
+		histogram[actual][Math.max(0, Math.min(HISTOGRAM_BINS - 1, bin))]++;
+	}
+	
+	// Adds the results of another report (of a different partition of the data) to this report.
+	public void merge(EvaluationReport other)
+	{
+		if (other.count == 0) return;
+		
+		long total = count + other.count;
+		
+		// Chan et al.'s parallel combination of the Welford statistics.
+		double delta = other.accuracyMean - accuracyMean;
+		accuracyM2 += other.accuracyM2 + (delta * delta * count * other.count / total);
+		accuracyMean += delta * other.count / total;
+		
+		delta = other.squaredErrorMean - squaredErrorMean;
+		squaredErrorM2 += other.squaredErrorM2 + (delta * delta * count * other.count / total);
+		squaredErrorMean += delta * other.count / total;
+		
+		count = total;
+		
+		for (int actual = 0; actual < 2; actual++)
+		{
+			for (int predicted = 0; predicted < 2; predicted++)
+			{
+				confusion[actual][predicted] += other.confusion[actual][predicted];
+			}
+			for (int bin = 0; bin < HISTOGRAM_BINS; bin++)
+			{
+				histogram[actual][bin] += other.histogram[actual][bin];
+			}
+		}
+	}
+	
+	// Returns the number of images evaluated.
+	public long getCount()
+	{
+		return count;
+	}
+	
+	// Returns the number of images predicted correctly (at the 0.5 threshold).
+	public long getNumCorrect()
+	{
+		return confusion[0][0] + confusion[1][1];
+	}
+	
+	// Returns the number of images of the actual class (1 for male, 0 for female) predicted as the predicted class.
+	public long getConfusion(int actual, int predicted)
+	{
+		return confusion[actual][predicted];
+	}
+	
+	// Returns the mean per-image accuracy.
+	public double getAccuracyMean()
+	{
+		return accuracyMean;
+	}
+	
+	// Returns the (population) standard deviation of the per-image accuracy.
+	public double getAccuracyStdDev()
+	{
+		return (count == 0) ? 0.0 : Math.sqrt(accuracyM2 / count);
+	}
+	
+	// Returns the mean squared error.
+	public double getMeanSquaredError()
+	{
+		return squaredErrorMean;
+	}
+	
+	// Returns the (population) standard deviation of the squared error.
+	public double getSquaredErrorStdDev()
+	{
+		return (count == 0) ? 0.0 : Math.sqrt(squaredErrorM2 / count);
+	}
+	
+	// Returns the ROC curve, from the highest threshold down, as {false positive rate, true positive rate} pairs.
+	// There is one point per histogram bin boundary, starting at (0, 0) and ending at (1, 1).
+	public double[][] getRocCurve()
+	{
+		long positives = confusion[1][0] + confusion[1][1];
+		long negatives = confusion[0][0] + confusion[0][1];
+		
+		double[][] curve = new double[HISTOGRAM_BINS + 1][2];
+		long truePositives = 0;
+		long falsePositives = 0;
+		for (int bin = HISTOGRAM_BINS - 1; bin >= -1; bin--)
+		{
+			int point = HISTOGRAM_BINS - 1 - bin;
+			curve[point][0] = (negatives == 0) ? 0.0 : (double)falsePositives / (double)negatives;
+			curve[point][1] = (positives == 0) ? 0.0 : (double)truePositives / (double)positives;
+			
+			if (bin >= 0)
+			{
+				truePositives += histogram[1][bin];
+				falsePositives += histogram[0][bin];
+			}
+		}
+		
+		return curve;
+	}
+	
+	// Returns the area under the ROC curve (trapezoidal, so ties within a bin count as half).
+	public double getAuc()
+	{
+		double[][] curve = getRocCurve();
+		
+		double area = 0.0;
+		for (int i = 1; i < curve.length; i++)
+		{
+			area += (curve[i][0] - curve[i - 1][0]) * (curve[i][1] + curve[i - 1][1]) / 2.0;
+		}
+		
+		return area;
+	}
+	
+	// Prints the report.
+	public void print(PrintStream out)
+	{
+		long numCorrect = getNumCorrect();
+		out.printf("%d / %d (%.2f%%) correct.%n", numCorrect, count, (count == 0) ? 0.0 : 100.0 * numCorrect / (double)count);
+		out.printf("              Accuracy Mean: %.4f%n", getAccuracyMean());
+		out.printf("Accuracy Standard Deviation: %.4f%n", getAccuracyStdDev());
+		out.printf("         Mean Squared Error: %.4f%n", getMeanSquaredError());
+		out.printf("                        AUC: %.4f%n", getAuc());
+		out.println();
+		out.println("Confusion matrix (rows: actual, columns: predicted):");
+		out.printf("%8s %10s %10s%n", "", "FEMALE", "MALE");
+		out.printf("%8s %10d %10d%n", "FEMALE", confusion[0][0], confusion[0][1]);
+		out.printf("%8s %10d %10d%n", "MALE", confusion[1][0], confusion[1][1]);
+		out.println();
+		out.println("ROC curve (output >= threshold predicts MALE):");
+		out.printf("%10s %10s %10s%n", "Threshold", "FPR", "TPR");
+		double[][] curve = getRocCurve();
+		for (int tenth = 9; tenth >= 1; tenth--)
+		{
+			double[] point = curve[HISTOGRAM_BINS - (tenth * HISTOGRAM_BINS / 10)];
+			out.printf("%10.1f %10.4f %10.4f%n", tenth / 10.0, point[0], point[1]);
+		}
+	}
+	
+	// Evaluates the neural network on the labeled images, split into contiguous partitions evaluated on numThreads threads.
+	// Each thread runs its own copy of the network (sharing the weights when the network is frozen) and its own report,
+	// and the reports are merged at the end. If details is not null, a line per image is written to it; lines are
+	// buffered per thread and written in blocks, so the order of the lines follows the threads, not the collection.
+	// Returns null if the evaluation failed.
+	public static EvaluationReport evaluate(InferenceNetwork nn, final ImageCollection data, int numThreads, final Writer details)
+	{
+		int numImages = data.numImages();
+		numThreads = Math.max(1, Math.min(numThreads, numImages));
+		
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		List<Future<EvaluationReport>> results = new ArrayList<Future<EvaluationReport>>();
+		
+		for (int t = 0; t < numThreads; t++)
+		{
+			final int start = (int)((long)numImages * t / numThreads);
+			final int end = (int)((long)numImages * (t + 1) / numThreads);
+			final InferenceNetwork partitionNN = (numThreads == 1) ? nn
+				: (nn instanceof NeuralNetwork_Ensemble) ? ((NeuralNetwork_Ensemble)nn).inferenceCopy() : NeuralNetwork_Frozen.inferenceCopy(nn);
+			
+			results.add(executor.submit(new Callable<EvaluationReport>()
+			{
+				public EvaluationReport call() throws IOException
+				{
+					return evaluatePartition(partitionNN, data, start, end, details);
+				}
+			}));
+		}
+		executor.shutdown();
+		
+		EvaluationReport report = new EvaluationReport();
+		try
+		{
+			for (Future<EvaluationReport> result : results)
+			{
+				report.merge(result.get());
+			}
+			if (details != null) details.flush();
+		}
+		catch (InterruptedException | ExecutionException | IOException e)
+		{
+			System.out.println("Evaluation failed: " + e);
+			executor.shutdownNow();
+			return null;
+		}
+		
+		return report;
+	}
+	
+	// Evaluates the images from start to (but not including) end.
+	private static EvaluationReport evaluatePartition(InferenceNetwork nn, ImageCollection data, int start, int end, Writer details) throws IOException
+	{
+		EvaluationReport report = new EvaluationReport();
+		StringBuilder block = (details == null) ? null : new StringBuilder(detailBlockChars + 256);
+		Formatter formatter = (details == null) ? null : new Formatter(block);
+		
+		for (int i = start; i < end; i++)
+		{
+			FaceImage face = data.getImage(i);
+			nn.calculateOutputs(face);
+			
+			double expected = face.trueNNOutput();
+			double result = nn.getFinalOutput();
+			report.add(expected, result);
+			
+			if (details != null)
+			{
+				double error = MatthewMartin.getError(expected, result);
+				formatter.format(
+					"%19s  expected: %f    result: %f    error: %f    accuracy: %f    correct? %s%n",
+					"\"" + face.getName() + "\"",
+					expected,
+					result,
+					error,
+					MatthewMartin.getAccuracy(expected, result),
+					(error < 0.5) ? "TRUE" : "FALSE"
+				);
+				
+				if (block.length() >= detailBlockChars)
+				{
+					writeBlock(details, block);
+				}
+			}
+		}
+		
+		if (details != null && block.length() > 0)
+		{
+			writeBlock(details, block);
+		}
+		
+		return report;
+	}
+	
+	// Writes the block of detail lines to the shared sink, and empties it.
+	private static void writeBlock(Writer details, StringBuilder block) throws IOException
+	{
+		synchronized (details)
+		{
+			details.append(block);
+		}
+		block.setLength(0);
+	}
+}
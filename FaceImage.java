@@ -1,6 +1,7 @@
 /* FaceImage.java
  * 
  * Stores a face image for manipulation.
+ * A lazily loaded image stores only its file and name; its pixels are read on first use and kept in a pixel cache.
  * 
  */
 
@@ -14,6 +15,14 @@ public class FaceImage
 	private int[][] greyscaleArray;
 	private String name;
 	
+	// For lazily loaded images: the image file, and the cache holding its pixels (greyscaleArray is then null).
+	private File file = null;
+	private PixelCache pixelCache = null;
+	
+	// Cached hash of the pixel data. Computed on first use of contentHash().
+	private long contentHash;
+	private boolean contentHashKnown = false;
+	
 	private final int height = 120;
 	private final int width = 128;
 	
@@ -46,9 +55,26 @@ public class FaceImage
 		}
 	}
 	
-	// Returns a deep copy of this image.
+	// Lazy file load constructor. Only the name is set; the pixels are read from the file when they are first needed.
+	public FaceImage(File file, String nameExt, PixelCache pixelCache)
+	{
+		this.file = file;
+		this.pixelCache = pixelCache;
+		this.name = nameExt + file.getName();
+	}
+	
+	// Returns a deep copy of this image. Copies of lazily loaded images share the file and the pixel cache.
 	public FaceImage deepCopy()
 	{
+		if (pixelCache != null)
+		{
+			FaceImage result = new FaceImage(file, "", pixelCache);
+			result.name = this.name;
+			result.contentHash = this.contentHash;
+			result.contentHashKnown = this.contentHashKnown;
+			return result;
+		}
+		
 		FaceImage result = new FaceImage();
 		
 		for (int x = 0; x < width; x++)
@@ -59,6 +85,8 @@ public class FaceImage
 			}
 		}
 		result.name = this.name;
+		result.contentHash = this.contentHash;
+		result.contentHashKnown = this.contentHashKnown;
 		
 		return result;
 	}
@@ -67,7 +95,35 @@ public class FaceImage
 	public int getValue(int x, int y)
 	{
 		if (x < 0 || x >= width || y < 0 || y >= height) return 0;
-		return greyscaleArray[y][x];
+		return pixels()[y][x];
+	}
+	
+	// Returns true iff the pixels are read from the file on demand.
+	public boolean isLazy()
+	{
+		return pixelCache != null;
+	}
+	
+	// Returns the pixel array, reading it through the pixel cache for lazily loaded images.
+	private int[][] pixels()
+	{
+		return (pixelCache != null) ? pixelCache.getPixels(file, width, height) : greyscaleArray;
+	}
+	
+	// Copies the greyscale values, converted to [0.0 - 1.0], into the passed array (column by column, width * height values).
+	// This is the order the neural networks read their input layer in.
+	public void getNormalizedValues(double[] dest)
+	{
+		int[][] greyscaleArray = pixels();
+		int index = 0;
+		for (int x = 0; x < width; x++)
+		{
+			for (int y = 0; y < height; y++)
+			{
+				dest[index] = greyscaleArray[y][x] / 255.0;
+				index++;
+			}
+		}
 	}
 	
 	// Returns this image's name.
@@ -85,20 +141,130 @@ public class FaceImage
 			throw new FileNotFoundException();
 		}
 		
+		readPixels(file, greyscaleArray);
+		name = nameExt + file.getName();
+		contentHashKnown = false;
+	}
+	
+	// Reads the greyscale values of an image file into the array.
+	private static void readPixels(File file, int[][] dest)
+		throws FileNotFoundException
+	{
 		Scanner scanner = new Scanner(file);
-		for (int i = 0; i < height; i++)
+		for (int i = 0; i < dest.length; i++)
 		{
-			for (int j = 0; j < width; j++)
+			for (int j = 0; j < dest[i].length; j++)
 			{
-				greyscaleArray[i][j] = scanner.nextInt();
+				dest[i][j] = scanner.nextInt();
 			}
 		}
-		name = nameExt + file.getName();
+		scanner.close();
+	}
+	
+	// Reads the greyscale values of an image file. A file that has gone missing since its directory was listed ends the run,
+	// rather than training on a black image every round.
+	public static int[][] readPixels(File file, int width, int height)
+	{
+		int[][] result = new int[height][width];
+		try
+		{
+			readPixels(file, result);
+		}
+		catch (FileNotFoundException e)
+		{
+			throw new UncheckedIOException("Could not load image: file " + file.getPath() + " not found.", e);
+		}
+		return result;
+	}
+	
+	// Returns a 64-bit hash of the pixel data (FNV-1a over the greyscale values). Identical images hash identically.
+	public long contentHash()
+	{
+		if (!contentHashKnown)
+		{
+			int[][] greyscaleArray = pixels();
+			long hash = 0xcbf29ce484222325L;
+			for (int i = 0; i < height; i++)
+			{
+				for (int j = 0; j < width; j++)
+				{
+					hash ^= greyscaleArray[i][j];
+					hash *= 0x100000001b3L;
+				}
+			}
+			contentHash = hash;
+			contentHashKnown = true;
+		}
+		return contentHash;
+	}
+	
+	// Returns a 64-bit average hash of the image: the image is shrunk to 8x8 blocks, and bit (row * 8) + column is set iff
+	// that block is brighter than the mean of all blocks. Near-identical images have hashes that differ in few bits.
+	public long averageHash()
+	{
+		double[] blocks = blockMeans(8, 8);
+		double mean = 0.0;
+		for (int i = 0; i < blocks.length; i++)
+		{
+			mean += blocks[i] / blocks.length;
+		}
+		
+		long hash = 0;
+		for (int i = 0; i < blocks.length; i++)
+		{
+			if (blocks[i] > mean) hash |= 1L << i;
+		}
+		return hash;
+	}
+	
+	// Returns a 64-bit difference hash of the image: the image is shrunk to 9x8 blocks, and bit (row * 8) + column is set
+	// iff that block is brighter than the block to its right. Unlike the average hash, it does not change with the brightness.
+	public long differenceHash()
+	{
+		double[] blocks = blockMeans(9, 8);
+		long hash = 0;
+		for (int row = 0; row < 8; row++)
+		{
+			for (int column = 0; column < 8; column++)
+			{
+				if (blocks[(row * 9) + column] > blocks[(row * 9) + column + 1]) hash |= 1L << ((row * 8) + column);
+			}
+		}
+		return hash;
+	}
+	
+	// Returns the mean greyscale value of each block when the image is divided into columns x rows blocks (row by row).
+	private double[] blockMeans(int columns, int rows)
+	{
+		int[][] greyscaleArray = pixels();
+		double[] result = new double[columns * rows];
+		for (int row = 0; row < rows; row++)
+		{
+			int y0 = row * height / rows;
+			int y1 = (row + 1) * height / rows;
+			for (int column = 0; column < columns; column++)
+			{
+				int x0 = column * width / columns;
+				int x1 = (column + 1) * width / columns;
+				
+				long sum = 0;
+				for (int y = y0; y < y1; y++)
+				{
+					for (int x = x0; x < x1; x++)
+					{
+						sum += greyscaleArray[y][x];
+					}
+				}
+				result[(row * columns) + column] = (double)sum / ((y1 - y0) * (x1 - x0));
+			}
+		}
+		return result;
 	}
 	
 	// Prints the contents of the face image to stdout.
 	public void print()
 	{
+		int[][] greyscaleArray = pixels();
 		for (int i = 0; i < height; i++)
 		{
 			for (int j = 0; j < width; j++)
@@ -133,21 +299,33 @@ public class FaceImage
 	// Returns the face image as a buffered image (for display purposes).
 	public Image getBufferedImage()
 	{
-		BufferedImage bi = new BufferedImage(128, 120, BufferedImage.TYPE_INT_RGB);
+		BufferedImage bi = getRawImage();
 		Graphics g = bi.getGraphics();
 		
+		g.setColor(new Color(255, 255, 255));
+		g.drawString(getName(), 5, 15);
+		g.dispose();
+		
+		return bi;
+	}
+	
+	// Returns the face image as a buffered image, without its name.
+	public BufferedImage getRawImage()
+	{
+		BufferedImage bi = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		
+		// Pixels are written straight into the image's raster (row by row, one int per pixel).
+		int[] pixels = ((DataBufferInt)bi.getRaster().getDataBuffer()).getData();
+		int[][] greyscaleArray = pixels();
 		int color;
-		for (int y = 0; y < 120; y++)
+		for (int y = 0; y < height; y++)
 		{
-			for (int x = 0; x < 128; x++)
+			for (int x = 0; x < width; x++)
 			{
-				color = getValue(x, y);
-				g.setColor(new Color(color, color, color));
-				g.drawLine(x, y, x, y);
+				color = greyscaleArray[y][x];
+				pixels[(y * width) + x] = (color << 16) | (color << 8) | color;
 			}
 		}
-		g.setColor(new Color(255, 255, 255));
-		g.drawString(getName(), 5, 15);
 		
 		return bi;
 	}
@@ -0,0 +1,83 @@
+/* GradientAccumulator.java
+ * 
+ * An optimizer that does not change any weights, but adds up the gradients passed to it instead.
+ * Backpropagating several images with it computes the summed gradient of a batch, which distributed training workers
+ * send to the parameter server rather than applying themselves.
+ * 
+ */
+
+import java.util.Arrays;
+
+public class GradientAccumulator implements Optimizer
+{
+	private double[] gradients;
+	private int numImages = 0;
+	
+	// Constructor.
+	public GradientAccumulator(int numWeights)
+	{
+		gradients = new double[numWeights];
+	}
+	
+	// Counts the images backpropagated since the last reset.
+	public void beginStep()
+	{
+		numImages++;
+	}
+	
+	// Adds the gradient, and leaves the weight unchanged.
+	public double step(int index, double gradient)
+	{
+		gradients[index] += gradient;
+		return 0.0;
+	}
+	
+	// Returns the summed gradients (indexed like the network's weights).
+	public double[] getGradients()
+	{
+		return gradients;
+	}
+	
+	// Returns the number of images backpropagated since the last reset.
+	public int getNumImages()
+	{
+		return numImages;
+	}
+	
+	// Clears the summed gradients.
+	public void reset()
+	{
+		Arrays.fill(gradients, 0.0);
+		numImages = 0;
+	}
+	
+	// The accumulator has no learning rate.
+	public double getLearningRate()
+	{
+		return 0.0;
+	}
+	public void setLearningRate(double learningRate)
+	{
+	}
+	
+	// Returns the name of the update rule.
+	public String getName()
+	{
+		return "accumulate";
+	}
+	
+	// The summed gradients are not part of a training checkpoint.
+	public double[][] getState()
+	{
+		return new double[0][];
+	}
+	
+	// The accumulator does not count steps.
+	public long getNumSteps()
+	{
+		return 0;
+	}
+	public void setNumSteps(long numSteps)
+	{
+	}
+}
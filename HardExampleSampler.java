@@ -0,0 +1,131 @@
+/* HardExampleSampler.java
+ * 
+ * Chooses the images to train on in each round, preferring the images the network still gets wrong.
+ * Every refreshInterval rounds, all images are visited and their losses are recorded. In between, only a fraction of the
+ * images are visited, drawn (with replacement) with probability proportional to their most recent loss, mixed with a
+ * uniform probability so that no image is ever left out entirely. Each of the count images drawn is given an importance
+ * weight of 1 / (count * probability), which scales its update so that the expected sum of the round's updates equals
+ * the sum of a full round's updates. Rarely drawn images would get weights of up to numImages / (count * uniformMix),
+ * five times 1 / fraction, so the weights are clipped at min(1 / fraction, maxImportanceWeight): no image is stepped
+ * harder than it would be under uniform sampling, nor more than ten times the learning rate. Clipping lowers the
+ * expected update of the rarely drawn (easy) images somewhat below that of a full round. Only the step size is scaled:
+ * an optimizer with moment estimates (momentum, Adam) still accumulates the unweighted gradients of the drawn images,
+ * so its moments lean towards the hard examples.
+ * 
+ */
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class HardExampleSampler
+{
+	// The share of the sampling probability spread uniformly over all images. This also limits the importance weights to
+	// numImages / (count * uniformMix) before clipping.
+	private static final double uniformMix = 0.2;
+	
+	// The largest importance weight, whatever the fraction.
+	private static final double maxImportanceWeight = 10.0;
+	
+	private double fraction;
+	private int refreshInterval;
+	
+	// The most recent loss of each image, and the running sum of the sampling probabilities.
+	private double[] losses;
+	private double[] cumulative;
+	private boolean hasLosses = false;
+	
+	// The importance weight of each position in the most recent sample.
+	private double[] importanceWeights;
+	
+	// Constructor. Sampled rounds visit the passed fraction of the numImages images.
+	public HardExampleSampler(int numImages, double fraction, int refreshInterval)
+	{
+		this.fraction = fraction;
+		this.refreshInterval = Math.max(1, refreshInterval);
+		
+		losses = new double[numImages];
+		cumulative = new double[numImages];
+		importanceWeights = new double[numImages];
+	}
+	
+	// Returns true iff every image should be visited in the passed round.
+	public boolean isFullRound(int round)
+	{
+		return !hasLosses || round % refreshInterval == 0;
+	}
+	
+	// Returns the number of images visited in a full or sampled round.
+	public int roundSize(boolean fullRound)
+	{
+		if (fullRound) return losses.length;
+		return Math.max(1, (int)Math.round(fraction * losses.length));
+	}
+	
+	// Returns the number of images visited in the rounds from startRound to (but not including) endRound.
+	public long numTrainings(int startRound, int endRound)
+	{
+		long result = 0;
+		for (int round = startRound; round < endRound; round++)
+		{
+			result += roundSize((round == startRound && !hasLosses) || round % refreshInterval == 0);
+		}
+		
+		return result;
+	}
+	
+	// Fills the start of order with the images to visit in a sampled round, and returns the number of images.
+	public int sample(int[] order, Random rand)
+	{
+		int numImages = losses.length;
+		
+		double totalLoss = 0.0;
+		for (int i = 0; i < numImages; i++)
+		{
+			totalLoss += losses[i];
+		}
+		
+		// When every loss is zero, the images are sampled uniformly.
+		double lossMix = (totalLoss > 0.0) ? (1.0 - uniformMix) / totalLoss : 0.0;
+		double uniform = (totalLoss > 0.0) ? uniformMix / numImages : 1.0 / numImages;
+		
+		double sum = 0.0;
+		for (int i = 0; i < numImages; i++)
+		{
+			sum += (lossMix * losses[i]) + uniform;
+			cumulative[i] = sum;
+		}
+		
+		int count = roundSize(false);
+		double maxWeight = Math.min((double)numImages / count, maxImportanceWeight);
+		for (int k = 0; k < count; k++)
+		{
+			int index = Arrays.binarySearch(cumulative, rand.nextDouble() * sum);
+			if (index < 0) index = -index - 1;
+			index = Math.min(index, numImages - 1);
+			
+			double probability = ((lossMix * losses[index]) + uniform) / sum;
+			order[k] = index;
+			importanceWeights[k] = Math.min(1.0 / (count * probability), maxWeight);
+		}
+		
+		return count;
+	}
+	
+	// Returns the importance weight of the image at the passed position of the most recent sample.
+	public double getImportanceWeight(int position)
+	{
+		return importanceWeights[position];
+	}
+	
+	// Records the loss of an image.
+	public void recordLoss(int image, double loss)
+	{
+		losses[image] = loss;
+	}
+	
+	// Marks the end of a full round, after which every image has a recorded loss.
+	public void endFullRound()
+	{
+		hasLosses = true;
+	}
+}
\ No newline at end of file
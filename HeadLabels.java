@@ -0,0 +1,112 @@
+/* HeadLabels.java
+ * 
+ * Reads the per-attribute labels of face images from a sidecar label file, for training multi-head networks.
+ * The first line names the attributes; every other line gives an image file name and one 0/1 label per attribute.
+ * A "?" marks an unknown label, which is not trained on. Blank lines and lines starting with "#" are ignored.
+ * 
+ *     image        male  glasses  smiling
+ *     an2i.txt     1     0        ?
+ * 
+ */
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+public class HeadLabels
+{
+	private String[] headNames;
+	
+	// Maps image file names to their labels (NaN where unknown).
+	private Map<String, double[]> labels = new HashMap<String, double[]>();
+	
+	// Private constructor. Use load().
+	private HeadLabels(String[] headNames)
+	{
+		this.headNames = headNames;
+	}
+	
+	// Loads a label file. Returns null if the file could not be read or is malformed.
+	public static HeadLabels load(String fileName)
+	{
+		try
+		{
+			HeadLabels result = null;
+			int lineNumber = 0;
+			for (String line : Files.readAllLines(Paths.get(fileName)))
+			{
+				lineNumber++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) continue;
+				
+				String[] fields = line.split("[\\s,]+");
+				if (result == null)
+				{
+					if (fields.length < 2) throw new IOException("the first line must name at least one attribute");
+					result = new HeadLabels(Arrays.copyOfRange(fields, 1, fields.length));
+					continue;
+				}
+				
+				if (fields.length != result.headNames.length + 1)
+				{
+					throw new IOException(String.format("line %d has %d labels, expected %d", lineNumber, fields.length - 1, result.headNames.length));
+				}
+				double[] values = new double[result.headNames.length];
+				for (int h = 0; h < values.length; h++)
+				{
+					String field = fields[h + 1];
+					if (field.equals("?")) values[h] = Double.NaN;
+					else if (field.equals("0") || field.equals("1")) values[h] = Double.parseDouble(field);
+					else throw new IOException(String.format("line %d has the label \"%s\", expected 0, 1 or ?", lineNumber, field));
+				}
+				result.labels.put(fields[0], values);
+			}
+			
+			if (result == null) throw new IOException("the file is empty");
+			return result;
+		}
+		catch (IOException e)
+		{
+			System.out.printf("Error loading labels from file \"%s\": %s%n", fileName, e.getMessage());
+		}
+		return null;
+	}
+	
+	// Returns the number of attributes (heads).
+	public int numHeads()
+	{
+		return headNames.length;
+	}
+	
+	// Returns the attribute names.
+	public String[] getHeadNames()
+	{
+		return headNames.clone();
+	}
+	
+	// Returns the labels of the image, or null if the file has none. Images are matched by their file name.
+	public double[] getLabels(FaceImage face)
+	{
+		String name = face.getName();
+		double[] result = labels.get(name);
+		if (result == null) result = labels.get(name.substring(name.lastIndexOf('/') + 1));
+		return result;
+	}
+	
+	// Returns the labels of every image in the collection (all NaN for images the file has no labels for).
+	public double[][] getTargets(ImageCollection ic)
+	{
+		double[][] result = new double[ic.numImages()][];
+		for (int i = 0; i < result.length; i++)
+		{
+			result[i] = getLabels(ic.getImage(i));
+			if (result[i] == null)
+			{
+				result[i] = new double[headNames.length];
+				Arrays.fill(result[i], Double.NaN);
+			}
+		}
+		
+		return result;
+	}
+}
@@ -0,0 +1,101 @@
+/* HeapWeightStorage.java
+ * 
+ * Stores neural network weights in a double array on the Java heap.
+ * 
+ */
+
+public class HeapWeightStorage implements WeightStorage
+{
+	private double[] weights;
+	
+	// Constructor. All weights start at zero.
+	public HeapWeightStorage(int size)
+	{
+		weights = new double[size];
+	}
+	
+	// Constructor. The array is used directly, not copied.
+	public HeapWeightStorage(double[] weights)
+	{
+		this.weights = weights;
+	}
+	
+	// Returns the number of weights.
+	public int size()
+	{
+		return weights.length;
+	}
+	
+	// Returns the weight at the passed index.
+	public double get(int index)
+	{
+		return weights[index];
+	}
+	
+	// Sets the weight at the passed index.
+	public void set(int index, double value)
+	{
+		weights[index] = value;
+	}
+	
+	// Returns the dot product of the weights starting at offset with the values.
+	public double dot(int offset, double[] values)
+	{
+		double result = 0.0;
+		for (int i = 0; i < values.length; i++)
+		{
+			result += weights[offset + i] * values[i];
+		}
+		return result;
+	}
+	
+	// Returns the dot products of consecutive rows of weights with the values.
+	// Four rows are multiplied at a time, so each value is read once for every four rows rather than for every row.
+	public void dotRows(int offset, double[] values, double[] dest)
+	{
+		int n = values.length;
+		int r = 0;
+		for (; r + 4 <= dest.length; r += 4)
+		{
+			int o0 = offset + (r * n);
+			int o1 = o0 + n;
+			int o2 = o1 + n;
+			int o3 = o2 + n;
+			double sum0 = 0.0;
+			double sum1 = 0.0;
+			double sum2 = 0.0;
+			double sum3 = 0.0;
+			for (int i = 0; i < n; i++)
+			{
+				double value = values[i];
+				sum0 += weights[o0 + i] * value;
+				sum1 += weights[o1 + i] * value;
+				sum2 += weights[o2 + i] * value;
+				sum3 += weights[o3 + i] * value;
+			}
+			dest[r] = sum0;
+			dest[r + 1] = sum1;
+			dest[r + 2] = sum2;
+			dest[r + 3] = sum3;
+		}
+		for (; r < dest.length; r++)
+		{
+			dest[r] = dot(offset + (r * n), values);
+		}
+	}
+	
+	// Adds the scaled values to the weights starting at offset.
+	public void addScaled(int offset, double[] values, double scale)
+	{
+		for (int i = 0; i < values.length; i++)
+		{
+			weights[offset + i] += scale * values[i];
+		}
+	}
+	
+	// Heap weights can always be modified.
+	public boolean isReadOnly()
+	{
+		return false;
+	}
+}
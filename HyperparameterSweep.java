@@ -0,0 +1,255 @@
+/* HyperparameterSweep.java
+ * 
+ * Searches for good training hyperparameters (hidden units, training rounds and learning rate).
+ * Trials are taken from a grid or sampled at random from a search space, and are run on a bounded pool of worker threads
+ * that all share one preloaded, read-only data set. After every round, each trial's validation accuracy is compared
+ * against the other trials at the same round, and trials that fall below the median are stopped early.
+ * The results are written to a CSV leaderboard file.
+ * 
+ * The search space is read from a properties file, for example:
+ *   hidden=4,8,16
+ *   rounds=5,10
+ *   rate=0.01,0.05,0.1     (random search also accepts ranges, e.g. "rate=0.005:0.2")
+ *   search=grid            (or "random")
+ *   trials=20              (number of random trials)
+ *   workers=4
+ *   seed=42
+ *   leaderboard=Leaderboard.csv
+ * 
+ */
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class HyperparameterSweep
+{
+	// Trials are never stopped before this many rounds, or before this many other trials have reported the same round.
+	private static final int minRoundsBeforeStopping = 2;
+	private static final int minTrialsBeforeStopping = 3;
+	
+	private ImageCollection trainingData;
+	private ImageCollection validationData;
+	private double[] trainingTargets;
+	
+	// Validation accuracies reported by every trial, by round.
+	private List<List<Double>> roundAccuracies = new ArrayList<List<Double>>();
+	
+	// Constructor. The data is shared by all trials, and must not be modified while the sweep runs.
+	public HyperparameterSweep(ImageCollection trainingData, ImageCollection validationData)
+	{
+		this.trainingData = trainingData;
+		this.validationData = validationData;
+		this.trainingTargets = MatthewMartin.trueOutputs(trainingData);
+	}
+	
+	// Returns the trials described by the search space properties.
+	public static List<SweepTrial> createTrials(Properties space, Random rand)
+	{
+		String[] hidden = space.getProperty("hidden", "16").split(",");
+		String[] rounds = space.getProperty("rounds", "10").split(",");
+		String[] rates = space.getProperty("rate", "0.05").split(",");
+		
+		List<SweepTrial> result = new ArrayList<SweepTrial>();
+		
+		if (space.getProperty("search", "grid").trim().equalsIgnoreCase("random"))
+		{
+			int numTrials = Integer.parseInt(space.getProperty("trials", "10").trim());
+			for (int i = 0; i < numTrials; i++)
+			{
+				result.add(new SweepTrial(
+					i,
+					(int)Math.round(sample(hidden, false, rand)),
+					(int)Math.round(sample(rounds, false, rand)),
+					sample(rates, true, rand)
+				));
+			}
+		}
+		else
+		{
+			for (String h : hidden)
+			{
+				for (String r : rounds)
+				{
+					for (String lr : rates)
+					{
+						result.add(new SweepTrial(result.size(), Integer.parseInt(h.trim()), Integer.parseInt(r.trim()), Double.parseDouble(lr.trim())));
+					}
+				}
+			}
+		}
+		
+		return result;
+	}
+	
+	// Returns the number of trials the search space properties describe.
+	public static int numTrials(Properties space)
+	{
+		if (space.getProperty("search", "grid").trim().equalsIgnoreCase("random"))
+		{
+			return Integer.parseInt(space.getProperty("trials", "10").trim());
+		}
+		return space.getProperty("hidden", "16").split(",").length * space.getProperty("rounds", "10").split(",").length
+			* space.getProperty("rate", "0.05").split(",").length;
+	}
+	
+	// Returns the largest number of hidden units a trial in the search space can have (the upper end, for a range).
+	public static int maxHiddenUnits(Properties space)
+	{
+		int result = 0;
+		for (String value : space.getProperty("hidden", "16").split(","))
+		{
+			int colon = value.indexOf(':');
+			result = Math.max(result, (int)Math.round(Double.parseDouble(value.substring(colon + 1).trim())));
+		}
+		return result;
+	}
+	
+	// Samples a value from a list of values. Each value may be a range ("min:max"), which is sampled uniformly
+	// (or log-uniformly, for parameters such as the learning rate).
+	private static double sample(String[] values, boolean logScale, Random rand)
+	{
+		String value = values[rand.nextInt(values.length)].trim();
+		
+		int colon = value.indexOf(':');
+		if (colon < 0) return Double.parseDouble(value);
+		
+		double min = Double.parseDouble(value.substring(0, colon).trim());
+		double max = Double.parseDouble(value.substring(colon + 1).trim());
+		if (logScale)
+		{
+			return Math.exp(Math.log(min) + (rand.nextDouble() * (Math.log(max) - Math.log(min))));
+		}
+		else
+		{
+			return min + (rand.nextDouble() * (max - min));
+		}
+	}
+	
+	// Runs the trials on the passed number of worker threads, and returns them sorted from best to worst.
+	// Failed trials come last, whatever accuracy they reached before failing.
+	public List<SweepTrial> run(List<SweepTrial> trials, int numWorkers, final long seed)
+	{
+		System.out.printf("Running %d trials on %d workers (%d training images, %d validation images).%n",
+			trials.size(), numWorkers, trainingData.numImages(), validationData.numImages());
+		
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, numWorkers));
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (final SweepTrial trial : trials)
+		{
+			futures.add(executor.submit(new Runnable()
+			{
+				public void run()
+				{
+					try
+					{
+						runTrial(trial, new Random(seed + trial.id));
+					}
+					catch (RuntimeException e)
+					{
+						trial.error = e.toString();
+					}
+				}
+			}));
+		}
+		executor.shutdown();
+		
+		for (Future<?> future : futures)
+		{
+			try
+			{
+				future.get();
+			}
+			catch (InterruptedException | ExecutionException e)
+			{
+				System.out.println("Hyperparameter sweep interrupted: " + e);
+				executor.shutdownNow();
+				break;
+			}
+		}
+		
+		List<SweepTrial> result = new ArrayList<SweepTrial>(trials);
+		Collections.sort(result, new Comparator<SweepTrial>()
+		{
+			public int compare(SweepTrial a, SweepTrial b)
+			{
+				if ((a.error == null) != (b.error == null)) return (a.error == null) ? -1 : 1;
+				if (a.validationAccuracy != b.validationAccuracy) return Double.compare(b.validationAccuracy, a.validationAccuracy);
+				return Double.compare(a.validationLoss, b.validationLoss);
+			}
+		});
+		
+		return result;
+	}
+	
+	// Trains and evaluates a single trial, one round at a time.
+	private void runTrial(SweepTrial trial, Random rand)
+	{
+		long start = System.nanoTime();
+		
+		NeuralNetwork nn = new NeuralNetwork_AllConnected(trial.hiddenUnits, rand);
+		for (int round = 0; round < trial.trainingRounds; round++)
+		{
+			MatthewMartin.trainNeuralNetwork(nn, trainingData, trainingTargets, 1, trial.learningRate, rand, false);
+			
+			trial.roundsCompleted = round + 1;
+			trial.validationAccuracy = (double)MatthewMartin.countCorrect(nn, validationData) / (double)validationData.numImages();
+			trial.validationLoss = MatthewMartin.calculateLoss(nn, validationData);
+			
+			if (round + 1 < trial.trainingRounds && isHopeless(round, trial.validationAccuracy))
+			{
+				trial.stoppedEarly = true;
+				break;
+			}
+		}
+		
+		trial.seconds = (System.nanoTime() - start) / 1.0e9;
+		
+		System.out.printf("Trial %3d: hidden %3d, rate %.4f, %2d/%2d rounds%s: validation accuracy %.4f, loss %.4f (%.1fs)%n",
+			trial.id, trial.hiddenUnits, trial.learningRate, trial.roundsCompleted, trial.trainingRounds,
+			trial.stoppedEarly ? " (stopped)" : "", trial.validationAccuracy, trial.validationLoss, trial.seconds);
+	}
+	
+	// Records the validation accuracy of a trial after the passed round.
+	// Returns true iff the accuracy is below the median of the other trials' accuracies after the same round.
+	private synchronized boolean isHopeless(int round, double accuracy)
+	{
+		while (roundAccuracies.size() <= round)
+		{
+			roundAccuracies.add(new ArrayList<Double>());
+		}
+		List<Double> others = new ArrayList<Double>(roundAccuracies.get(round));
+		roundAccuracies.get(round).add(accuracy);
+		
+		if (round + 1 < minRoundsBeforeStopping || others.size() < minTrialsBeforeStopping) return false;
+		
+		Collections.sort(others);
+		int mid = others.size() / 2;
+		double median = (others.size() % 2 == 1) ? others.get(mid) : (others.get(mid - 1) + others.get(mid)) / 2.0;
+		
+		return accuracy < median;
+	}
+	
+	// Writes the trials (sorted from best to worst) to a CSV leaderboard file. Returns true iff the operation was successful.
+	public static boolean saveLeaderboard(List<SweepTrial> trials, String fileName)
+	{
+		try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(fileName))))
+		{
+			writer.println("rank,trial,hidden_units,training_rounds,learning_rate,rounds_completed,stopped_early,validation_accuracy,validation_loss,seconds,error");
+			for (int i = 0; i < trials.size(); i++)
+			{
+				SweepTrial t = trials.get(i);
+				writer.printf(Locale.ROOT, "%d,%d,%d,%d,%.6f,%d,%b,%.6f,%.6f,%.3f,%s%n",
+					i + 1, t.id, t.hiddenUnits, t.trainingRounds, t.learningRate, t.roundsCompleted,
+					t.stoppedEarly, t.validationAccuracy, t.validationLoss, t.seconds, (t.error == null) ? "" : "\"" + t.error.replace("\"", "'") + "\"");
+			}
+			
+			return true;
+		}
+		catch (IOException e)
+		{
+			System.out.printf("Error saving leaderboard to file \"%s\".%n", fileName);
+		}
+		return false;
+	}
+}
\ No newline at end of file
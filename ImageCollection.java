@@ -1,6 +1,8 @@
 /* ImageCollection.java
  * 
  * Stores a list of face images for manipulation by the neural network.
+ * When a default pixel cache is set, directories are loaded lazily: only the file names are read, and each image's pixels
+ * are read into the cache when they are first needed. Operations on names and labels then never touch the pixels.
  * 
  */
 
@@ -13,6 +15,9 @@ public class ImageCollection
 	// Stores the list of face images.
 	private List<FaceImage> images;
 	
+	// The pixel cache that directories are lazily loaded into, or null to load them eagerly.
+	private static PixelCache defaultPixelCache = null;
+	
 	// Default constructor.
 	public ImageCollection()
 	{
@@ -31,7 +36,19 @@ public class ImageCollection
 		}
 	}
 	
-	// Returns a deep copy of this image collection.
+	// Sets the pixel cache that directories are lazily loaded into from now on (null loads them eagerly).
+	public static void setDefaultPixelCache(PixelCache pixelCache)
+	{
+		defaultPixelCache = pixelCache;
+	}
+	
+	// Returns the pixel cache that directories are lazily loaded into, or null if they are loaded eagerly.
+	public static PixelCache getDefaultPixelCache()
+	{
+		return defaultPixelCache;
+	}
+	
+	// Returns a deep copy of this image collection. Lazily loaded images are copied without reading their pixels.
 	public ImageCollection deepCopy()
 	{
 		ImageCollection result = new ImageCollection();
@@ -47,6 +64,9 @@ public class ImageCollection
 	// Loads the contents of the folder into this image collection.
 	public boolean loadImages(String folderName, String imageNameExt)
 	{
+		DatasetLoadEvent event = new DatasetLoadEvent();
+		event.begin();
+		
 		File folder = new File(folderName);
 		
 		if (folder == null || folder.listFiles() == null) return false;
@@ -63,17 +83,40 @@ public class ImageCollection
 					ext = imageNameExt + "/";
 				}
 				
-				images.add(new FaceImage(fileEntry, ext));
+				if (defaultPixelCache != null)
+				{
+					images.add(new FaceImage(fileEntry, ext, defaultPixelCache));
+				}
+				else
+				{
+					images.add(new FaceImage(fileEntry, ext));
+				}
 				
 				numFiles++;
 			}
 		}
 		
 		System.out.printf("Loaded %d files from directory \"%s\".%n", numFiles, folderName);
+		event.record(folderName, numFiles);
 		
 		return true;
 	}
 	
+	// Returns the number of image files in the folder (the files loadImages would load), without reading them.
+	public static int countImageFiles(String folderName)
+	{
+		File[] files = new File(folderName).listFiles();
+		if (files == null) return 0;
+		
+		int result = 0;
+		for (File fileEntry : files)
+		{
+			String currName = fileEntry.getName();
+			if (currName.length() > 4 && currName.substring(currName.length() - 4).equals(".txt")) result++;
+		}
+		return result;
+	}
+	
 	// Returns the number of images in this collection.
 	public int numImages()
 	{
@@ -116,6 +159,79 @@ public class ImageCollection
 		return result;
 	}
 	
+	// Returns numFolds folds with every group of images (such as near-duplicates, see ImageDeduplicator) in a single fold.
+	// Groups[i] is the group of image i. The groups are dealt out in random order, largest first, each to the fold with the
+	// fewest images, so the folds stay about the same size. The images are shared, not copied.
+	public ImageCollection[] getRandomFolds(int numFolds, Random rand, int[] groups)
+	{
+		Map<Integer, List<FaceImage>> members = new HashMap<Integer, List<FaceImage>>();
+		for (int i = 0; i < images.size(); i++)
+		{
+			List<FaceImage> group = members.get(groups[i]);
+			if (group == null)
+			{
+				group = new ArrayList<FaceImage>();
+				members.put(groups[i], group);
+			}
+			group.add(images.get(i));
+		}
+		
+		List<List<FaceImage>> order = new ArrayList<List<FaceImage>>();
+		for (int i = 0; i < images.size(); i++)
+		{
+			if (members.containsKey(i)) order.add(members.get(i));
+		}
+		Collections.shuffle(order, rand);
+		Collections.sort(order, new Comparator<List<FaceImage>>()
+		{
+			public int compare(List<FaceImage> a, List<FaceImage> b)
+			{
+				return Integer.compare(b.size(), a.size());
+			}
+		});
+		
+		ImageCollection[] result = new ImageCollection[numFolds];
+		for (int i = 0; i < numFolds; i++)
+		{
+			result[i] = new ImageCollection();
+		}
+		for (List<FaceImage> group : order)
+		{
+			ImageCollection smallest = result[0];
+			for (int i = 1; i < numFolds; i++)
+			{
+				if (result[i].numImages() < smallest.numImages()) smallest = result[i];
+			}
+			smallest.images.addAll(group);
+		}
+		
+		return result;
+	}
+	
+	// Returns a random sample of up to count images from this collection. The images are shared, not copied.
+	public ImageCollection getRandomSample(int count, Random rand)
+	{
+		int[] order = new int[images.size()];
+		for (int i = 0; i < order.length; i++)
+		{
+			order[i] = i;
+		}
+		
+		// Only the first count positions need to be shuffled.
+		ImageCollection result = new ImageCollection();
+		for (int i = 0; i < Math.min(count, order.length); i++)
+		{
+			int j = i + rand.nextInt(order.length - i);
+			int temp = order[i];
+			order[i] = order[j];
+			order[j] = temp;
+			
+			result.images.add(images.get(order[i]));
+		}
+		
+		return result;
+	}
+	
 	// Returns the fold at the passed index.
 	public ImageCollection getFold(int index, int numFolds)
 	{
@@ -149,6 +265,22 @@ public class ImageCollection
 		return result;
 	}
 	
+	// Returns the shard at the passed index, out of numShards disjoint shards: the images whose names hash to the index.
+	// The shards do not depend on the order the images were loaded in. The images are shared, not copied.
+	public ImageCollection getShard(int index, int numShards)
+	{
+		ImageCollection result = new ImageCollection();
+		for (int i = 0; i < images.size(); i++)
+		{
+			if (Math.floorMod(images.get(i).getName().hashCode(), numShards) == index)
+			{
+				result.images.add(images.get(i));
+			}
+		}
+		
+		return result;
+	}
+	
 	// Adds the images from the passed collection to this collection.
 	public ImageCollection combine(ImageCollection other)
 	{
@@ -162,6 +294,19 @@ public class ImageCollection
 		return result;
 	}
 	
+	// Adds the image to this collection without copying it.
+	public void add(FaceImage face)
+	{
+		images.add(face);
+	}
+	
+	// Adds the images from the passed collection to this collection without copying them.
+	// The images are then shared by both collections, so they must not be modified.
+	public void addAll(ImageCollection other)
+	{
+		images.addAll(other.images);
+	}
+	
 	// Duplicates the contents of this collection n times.
 	public ImageCollection duplicate(int n)
 	{
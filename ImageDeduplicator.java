@@ -0,0 +1,243 @@
+/* ImageDeduplicator.java
+ * 
+ * Finds near-duplicate images, such as consecutive frames of the same subject, in an image collection.
+ * Each image is reduced to a 64-bit perceptual hash (an average or difference hash, see FaceImage), computed in parallel.
+ * Images whose hashes differ in at most maxDistance bits are near-duplicates.
+ * For keeping near-duplicates within one fold, near-duplicates of near-duplicates are grouped together, so no two
+ * near-duplicates are ever in different groups. Such chains can link many different images, though, so when dropping
+ * near-duplicates, each image is only compared with the images kept so far, and is dropped if one of them is close enough.
+ * 
+ * Candidate pairs are found with a multi-index hash: the hash is split into maxDistance + 1 chunks, with a hash table
+ * per chunk. Two hashes within maxDistance bits must agree exactly on at least one chunk, so only images that share a
+ * chunk are compared, rather than every pair of images.
+ * 
+ */
+
+import java.util.*;
+import java.util.concurrent.*;
+
+public class ImageDeduplicator
+{
+	// Kinds of perceptual hash.
+	public static final int AVERAGE_HASH = 0;
+	public static final int DIFFERENCE_HASH = 1;
+	
+	private int maxDistance;
+	private int hashKind;
+	private int numThreads;
+	
+	// Statistics from the most recent call to findGroups or removeNearDuplicates.
+	private int numGroups = 0;
+	private long numComparisons = 0;
+	private long hashNanos = 0;
+	private long groupNanos = 0;
+	
+	// Constructor. Images whose hashes differ in at most maxDistance bits (0 to 63) are near-duplicates.
+	public ImageDeduplicator(int maxDistance, int hashKind, int numThreads)
+	{
+		this.maxDistance = Math.max(0, Math.min(maxDistance, 63));
+		this.hashKind = hashKind;
+		this.numThreads = Math.max(1, numThreads);
+	}
+	
+	// Parses the name of a kind of hash ("ahash" or "dhash"). Returns -1 if the name is not recognized.
+	public static int parseHashKind(String name)
+	{
+		if (name.toLowerCase().equals("ahash")) return AVERAGE_HASH;
+		if (name.toLowerCase().equals("dhash")) return DIFFERENCE_HASH;
+		return -1;
+	}
+	
+	// Returns the perceptual hash of every image in the collection, computed on numThreads threads.
+	// Returns null if the hashing failed.
+	public long[] computeHashes(final ImageCollection ic)
+	{
+		final long[] result = new long[ic.numImages()];
+		int threads = Math.max(1, Math.min(numThreads, result.length));
+		
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<?>> results = new ArrayList<Future<?>>();
+		for (int t = 0; t < threads; t++)
+		{
+			final int start = (int)((long)result.length * t / threads);
+			final int end = (int)((long)result.length * (t + 1) / threads);
+			results.add(executor.submit(new Runnable()
+			{
+				public void run()
+				{
+					for (int i = start; i < end; i++)
+					{
+						FaceImage face = ic.getImage(i);
+						result[i] = (hashKind == AVERAGE_HASH) ? face.averageHash() : face.differenceHash();
+					}
+				}
+			}));
+		}
+		executor.shutdown();
+		
+		try
+		{
+			for (Future<?> future : results)
+			{
+				future.get();
+			}
+		}
+		catch (InterruptedException | ExecutionException e)
+		{
+			System.out.println("Hashing images failed: " + e);
+			executor.shutdownNow();
+			return null;
+		}
+		
+		return result;
+	}
+	
+	// Groups the near-duplicate images in the collection. Returns the group of every image: the index of the first image
+	// (in collection order) of its group, so an image is the first of its group iff its group is its own index.
+	// Returns null if the hashing failed.
+	public int[] findGroups(ImageCollection ic)
+	{
+		long start = System.nanoTime();
+		long[] hashes = computeHashes(ic);
+		hashNanos = System.nanoTime() - start;
+		if (hashes == null) return null;
+		
+		start = System.nanoTime();
+		int[] result = cluster(hashes, true);
+		groupNanos = System.nanoTime() - start;
+		
+		return result;
+	}
+	
+	// Groups the hashes using a multi-index hash. If transitive, hashes within maxDistance bits of each other are in the same
+	// group. Otherwise, each hash joins the group of the first earlier hash within maxDistance bits that started a group,
+	// or starts a new group; only hashes that start groups are added to the index.
+	private int[] cluster(long[] hashes, boolean transitive)
+	{
+		int[] parent = new int[hashes.length];
+		for (int i = 0; i < parent.length; i++)
+		{
+			parent[i] = i;
+		}
+		
+		// Chunk c covers bits chunkStart[c] up to chunkStart[c + 1].
+		int numChunks = maxDistance + 1;
+		int[] chunkStart = new int[numChunks + 1];
+		List<Map<Long, List<Integer>>> tables = new ArrayList<Map<Long, List<Integer>>>();
+		for (int c = 0; c < numChunks; c++)
+		{
+			chunkStart[c + 1] = (c + 1) * 64 / numChunks;
+			tables.add(new HashMap<Long, List<Integer>>());
+		}
+		
+		// lastCompared[j] == i once image i has been compared with image j, so pairs sharing several chunks are compared once.
+		int[] lastCompared = new int[hashes.length];
+		Arrays.fill(lastCompared, -1);
+		numComparisons = 0;
+		
+		long[] keys = new long[numChunks];
+		for (int i = 0; i < hashes.length; i++)
+		{
+			int leader = -1;
+			for (int c = 0; c < numChunks; c++)
+			{
+				int bits = chunkStart[c + 1] - chunkStart[c];
+				keys[c] = (hashes[i] >>> chunkStart[c]) & ((bits == 64) ? -1L : (1L << bits) - 1);
+				
+				List<Integer> bucket = tables.get(c).get(keys[c]);
+				if (bucket == null) continue;
+				for (int j : bucket)
+				{
+					if (lastCompared[j] == i) continue;
+					lastCompared[j] = i;
+					numComparisons++;
+					
+					if (Long.bitCount(hashes[i] ^ hashes[j]) <= maxDistance)
+					{
+						if (transitive) union(parent, i, j);
+						else if (leader < 0 || j < leader) leader = j;
+					}
+				}
+			}
+			
+			if (leader >= 0)
+			{
+				parent[i] = leader;
+				continue;
+			}
+			for (int c = 0; c < numChunks; c++)
+			{
+				List<Integer> bucket = tables.get(c).get(keys[c]);
+				if (bucket == null)
+				{
+					bucket = new ArrayList<Integer>();
+					tables.get(c).put(keys[c], bucket);
+				}
+				bucket.add(i);
+			}
+		}
+		
+		numGroups = 0;
+		int[] result = new int[hashes.length];
+		for (int i = 0; i < result.length; i++)
+		{
+			result[i] = find(parent, i);
+			if (result[i] == i) numGroups++;
+		}
+		return result;
+	}
+	
+	// Returns the root of the image's group, compressing the path to it.
+	private static int find(int[] parent, int i)
+	{
+		while (parent[i] != i)
+		{
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+	
+	// Merges the groups of the two images. The root is the lower index, so every group's root is its first image.
+	private static void union(int[] parent, int i, int j)
+	{
+		int rootI = find(parent, i);
+		int rootJ = find(parent, j);
+		if (rootI < rootJ) parent[rootJ] = rootI;
+		else if (rootJ < rootI) parent[rootI] = rootJ;
+	}
+	
+	// Returns a collection without near-duplicates: images are kept in collection order unless their hash is within
+	// maxDistance bits of an image already kept. The images are shared, not copied. If the hashing failed, every image is kept.
+	public ImageCollection removeNearDuplicates(ImageCollection ic)
+	{
+		long start = System.nanoTime();
+		long[] hashes = computeHashes(ic);
+		hashNanos = System.nanoTime() - start;
+		if (hashes == null) return ic;
+		
+		start = System.nanoTime();
+		int[] groups = cluster(hashes, false);
+		groupNanos = System.nanoTime() - start;
+		
+		ImageCollection result = new ImageCollection();
+		for (int i = 0; i < groups.length; i++)
+		{
+			if (groups[i] == i) result.add(ic.getImage(i));
+		}
+		return result;
+	}
+	
+	// Returns the number of groups (or images kept) in the most recent call to findGroups or removeNearDuplicates.
+	public int getNumGroups()
+	{
+		return numGroups;
+	}
+	
+	// Returns a summary of the most recent call to findGroups or removeNearDuplicates.
+	public String toString()
+	{
+		return String.format("Near-duplicates (%s, distance <= %d): %d groups, %d pairs compared, %.1f ms hashing, %.1f ms grouping.",
+			(hashKind == AVERAGE_HASH) ? "ahash" : "dhash", maxDistance, numGroups, numComparisons, hashNanos / 1e6, groupNanos / 1e6);
+	}
+}
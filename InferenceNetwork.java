@@ -0,0 +1,28 @@
+/* InferenceNetwork.java
+ * 
+ * Defines the interface for a neural network that can make predictions, but not necessarily be trained.
+ * Inference-only networks (frozen networks and ensembles) implement this interface; trainable ones implement NeuralNetwork.
+ * 
+ */
+
+import java.awt.*;
+
+public interface InferenceNetwork
+{
+	// Calculates the output value for each unit in the network (these values are stored in the units).
+	void calculateOutputs(FaceImage face);
+	// Returns the final output from the neural network.
+	double getFinalOutput();
+	
+	// Returns the number of weights in the network.
+	int numWeights();
+	// Copies every weight into the passed array.
+	// Weights are ordered as in the neural network file: each hidden unit's input weights, then the output unit's weights.
+	void copyWeights(double[] dest);
+	
+	// Returns an image array used to visualze the trained neural network weights.
+	Image[] visualizeWeights();
+	
+	// Returns a version stamp for the current weights. The stamp changes whenever the weights are loaded or trained.
+	long getModelVersion();
+}
\ No newline at end of file
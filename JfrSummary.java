@@ -0,0 +1,113 @@
+/* JfrSummary.java
+ * 
+ * Summarizes the neural network events (LayerForwardEvent, BackpropEvent, ModelIOEvent, DatasetLoadEvent) in a
+ * Java Flight Recorder file. Events are grouped by phase (e.g. "Backprop hidden update" or "ModelIO load binary"),
+ * and the phases are listed from the most to the least total time, so the hot spots come first.
+ * 
+ */
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.*;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class JfrSummary
+{
+	private static final String eventPrefix = "NeuralNetwork.";
+	
+	// Totals for one phase.
+	private static class Phase
+	{
+		String name;
+		long count = 0;
+		long samples = 0;
+		long totalNanos = 0;
+		long maxNanos = 0;
+		long layerSize = 0;
+		
+		Phase(String name)
+		{
+			this.name = name;
+		}
+	}
+	
+	// Prints the summary of the recording. Returns true iff the file could be read.
+	public static boolean summarize(String fileName)
+	{
+		Map<String, Phase> phases = new HashMap<String, Phase>();
+		long totalNanos = 0;
+		
+		try (RecordingFile recording = new RecordingFile(Paths.get(fileName)))
+		{
+			while (recording.hasMoreEvents())
+			{
+				RecordedEvent event = recording.readEvent();
+				String type = event.getEventType().getName();
+				if (!type.startsWith(eventPrefix)) continue;
+				
+				String name = phaseName(type.substring(eventPrefix.length()), event);
+				Phase phase = phases.get(name);
+				if (phase == null)
+				{
+					phase = new Phase(name);
+					phases.put(name, phase);
+				}
+				
+				long nanos = event.getDuration().toNanos();
+				phase.count++;
+				phase.totalNanos += nanos;
+				phase.maxNanos = Math.max(phase.maxNanos, nanos);
+				if (event.hasField("samples")) phase.samples += event.getInt("samples");
+				if (event.hasField("layerSize")) phase.layerSize = Math.max(phase.layerSize, event.getInt("layerSize"));
+				totalNanos += nanos;
+			}
+		}
+		catch (IOException e)
+		{
+			System.out.printf("Error reading flight recording \"%s\".%n", fileName);
+			return false;
+		}
+		
+		if (phases.isEmpty())
+		{
+			System.out.printf("No neural network events in \"%s\".%n", fileName);
+			return true;
+		}
+		
+		List<Phase> sorted = new ArrayList<Phase>(phases.values());
+		Collections.sort(sorted, new Comparator<Phase>()
+		{
+			public int compare(Phase a, Phase b)
+			{
+				return Long.compare(b.totalNanos, a.totalNanos);
+			}
+		});
+		
+		System.out.printf("%-32s %10s %10s %10s %12s %8s %12s %12s%n", "Phase", "Events", "Samples", "LayerSize", "Total (ms)", "Share", "Mean (us)", "Max (us)");
+		for (Phase phase : sorted)
+		{
+			System.out.printf("%-32s %10d %10d %10d %12.2f %7.2f%% %12.2f %12.2f%n",
+				phase.name, phase.count, phase.samples, phase.layerSize, phase.totalNanos / 1.0e6,
+				(totalNanos == 0) ? 0.0 : 100.0 * phase.totalNanos / totalNanos,
+				phase.totalNanos / 1.0e3 / phase.count, phase.maxNanos / 1.0e3);
+		}
+		
+		return true;
+	}
+	
+	// Returns the name of the phase an event belongs to.
+	private static String phaseName(String type, RecordedEvent event)
+	{
+		StringBuilder result = new StringBuilder(type);
+		for (String field : new String[] { "layer", "phase", "operation", "format" })
+		{
+			if (event.hasField(field) && event.getString(field) != null)
+			{
+				result.append(' ').append(event.getString(field));
+			}
+		}
+		return result.toString();
+	}
+}
@@ -0,0 +1,43 @@
+/* LayerForwardEvent.java
+ * 
+ * Java Flight Recorder event for one layer's forward computation in calculateOutputs.
+ * Events cost almost nothing unless a recording is running (e.g. "java -XX:StartFlightRecording=filename=run.jfr ...").
+ * 
+ */
+
+import jdk.jfr.*;
+
+@Name("NeuralNetwork.LayerForward")
+@Label("Layer Forward")
+@Category({ "Neural Network", "Forward" })
+@Description("Computes the outputs of one layer of units.")
+@StackTrace(false)
+public class LayerForwardEvent extends Event
+{
+	@Label("Layer")
+	public String layer;
+	
+	@Label("Layer Size")
+	@Description("Number of units in the layer.")
+	public int layerSize;
+	
+	@Label("Input Size")
+	@Description("Number of inputs to each unit.")
+	public int inputSize;
+	
+	@Label("Samples")
+	public int samples;
+	
+	// Ends the event and records it, if a recording is running.
+	public void record(String layer, int layerSize, int inputSize)
+	{
+		if (shouldCommit())
+		{
+			this.layer = layer;
+			this.layerSize = layerSize;
+			this.inputSize = inputSize;
+			this.samples = 1;
+			commit();
+		}
+	}
+}
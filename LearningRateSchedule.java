@@ -0,0 +1,84 @@
+/* LearningRateSchedule.java
+ * 
+ * Defines how the learning rate changes from one training round to the next.
+ * Schedules are written as strings:
+ *   "constant"                - the learning rate never changes.
+ *   "step:<Factor>:<Rounds>"  - the learning rate is multiplied by the factor every given number of rounds.
+ *   "exp:<Factor>"            - the learning rate is multiplied by the factor every round.
+ *   "cosine"                  - the learning rate follows half a cosine wave from its base value down to zero.
+ * 
+ */
+
+public class LearningRateSchedule
+{
+	private String type;
+	private double factor;
+	private int stepRounds;
+	
+	// Private constructor. Use parse to create schedules.
+	private LearningRateSchedule(String type, double factor, int stepRounds)
+	{
+		this.type = type;
+		this.factor = factor;
+		this.stepRounds = stepRounds;
+	}
+	
+	// Returns the schedule described by the string, or null if the string could not be parsed.
+	public static LearningRateSchedule parse(String str)
+	{
+		String[] parts = str.toLowerCase().split(":");
+		
+		try
+		{
+			if (parts[0].equals("constant") && parts.length == 1)
+			{
+				return new LearningRateSchedule("constant", 1.0, 1);
+			}
+			else if (parts[0].equals("step") && parts.length == 3 && Integer.parseInt(parts[2]) > 0)
+			{
+				return new LearningRateSchedule("step", Double.parseDouble(parts[1]), Integer.parseInt(parts[2]));
+			}
+			else if (parts[0].equals("exp") && parts.length == 2)
+			{
+				return new LearningRateSchedule("exp", Double.parseDouble(parts[1]), 1);
+			}
+			else if (parts[0].equals("cosine") && parts.length == 1)
+			{
+				return new LearningRateSchedule("cosine", 1.0, 1);
+			}
+		}
+		catch (NumberFormatException e)
+		{
+		}
+		return null;
+	}
+	
+	// Returns the schedule as a string that parse accepts.
+	public String toString()
+	{
+		if (type.equals("step")) return "step:" + factor + ":" + stepRounds;
+		if (type.equals("exp")) return "exp:" + factor;
+		return type;
+	}
+	
+	// Returns the learning rate to use for the passed round (counted from 0) out of the total number of rounds.
+	public double getLearningRate(double baseRate, int round, int totalRounds)
+	{
+		if (type.equals("step"))
+		{
+			return baseRate * Math.pow(factor, round / stepRounds);
+		}
+		else if (type.equals("exp"))
+		{
+			return baseRate * Math.pow(factor, round);
+		}
+		else if (type.equals("cosine"))
+		{
+			return baseRate * 0.5 * (1.0 + Math.cos(Math.PI * round / Math.max(totalRounds, 1)));
+		}
+		else
+		{
+			return baseRate;
+		}
+	}
+}
@@ -7,7 +7,10 @@
  */
 
 import java.io.*;
+import java.net.ServerSocket;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.*;
 import javax.swing.*;
 import java.awt.Graphics;
 import java.awt.Image;
@@ -19,12 +22,65 @@ public class MatthewMartin
 {
 	public static void main(String[] args)
 	{
-		final int hiddenUnits = 16;
-		final int trainingRounds = 10;
-		final double learningRate = 0.05;
+		int hiddenUnits = 16;
+		int trainingRounds = 10;
+		double learningRate = 0.05;
+		boolean learningRateSpecified = false;
+		String optimizerName = "sgd";
+		double momentum = 0.9;
+		LearningRateSchedule schedule = null;
+		String modelFile = "NeuralNetwork.data";
+		double cascadeThreshold = 0.9;
+		double distillTemperature = 1.0;
+		double distillSoftWeight = 0.5;
+		boolean modelFileSpecified = false;
+		boolean offHeap = false;
+		String[] ensembleFiles = null;
+		double[] ensembleWeights = null;
+		int ensembleCombine = NeuralNetwork_Ensemble.COMBINE_MEAN;
 		
 		int trainArg = -1;
 		int testArg = -1;
+		int cacheArg = -1;
+		int cascadeArg = -1;
+		int distillArg = -1;
+		int freezeArg = -1;
+		int crossFoldArg = -1;
+		int sweepArg = -1;
+		int finetuneArg = -1;
+		int replayArg = -1;
+		int replaySize = 50;
+		int jfrSummaryArg = -1;
+		int exportArg = -1;
+		int viewArg = -1;
+		int evaluateArg = -1;
+		int headsArg = -1;
+		int testHeadsArg = -1;
+		int planArg = -1;
+		int dedupDistance = -1;
+		int groupFoldsDistance = -1;
+		int hashKind = ImageDeduplicator.DIFFERENCE_HASH;
+		int labelsArg = -1;
+		int distributedArg = -1;
+		int paramServerArg = -1;
+		int workerArg = -1;
+		int batchSize = 16;
+		double topK = 1.0;
+		int staleness = -1;
+		int detailsArg = -1;
+		int evaluateThreads = Runtime.getRuntime().availableProcessors();
+		int exportImagesArg = -1;
+		long seed = System.currentTimeMillis();
+		int patience = -1;
+		int validationInterval = 1;
+		String checkpointFile = null;
+		int checkpointInterval = 1;
+		String resumeFile = null;
+		double hardExampleFraction = 1.0;
+		int hardExampleRefreshInterval = 4;
+		boolean metricsJmx = false;
+		String metricsLogFile = null;
+		double metricsInterval = 10.0;
 		
 		boolean parseSuccess = true;
 		
@@ -40,165 +96,1686 @@ public class MatthewMartin
 				testArg = i;
 				if (args.length <= i + 1) parseSuccess = false;
 			}
-		}
-		
-		if (parseSuccess)
-		{
-			if (trainArg >= 0 || testArg >= 0)
+			else if (args[i].toLowerCase().equals("-cache"))
+			{
+				cacheArg = i;
+				if (args.length <= i + 1 || !isInteger(args[i + 1])) parseSuccess = false;
+			}
+			else if (args[i].toLowerCase().equals("-lazy"))
+			{
+				if (args.length <= i + 1 || !isInteger(args[i + 1]) || Integer.parseInt(args[i + 1]) < 1) parseSuccess = false;
+				else ImageCollection.setDefaultPixelCache(new PixelCache(Integer.parseInt(args[i + 1])));
+			}
+			else if (args[i].toLowerCase().equals("-cascade"))
+			{
+				cascadeArg = i;
+				if (args.length <= i + 3) parseSuccess = false;
+			}
+			else if (args[i].toLowerCase().equals("-freeze"))
+			{
+				freezeArg = i;
+				if (args.length <= i + 1) parseSuccess = false;
+			}
+			else if (args[i].toLowerCase().equals("-crossfold"))
+			{
+				crossFoldArg = i;
+				if (args.length <= i + 3 || !isInteger(args[i + 1]) || Integer.parseInt(args[i + 1]) < 2) parseSuccess = false;
+			}
+			else if (args[i].toLowerCase().equals("-finetune"))
+			{
+				finetuneArg = i;
+				if (args.length <= i + 3) parseSuccess = false;
+			}
+			else if (args[i].toLowerCase().equals("-replay"))
+			{
+				replayArg = i;
+				if (args.length <= i + 2) parseSuccess = false;
+			}
+			else if (args[i].toLowerCase().equals("-replaysize"))
+			{
+				if (args.length <= i + 1 || !isInteger(args[i + 1]) || Integer.parseInt(args[i + 1]) < 0) parseSuccess = false;
+				else replaySize = Integer.parseInt(args[i + 1]);
+			}
+			else if (args[i].toLowerCase().equals("-heads"))
+			{
+				headsArg = i;
+				if (args.length <= i + 2) parseSuccess = false;
+			}
+			else if (args[i].toLowerCase().equals("-testheads"))
+			{
+				testHeadsArg = i;
+				if (args.length <= i + 1) parseSuccess = false;
+			}
+			else if (args[i].toLowerCase().equals("-labels"))
+			{
+				labelsArg = i;
+				if (args.length <= i + 1) parseSuccess = false;
+			}
+			else if (args[i].toLowerCase().equals("-distributed"))
+			{
+				distributedArg = i;
+				if (args.length <= i + 3 || !isInteger(args[i + 1]) || Integer.parseInt(args[i + 1]) < 1) parseSuccess = false;
+			}
+			else if (args[i].toLowerCase().equals("-paramserver"))
+			{
+				paramServerArg = i;
+				if (args.length <= i + 2 || !isInteger(args[i + 1]) || !isInteger(args[i + 2]) || Integer.parseInt(args[i + 2]) < 1) parseSuccess = false;
+			}
+			else if (args[i].toLowerCase().equals("-worker"))
+			{
+				workerArg = i;
+				if (args.length <= i + 3 || args[i + 1].lastIndexOf(':') < 0 || !isInteger(args[i + 1].substring(args[i + 1].lastIndexOf(':') + 1))) parseSuccess = false;
+			}
+			else if (args[i].toLowerCase().equals("-batch"))
+			{
+				if (args.length <= i + 1 || !isInteger(args[i + 1]) || Integer.parseInt(args[i + 1]) < 1) parseSuccess = false;
+				else batchSize = Integer.parseInt(args[i + 1]);
+			}
+			else if (args[i].toLowerCase().equals("-topk"))
+			{
+				if (args.length <= i + 1 || !isDouble(args[i + 1]) || Double.parseDouble(args[i + 1]) <= 0.0 || Double.parseDouble(args[i + 1]) > 1.0) parseSuccess = false;
+				else topK = Double.parseDouble(args[i + 1]);
+			}
+			else if (args[i].toLowerCase().equals("-staleness"))
+			{
+				if (args.length <= i + 1 || !isInteger(args[i + 1]) || Integer.parseInt(args[i + 1]) < 0) parseSuccess = false;
+				else staleness = Integer.parseInt(args[i + 1]);
+			}
+			else if (args[i].toLowerCase().equals("-dedup"))
+			{
+				if (args.length <= i + 1 || !isInteger(args[i + 1]) || Integer.parseInt(args[i + 1]) < 0 || Integer.parseInt(args[i + 1]) > 63) parseSuccess = false;
+				else dedupDistance = Integer.parseInt(args[i + 1]);
+			}
+			else if (args[i].toLowerCase().equals("-groupfolds"))
+			{
+				if (args.length <= i + 1 || !isInteger(args[i + 1]) || Integer.parseInt(args[i + 1]) < 0 || Integer.parseInt(args[i + 1]) > 63) parseSuccess = false;
+				else groupFoldsDistance = Integer.parseInt(args[i + 1]);
+			}
+			else if (args[i].toLowerCase().equals("-hash"))
+			{
+				if (args.length <= i + 1 || ImageDeduplicator.parseHashKind(args[i + 1]) < 0) parseSuccess = false;
+				else hashKind = ImageDeduplicator.parseHashKind(args[i + 1]);
+			}
+			else if (args[i].toLowerCase().equals("-plan"))
+			{
+				planArg = i;
+				if (args.length <= i + 2) parseSuccess = false;
+			}
+			else if (args[i].toLowerCase().equals("-evaluate"))
+			{
+				evaluateArg = i;
+				if (args.length <= i + 2) parseSuccess = false;
+			}
+			else if (args[i].toLowerCase().equals("-details"))
+			{
+				detailsArg = i;
+				if (args.length <= i + 1) parseSuccess = false;
+			}
+			else if (args[i].toLowerCase().equals("-threads"))
+			{
+				if (args.length <= i + 1 || !isInteger(args[i + 1]) || Integer.parseInt(args[i + 1]) < 1) parseSuccess = false;
+				else evaluateThreads = Integer.parseInt(args[i + 1]);
+			}
+			else if (args[i].toLowerCase().equals("-ensemble"))
+			{
+				if (args.length <= i + 1) parseSuccess = false;
+				else ensembleFiles = args[i + 1].split(",");
+			}
+			else if (args[i].toLowerCase().equals("-ensembleweights"))
+			{
+				if (args.length <= i + 1) parseSuccess = false;
+				else
+				{
+					String[] fields = args[i + 1].split(",");
+					ensembleWeights = new double[fields.length];
+					for (int w = 0; w < fields.length; w++)
+					{
+						if (!isDouble(fields[w]) || Double.parseDouble(fields[w]) < 0.0) parseSuccess = false;
+						else ensembleWeights[w] = Double.parseDouble(fields[w]);
+					}
+				}
+			}
+			else if (args[i].toLowerCase().equals("-combine"))
+			{
+				if (args.length <= i + 1 || NeuralNetwork_Ensemble.parseCombine(args[i + 1]) < 0) parseSuccess = false;
+				else ensembleCombine = NeuralNetwork_Ensemble.parseCombine(args[i + 1]);
+			}
+			else if (args[i].toLowerCase().equals("-view"))
+			{
+				viewArg = i;
+				if (args.length <= i + 1) parseSuccess = false;
+			}
+			else if (args[i].toLowerCase().equals("-export-png"))
+			{
+				exportArg = i;
+				if (args.length <= i + 1) parseSuccess = false;
+			}
+			else if (args[i].toLowerCase().equals("-exportimages"))
+			{
+				exportImagesArg = i;
+				if (args.length <= i + 1) parseSuccess = false;
+			}
+			else if (args[i].toLowerCase().equals("-jfrsummary"))
+			{
+				jfrSummaryArg = i;
+				if (args.length <= i + 1) parseSuccess = false;
+			}
+			else if (args[i].toLowerCase().equals("-sweep"))
+			{
+				sweepArg = i;
+				if (args.length <= i + 3) parseSuccess = false;
+			}
+			else if (args[i].toLowerCase().equals("-earlystop"))
+			{
+				if (args.length <= i + 1 || !isInteger(args[i + 1]) || Integer.parseInt(args[i + 1]) < 1) parseSuccess = false;
+				else patience = Integer.parseInt(args[i + 1]);
+			}
+			else if (args[i].toLowerCase().equals("-validateevery"))
+			{
+				if (args.length <= i + 1 || !isInteger(args[i + 1]) || Integer.parseInt(args[i + 1]) < 1) parseSuccess = false;
+				else validationInterval = Integer.parseInt(args[i + 1]);
+			}
+			else if (args[i].toLowerCase().equals("-checkpoint"))
+			{
+				if (args.length <= i + 1) parseSuccess = false;
+				else checkpointFile = args[i + 1];
+			}
+			else if (args[i].toLowerCase().equals("-checkpointevery"))
+			{
+				if (args.length <= i + 1 || !isInteger(args[i + 1]) || Integer.parseInt(args[i + 1]) < 1) parseSuccess = false;
+				else checkpointInterval = Integer.parseInt(args[i + 1]);
+			}
+			else if (args[i].toLowerCase().equals("-resume"))
+			{
+				if (args.length <= i + 1) parseSuccess = false;
+				else resumeFile = args[i + 1];
+			}
+			else if (args[i].toLowerCase().equals("-hardexamples"))
+			{
+				if (args.length <= i + 1 || !isDouble(args[i + 1]) || Double.parseDouble(args[i + 1]) <= 0.0 || Double.parseDouble(args[i + 1]) > 1.0) parseSuccess = false;
+				else hardExampleFraction = Double.parseDouble(args[i + 1]);
+			}
+			else if (args[i].toLowerCase().equals("-refreshevery"))
+			{
+				if (args.length <= i + 1 || !isInteger(args[i + 1]) || Integer.parseInt(args[i + 1]) < 1) parseSuccess = false;
+				else hardExampleRefreshInterval = Integer.parseInt(args[i + 1]);
+			}
+			else if (args[i].toLowerCase().equals("-metrics"))
+			{
+				metricsJmx = true;
+			}
+			else if (args[i].toLowerCase().equals("-metricslog"))
+			{
+				if (args.length <= i + 1) parseSuccess = false;
+				else metricsLogFile = args[i + 1];
+			}
+			else if (args[i].toLowerCase().equals("-metricsevery"))
+			{
+				if (args.length <= i + 1 || !isDouble(args[i + 1]) || Double.parseDouble(args[i + 1]) <= 0.0) parseSuccess = false;
+				else metricsInterval = Double.parseDouble(args[i + 1]);
+			}
+			else if (args[i].toLowerCase().equals("-rate"))
+			{
+				if (args.length <= i + 1 || !isDouble(args[i + 1]) || !(Double.parseDouble(args[i + 1]) > 0.0)) parseSuccess = false;
+				else
+				{
+					learningRate = Double.parseDouble(args[i + 1]);
+					learningRateSpecified = true;
+				}
+			}
+			else if (args[i].toLowerCase().equals("-optimizer"))
+			{
+				if (args.length <= i + 1 || !Arrays.asList("sgd", "momentum", "nesterov", "adam").contains(args[i + 1].toLowerCase())) parseSuccess = false;
+				else optimizerName = args[i + 1].toLowerCase();
+			}
+			else if (args[i].toLowerCase().equals("-momentum"))
+			{
+				if (args.length <= i + 1 || !isDouble(args[i + 1])) parseSuccess = false;
+				else momentum = Double.parseDouble(args[i + 1]);
+			}
+			else if (args[i].toLowerCase().equals("-schedule"))
+			{
+				if (args.length <= i + 1 || LearningRateSchedule.parse(args[i + 1]) == null) parseSuccess = false;
+				else schedule = LearningRateSchedule.parse(args[i + 1]);
+			}
+			else if (args[i].toLowerCase().equals("-seed"))
+			{
+				if (args.length <= i + 1) parseSuccess = false;
+				else
+				{
+					try
+					{
+						seed = Long.parseLong(args[i + 1]);
+					}
+					catch (NumberFormatException e)
+					{
+						parseSuccess = false;
+					}
+				}
+			}
+			else if (args[i].toLowerCase().equals("-offheap"))
+			{
+				offHeap = true;
+			}
+			else if (args[i].toLowerCase().equals("-hidden"))
+			{
+				// The weight offsets are ints, so a network may not have more than Integer.MAX_VALUE weights.
+				if (args.length <= i + 1 || !isInteger(args[i + 1]) || Integer.parseInt(args[i + 1]) < 1 || Integer.parseInt(args[i + 1]) > NeuralNetwork_Frozen.MAX_HIDDEN_UNITS) parseSuccess = false;
+				else hiddenUnits = Integer.parseInt(args[i + 1]);
+			}
+			else if (args[i].toLowerCase().equals("-model"))
+			{
+				if (args.length <= i + 1) parseSuccess = false;
+				else
+				{
+					modelFile = args[i + 1];
+					modelFileSpecified = true;
+				}
+			}
+			else if (args[i].toLowerCase().equals("-threshold"))
+			{
+				// Confidences range from 0.5 to 1, so other thresholds would always or never short-circuit.
+				if (args.length <= i + 1 || !isDouble(args[i + 1]) || Double.parseDouble(args[i + 1]) < 0.5 || Double.parseDouble(args[i + 1]) > 1.0) parseSuccess = false;
+				else cascadeThreshold = Double.parseDouble(args[i + 1]);
+			}
+			else if (args[i].toLowerCase().equals("-distill"))
+			{
+				distillArg = i;
+				if (args.length <= i + 3) parseSuccess = false;
+			}
+			else if (args[i].toLowerCase().equals("-rounds"))
+			{
+				if (args.length <= i + 1 || !isInteger(args[i + 1]) || Integer.parseInt(args[i + 1]) < 1) parseSuccess = false;
+				else trainingRounds = Integer.parseInt(args[i + 1]);
+			}
+			else if (args[i].toLowerCase().equals("-softweight"))
+			{
+				// The weight blends the teacher's outputs with the labels, so it must lie between 0 and 1.
+				if (args.length <= i + 1 || !isDouble(args[i + 1]) || !(Double.parseDouble(args[i + 1]) >= 0.0 && Double.parseDouble(args[i + 1]) <= 1.0)) parseSuccess = false;
+				else distillSoftWeight = Double.parseDouble(args[i + 1]);
+			}
+			else if (args[i].toLowerCase().equals("-temperature"))
+			{
+				// The logit is divided by the temperature, so zero or negative values are meaningless.
+				if (args.length <= i + 1 || !isDouble(args[i + 1]) || !(Double.parseDouble(args[i + 1]) > 0.0)) parseSuccess = false;
+				else distillTemperature = Double.parseDouble(args[i + 1]);
+			}
+		}
+		
+		if (ensembleWeights != null && (ensembleFiles == null || ensembleWeights.length != ensembleFiles.length))
+		{ // Every model of the ensemble needs exactly one weight.
+			parseSuccess = false;
+		}
+		
+		TrainingCheckpoint checkpoint = null;
+		if (parseSuccess && trainArg >= 0 && resumeFile != null)
+		{ // Continue the training run saved in the checkpoint, with its network size, optimizer, settings and random state.
+			// The checkpoint is read before any setting is defaulted or used, so the run continues with the settings it started with.
+			checkpoint = TrainingCheckpoint.load(resumeFile);
+			if (checkpoint != null)
+			{
+				hiddenUnits = checkpoint.numHiddenUnits();
+				optimizerName = checkpoint.optimizerName;
+				if (checkpoint.hasSettings)
+				{
+					learningRate = checkpoint.learningRate;
+					learningRateSpecified = true;
+					momentum = checkpoint.momentum;
+					schedule = checkpoint.getSchedule();
+					trainingRounds = checkpoint.trainingRounds;
+					seed = checkpoint.seed;
+				}
+				else
+				{
+					System.out.println("The checkpoint does not record its training settings. The settings on the command line are used.");
+				}
+			}
+		}
+		
+		if (parseSuccess && optimizerName.equals("adam") && !learningRateSpecified)
+		{ // Adam scales its steps itself, and needs a much smaller learning rate than plain gradient descent.
+			learningRate = 0.001;
+		}
+		
+		if (parseSuccess)
+		{
+			if (trainArg >= 0 || testArg >= 0 || cascadeArg >= 0 || distillArg >= 0 || freezeArg >= 0 || crossFoldArg >= 0 || sweepArg >= 0 || finetuneArg >= 0 || jfrSummaryArg >= 0 || exportArg >= 0 || viewArg >= 0 || evaluateArg >= 0 || distributedArg >= 0 || paramServerArg >= 0 || workerArg >= 0 || headsArg >= 0 || testHeadsArg >= 0 || planArg >= 0)
+			{
+				NeuralNetwork nn = null;
+				// The network that -test, -evaluate and -cascade predict with: the one trained in this run, or else one loaded
+				// for predictions only.
+				InferenceNetwork predictionNN = null;
+				
+				if (distillArg >= 0)
+				{ // The -distill option was specified.
+					// Train a student network (with "-hidden" hidden units) on the outputs of the teacher network.
+					if (checkMemoryPlan(planDistillation(args[distillArg + 1], args[distillArg + 2], args[distillArg + 3], hiddenUnits, offHeap), true))
+					{
+						InferenceNetwork teacher = NeuralNetwork_Frozen.load(args[distillArg + 1], offHeap);
+						ImageCollection maleData = new ImageCollection(args[distillArg + 2], "Male");
+						ImageCollection femaleData = new ImageCollection(args[distillArg + 3], "Female");
+						ImageCollection normalizedTrainingData = femaleData.duplicate(4).combine(maleData);
+						
+						if (teacher != null && normalizedTrainingData.numImages() > 0)
+						{
+							// Unless a "-model" file was given, the student is saved next to (rather than over) the teacher.
+							String studentFile = modelFileSpecified ? modelFile : "NeuralNetwork_Student.data";
+							
+							nn = newNeuralNetwork(hiddenUnits, offHeap);
+							distillNeuralNetwork(teacher, nn, normalizedTrainingData, trainingRounds, learningRate, distillTemperature, distillSoftWeight);
+							nn.saveToFile(studentFile);
+							
+							ImageCollection labeledData = femaleData.combine(maleData);
+							System.out.printf("Teacher: %d / %d correct on training data.%n", countCorrect(teacher, labeledData), labeledData.numImages());
+							System.out.printf("Student: %d / %d correct on training data (saved to \"%s\").%n", countCorrect(nn, labeledData), labeledData.numImages(), studentFile);
+						}
+						else
+						{
+							System.out.println("Failed to load the teacher network or any training data.");
+						}
+					}
+				}
+				
+				if (planArg >= 0)
+				{ // The -plan option was specified.
+					// Estimate the memory a -train run with these settings would need, without loading the images.
+					planTraining(args[planArg + 1], args[planArg + 2], hiddenUnits, offHeap, optimizerName, patience > 0, checkpointFile != null, hardExampleFraction).print(System.out);
+				}
+				
+				if (trainArg >= 0 && checkMemoryPlan(planTraining(args[trainArg + 1], args[trainArg + 2], hiddenUnits, offHeap, optimizerName, patience > 0, checkpointFile != null, hardExampleFraction), true))
+				{ // The -train option was specified.
+					// Collect the training data into an image collection.
+					ImageCollection maleData = new ImageCollection(args[trainArg + 1], "Male");
+					ImageCollection femaleData = new ImageCollection(args[trainArg + 2], "Female");
+					if (dedupDistance >= 0)
+					{
+						ImageDeduplicator dedup = new ImageDeduplicator(dedupDistance, hashKind, evaluateThreads);
+						maleData = removeNearDuplicates(maleData, dedup);
+						femaleData = removeNearDuplicates(femaleData, dedup);
+					}
+					ImageCollection normalizedTrainingData = femaleData.duplicate(4).combine(maleData);
+					
+					TrainingOptions options = new TrainingOptions(trainingRounds, learningRate);
+					if (patience > 0 && maleData.numImages() >= 5 && femaleData.numImages() >= 5)
+					{
+						// Hold out validation data for early stopping.
+						ImageCollection[] split = splitTrainingData(maleData, femaleData, new Random(seed));
+						normalizedTrainingData = split[0];
+						options.validationData = split[1];
+						options.validationInterval = validationInterval;
+						options.patience = patience;
+					}
+					else if (patience > 0)
+					{
+						// One fifth of each class is held out, so both classes need at least five images.
+						System.out.printf("Warning: -earlystop needs at least 5 images of each class (found %d male, %d female). Training without early stopping.%n",
+							maleData.numImages(), femaleData.numImages());
+					}
+					
+					if (resumeFile != null && checkpoint == null)
+					{
+						System.out.println("Failed to load the checkpoint.");
+					}
+					else if (normalizedTrainingData.numImages() > 0)
+					{
+						// Train the neural network and save the trained network to the model file ("NeuralNetwork.data" by default).
+						nn = newNeuralNetwork(hiddenUnits, offHeap);
+						options.optimizer = newOptimizer(optimizerName, nn.numWeights(), learningRate, momentum);
+						options.schedule = schedule;
+						options.checkpointFile = checkpointFile;
+						options.checkpointInterval = checkpointInterval;
+						options.hardExampleFraction = hardExampleFraction;
+						options.hardExampleRefreshInterval = hardExampleRefreshInterval;
+						options.momentum = momentum;
+						options.seed = seed;
+						if (checkpoint != null && !checkpoint.restore(nn, options.optimizer))
+						{
+							// Training from fresh random weights would quietly throw the checkpointed run away.
+							System.out.printf("The checkpoint \"%s\" does not match the network or optimizer. Training was not resumed.%n", resumeFile);
+							nn = null;
+						}
+						else
+						{
+							if (checkpoint != null)
+							{
+								options.rand = checkpoint.getRandom();
+								options.startRound = checkpoint.round;
+								System.out.printf("Resuming training from round %d of %d.%n", checkpoint.round, trainingRounds);
+							}
+							options.metrics = newTrainingMetrics("train", metricsJmx, metricsLogFile, metricsInterval);
+							if (options.metrics != null) options.metrics.setMemoryPlan(MemoryPlan.estimateRunning(nn, options, normalizedTrainingData));
+							trainNeuralNetwork(nn, normalizedTrainingData, trueOutputs(normalizedTrainingData), options);
+							closeTrainingMetrics(options.metrics);
+							nn.saveToFile(modelFile);
+						}
+					}
+					else
+					{
+						System.out.println("Failed to load any training data.");
+					}
+				}
+				if (headsArg >= 0)
+				{ // The -heads option was specified.
+					// Train a network with one output head per attribute in the label file, sharing a single hidden layer.
+					HeadLabels labels = HeadLabels.load(args[headsArg + 1]);
+					if (labels != null && hiddenUnits > NeuralNetwork_MultiHead.maxHiddenUnits(labels.numHeads()))
+					{
+						System.out.printf("A network with %d heads can have at most %d hidden units.%n", labels.numHeads(), NeuralNetwork_MultiHead.maxHiddenUnits(labels.numHeads()));
+					}
+					else if (labels == null || checkMemoryPlan(MemoryPlan.estimateMultiHead(hiddenUnits, labels.numHeads(), ImageCollection.countImageFiles(args[headsArg + 2]),
+						offHeap, optimizerName, ImageCollection.getDefaultPixelCache()), true))
+					{
+						ImageCollection trainingData = new ImageCollection(args[headsArg + 2], "");
+						String headsFile = modelFileSpecified ? modelFile : "NeuralNetwork_Heads.data";
+						
+						if (labels != null && trainingData.numImages() > 0)
+						{
+							double[][] targets = labels.getTargets(trainingData);
+							NeuralNetwork_MultiHead heads = new NeuralNetwork_MultiHead(hiddenUnits, labels.getHeadNames(),
+								newWeightStorage(NeuralNetwork_MultiHead.numWeights(hiddenUnits, labels.numHeads()), offHeap), new Random(seed));
+							
+							TrainingOptions options = new TrainingOptions(trainingRounds, learningRate);
+							options.optimizer = newOptimizer(optimizerName, heads.numWeights(), learningRate, momentum);
+							options.schedule = schedule;
+							options.rand = new Random(seed);
+							trainMultiHeadNetwork(heads, trainingData, targets, options);
+							heads.saveToFile(headsFile);
+							
+							System.out.printf("Saved %d-head network to \"%s\". Results on the training data:%n", heads.numHeads(), headsFile);
+							calculateHeadResults(heads, trainingData, targets);
+						}
+						else
+						{
+							System.out.println("Failed to load the labels or any training data.");
+						}
+					}
+				}
+				if (testHeadsArg >= 0)
+				{ // The -testheads option was specified.
+					// Print every head's prediction for each image, and each head's accuracy if a label file was given.
+					ImageCollection testData = new ImageCollection(args[testHeadsArg + 1], "");
+					NeuralNetwork_MultiHead heads = NeuralNetwork_MultiHead.load(modelFileSpecified ? modelFile : "NeuralNetwork_Heads.data", offHeap);
+					
+					if (heads != null && testData.numImages() > 0)
+					{
+						printHeadPredictions(heads, testData);
+						if (labelsArg >= 0)
+						{
+							HeadLabels labels = HeadLabels.load(args[labelsArg + 1]);
+							if (labels != null) calculateHeadResults(heads, testData, labels.getTargets(testData));
+						}
+					}
+				}
+				if (distributedArg >= 0 || paramServerArg >= 0)
+				{ // The -distributed or -paramserver option was specified.
+					// Run the parameter server for data-parallel training, with worker processes launched on this host (-distributed)
+					// or started separately with -worker (-paramserver), and save the trained network to the model file.
+					int port = (distributedArg >= 0) ? 0 : Integer.parseInt(args[paramServerArg + 1]);
+					int numWorkers = Integer.parseInt((distributedArg >= 0) ? args[distributedArg + 1] : args[paramServerArg + 2]);
+					
+					nn = newNeuralNetwork(hiddenUnits, false);
+					Optimizer optimizer = newOptimizer(optimizerName, nn.numWeights(), learningRate, momentum);
+					double[] weights = new double[nn.numWeights()];
+					nn.copyWeights(weights);
+					ParameterServer server = new ParameterServer(weights, optimizer, learningRate, numWorkers, trainingRounds, batchSize, topK, staleness, seed);
+					
+					if (distributedArg >= 0)
+					{
+						runDistributedTraining(server, numWorkers, args[distributedArg + 2], args[distributedArg + 3]);
+					}
+					else
+					{
+						runParameterServer(server, port, numWorkers);
+					}
+					
+					server.copyWeights(weights);
+					nn.setWeights(weights);
+					nn.saveToFile(modelFile);
+				}
+				if (workerArg >= 0)
+				{ // The -worker option was specified.
+					// Train on this worker's shard of the labeled images for the parameter server at <Host:Port>.
+					String address = args[workerArg + 1];
+					int separator = address.lastIndexOf(':');
+					DistributedWorker.run(address.substring(0, separator), Integer.parseInt(address.substring(separator + 1)), args[workerArg + 2], args[workerArg + 3]);
+				}
+				if (finetuneArg >= 0)
+				{ // The -finetune option was specified.
+					// Continue training an existing network on new data only, mixed with a small replay sample of the old data.
+					if (checkMemoryPlan(planFinetuning(args[finetuneArg + 1], args[finetuneArg + 2], args[finetuneArg + 3], (replayArg >= 0) ? args[replayArg + 1] : null,
+						(replayArg >= 0) ? args[replayArg + 2] : null, offHeap, optimizerName, hardExampleFraction), true))
+					{
+						ImageCollection maleData = new ImageCollection(args[finetuneArg + 2], "Male");
+						ImageCollection femaleData = new ImageCollection(args[finetuneArg + 3], "Female");
+						ImageCollection normalizedTrainingData = femaleData.duplicate(4).combine(maleData);
+						
+						if (replayArg >= 0 && replaySize > 0)
+						{
+							// Half of the replay sample is drawn from each class of the old data.
+							Random replayRand = new Random(seed);
+							ImageCollection oldMaleData = new ImageCollection(args[replayArg + 1], "Male");
+							ImageCollection oldFemaleData = new ImageCollection(args[replayArg + 2], "Female");
+							normalizedTrainingData.addAll(oldMaleData.getRandomSample(replaySize - (replaySize / 2), replayRand));
+							normalizedTrainingData.addAll(oldFemaleData.getRandomSample(replaySize / 2, replayRand));
+						}
+						
+						// Unless a "-model" file was given, the updated network is saved under the next version of the model's file name.
+						String updatedFile = modelFileSpecified ? modelFile : nextModelFileVersion(args[finetuneArg + 1]);
+						
+						nn = loadNeuralNetwork(args[finetuneArg + 1], offHeap);
+						if (nn != null && normalizedTrainingData.numImages() > 0)
+						{
+							TrainingOptions options = new TrainingOptions(trainingRounds, learningRate);
+							options.optimizer = newOptimizer(optimizerName, nn.numWeights(), learningRate, momentum);
+							options.schedule = schedule;
+							options.hardExampleFraction = hardExampleFraction;
+							options.hardExampleRefreshInterval = hardExampleRefreshInterval;
+							options.metrics = newTrainingMetrics("finetune", metricsJmx, metricsLogFile, metricsInterval);
+							if (options.metrics != null) options.metrics.setMemoryPlan(MemoryPlan.estimateRunning(nn, options, normalizedTrainingData));
+							trainNeuralNetwork(nn, normalizedTrainingData, trueOutputs(normalizedTrainingData), options);
+							closeTrainingMetrics(options.metrics);
+							nn.saveToFile(updatedFile);
+							
+							System.out.printf("Fine-tuned on %d new and %d replayed images. Saved to \"%s\".%n",
+								maleData.numImages() + femaleData.numImages(),
+								normalizedTrainingData.numImages() - (maleData.numImages() + (4 * femaleData.numImages())),
+								updatedFile);
+						}
+						else
+						{
+							System.out.println("Failed to load the neural network or any new training data.");
+						}
+					}
+				}
+				if (crossFoldArg >= 0)
+				{ // The -crossfold option was specified.
+					// Train and evaluate one network per fold, concurrently.
+					int numFolds = Integer.parseInt(args[crossFoldArg + 1]);
+					if (checkMemoryPlan(MemoryPlan.estimateCrossFold(hiddenUnits, numFolds, numConcurrentFolds(numFolds), ImageCollection.countImageFiles(args[crossFoldArg + 2]),
+						ImageCollection.countImageFiles(args[crossFoldArg + 3]), ImageCollection.getDefaultPixelCache()), false))
+					{
+						ImageCollection maleData = new ImageCollection(args[crossFoldArg + 2], "Male");
+						ImageCollection femaleData = new ImageCollection(args[crossFoldArg + 3], "Female");
+						if (dedupDistance >= 0)
+						{
+							ImageDeduplicator dedup = new ImageDeduplicator(dedupDistance, hashKind, evaluateThreads);
+							maleData = removeNearDuplicates(maleData, dedup);
+							femaleData = removeNearDuplicates(femaleData, dedup);
+						}
+						// The folds are drawn from the images themselves; the female images are only oversampled within each training fold.
+						ImageCollection labeledData = femaleData.combine(maleData);
+						
+						int[] groups = null;
+						if (groupFoldsDistance >= 0)
+						{
+							// Keep near-duplicates in the same fold.
+							ImageDeduplicator grouper = new ImageDeduplicator(groupFoldsDistance, hashKind, evaluateThreads);
+							groups = grouper.findGroups(labeledData);
+							System.out.println(grouper);
+						}
+						
+						if (labeledData.numImages() > 0)
+						{
+							crossFoldValidation(hiddenUnits, numFolds, labeledData, trainingRounds, learningRate, seed, groups);
+						}
+						else
+						{
+							System.out.println("Failed to load any training data.");
+						}
+					}
+				}
+				if (sweepArg >= 0)
+				{ // The -sweep option was specified.
+					// Search the hyperparameter space described in the file, and write a leaderboard of the trials.
+					if (checkMemoryPlan(planSweep(args[sweepArg + 1], args[sweepArg + 2], args[sweepArg + 3]), false))
+					{
+						ImageCollection maleData = new ImageCollection(args[sweepArg + 2], "Male");
+						ImageCollection femaleData = new ImageCollection(args[sweepArg + 3], "Female");
+						runHyperparameterSweep(args[sweepArg + 1], maleData, femaleData);
+					}
+				}
+				if (viewArg >= 0)
+				{ // The -view option was specified.
+					// Browse the images in the directory in a scrollable window. Only the visible images are rendered.
+					displayImages(new ImageCollection(args[viewArg + 1], ""), 2000);
+				}
+				if (exportArg >= 0)
+				{ // The -export-png option was specified.
+					// Render the network's weight maps (and the -exportimages images) to PNG files, in parallel and without a display.
+					System.setProperty("java.awt.headless", "true");
+					exportPngs(args[exportArg + 1], nn, modelFile, (exportImagesArg >= 0) ? args[exportImagesArg + 1] : null);
+				}
+				if (jfrSummaryArg >= 0)
+				{ // The -jfrsummary option was specified.
+					// Summarize the neural network events in the flight recording into per-phase hot spots.
+					JfrSummary.summarize(args[jfrSummaryArg + 1]);
+				}
+				if (freezeArg >= 0)
+				{ // The -freeze option was specified.
+					// Convert the model file into a frozen (inference-only) network file, and compare the start-up times.
+					freezeNeuralNetwork(modelFile, args[freezeArg + 1]);
+				}
+				if (testArg >= 0)
+				{ // The -test option was specified.
+					// Load the test data into an image collection.
+					ImageCollection testData = new ImageCollection(args[testArg + 1], "");
+					boolean success = (testData.numImages() > 0);
+					
+					if (predictionNN == null)
+					{
+						// If the neural network was not created this run of the program, attempt to load it (or the -ensemble models).
+						// Only predictions are needed, so it is loaded as a frozen network.
+						predictionNN = (nn != null) ? nn : loadPredictionNetwork(modelFile, ensembleFiles, ensembleWeights, ensembleCombine, offHeap);
+						success = success && (predictionNN != null);
+					}
+					if (success)
+					{
+						// Run the test data through the neural network and print the results.
+						// Duplicate images are only evaluated once if the -cache option was specified.
+						PredictionCache cache = null;
+						if (cacheArg >= 0)
+						{
+							cache = new PredictionCache(Integer.parseInt(args[cacheArg + 1]));
+						}
+						printPredictions(predictionNN, testData, cache);
+						if (cache != null)
+						{
+							System.err.println(cache);
+						}
+					}
+				}
+				if (evaluateArg >= 0)
+				{ // The -evaluate option was specified.
+					// Evaluate the neural network on labeled data in a single parallel pass, and report the accuracy, confusion matrix and ROC curve.
+					ImageCollection maleData = new ImageCollection(args[evaluateArg + 1], "Male");
+					ImageCollection femaleData = new ImageCollection(args[evaluateArg + 2], "Female");
+					ImageCollection labeledData = femaleData.combine(maleData);
+					
+					if (predictionNN == null)
+					{
+						predictionNN = (nn != null) ? nn : loadPredictionNetwork(modelFile, ensembleFiles, ensembleWeights, ensembleCombine, offHeap);
+					}
+					
+					if (predictionNN != null && labeledData.numImages() > 0)
+					{
+						if (detailsArg >= 0)
+						{
+							try (Writer details = new BufferedWriter(new FileWriter(args[detailsArg + 1]), 1 << 16))
+							{
+								calculateTestResults(predictionNN, labeledData, evaluateThreads, details);
+							}
+							catch (IOException e)
+							{
+								System.out.printf("Error writing evaluation details to file \"%s\".%n", args[detailsArg + 1]);
+							}
+						}
+						else
+						{
+							calculateTestResults(predictionNN, labeledData, evaluateThreads, null);
+						}
+					}
+				}
+				if (cascadeArg >= 0)
+				{ // The -cascade option was specified.
+					// Compare a cascade of the cheap and full networks against the full network alone, on labeled data.
+					ImageCollection maleData = new ImageCollection(args[cascadeArg + 2], "Male");
+					ImageCollection femaleData = new ImageCollection(args[cascadeArg + 3], "Female");
+					ImageCollection labeledData = femaleData.combine(maleData);
+					
+					InferenceNetwork cheapNN = NeuralNetwork_Frozen.load(args[cascadeArg + 1], offHeap);
+					if (predictionNN == null)
+					{
+						predictionNN = (nn != null) ? nn : NeuralNetwork_Frozen.load(modelFile, offHeap);
+					}
+					
+					if (cheapNN != null && predictionNN != null && labeledData.numImages() > 0)
+					{
+						calculateCascadeResults(new CascadePredictor(cheapNN, predictionNN, cascadeThreshold), predictionNN, labeledData);
+					}
+				}
+				if (ImageCollection.getDefaultPixelCache() != null)
+				{
+					System.err.println(ImageCollection.getDefaultPixelCache());
+				}
+			}
+			else
+			{ // No -train or -test option was specified. Print usage information to the user.
+				System.out.println("Please specify a -train and/or -test option.");
+				System.out.println("Usage: \"java MatthewMartin -train <MaleDir> <FemaleDir>\"");
+				System.out.println("       \"java MatthewMartin -test <TestDir>\"");
+				System.out.println("       \"java MatthewMartin -evaluate <MaleDir> <FemaleDir>\"");
+				System.out.println("       \"java MatthewMartin -cascade <CheapModelFile> <MaleDir> <FemaleDir>\"");
+				System.out.println("       \"java MatthewMartin -sweep <SearchSpaceFile> <MaleDir> <FemaleDir>\"");
+				System.out.println("       \"java MatthewMartin -freeze <FrozenModelFile>\"");
+				System.out.println("       \"java MatthewMartin -crossfold <NumFolds> <MaleDir> <FemaleDir>\"");
+				System.out.println("       \"java MatthewMartin -heads <LabelFile> <ImageDir>\"");
+				System.out.println("       \"java MatthewMartin -testheads <ImageDir> [-labels <LabelFile>]\"");
+				System.out.println("       \"java MatthewMartin -distributed <Workers> <MaleDir> <FemaleDir>\"");
+				System.out.println("       \"java MatthewMartin -paramserver <Port> <Workers>\"");
+				System.out.println("       \"java MatthewMartin -worker <Host:Port> <MaleDir> <FemaleDir>\"");
+				System.out.println("       \"java MatthewMartin -finetune <ModelFile> <NewMaleDir> <NewFemaleDir>\"");
+				System.out.println("       \"java MatthewMartin -view <ImageDir>\"");
+				System.out.println("       \"java MatthewMartin -export-png <OutputDir> [-exportimages <ImageDir>]\"");
+				System.out.println("       \"java MatthewMartin -jfrsummary <RecordingFile>\"");
+				System.out.println("       \"java MatthewMartin -plan <MaleDir> <FemaleDir>\"");
+				System.out.println("       \"java MatthewMartin -distill <TeacherModelFile> <MaleDir> <FemaleDir>\"");
+				System.out.println("Options: \"-cache <Size>\" caches up to <Size> predictions of duplicate test images.");
+				System.out.println("         \"-threads <Threads>\" sets the number of threads -evaluate runs on (default: one per processor).");
+				System.out.println("         \"-details <File>\" writes a line per image evaluated by -evaluate to the file.");
+				System.out.println("         \"-lazy <Images>\" reads image pixels only when needed, keeping at most <Images> images in memory.");
+				System.out.println("         \"-ensemble <Model1,Model2,...>\" makes -test and -evaluate combine the predictions of several model files.");
+				System.out.println("         \"-combine <mean|vote>\" combines the ensemble's outputs by their mean or by a vote (default mean).");
+				System.out.println("         \"-ensembleweights <W1,W2,...>\" weights each ensemble model's output or vote (default: equal weights).");
+				System.out.println("         \"-dedup <MaxDistance>\" removes near-duplicate images (hashes within <MaxDistance> bits) before -train or -crossfold.");
+				System.out.println("         \"-groupfolds <MaxDistance>\" keeps near-duplicate images in the same -crossfold fold.");
+				System.out.println("         \"-hash <ahash|dhash>\" sets the perceptual hash used to find near-duplicates (default dhash).");
+				System.out.println("         \"-hidden <Units>\" sets the number of hidden units to train with (1 to " + NeuralNetwork_Frozen.MAX_HIDDEN_UNITS + ").");
+				System.out.println("         \"-rounds <Rounds>\" sets the number of training rounds, at least 1 (default 10).");
+				System.out.println("         \"-model <File>\" sets the neural network file to save/load (default \"NeuralNetwork.data\").");
+				System.out.println("         \"-threshold <Confidence>\" sets the confidence (0.5 to 1) the cascade's cheap network must reach (default 0.9).");
+				System.out.println("         \"-seed <Seed>\" makes crossfold validation reproducible.");
+				System.out.println("         \"-rate <LearningRate>\" sets the learning rate, above 0 (default 0.05, or 0.001 for Adam).");
+				System.out.println("         \"-optimizer <sgd|momentum|nesterov|adam>\" sets the weight update rule (default sgd).");
+				System.out.println("         \"-momentum <Momentum>\" sets the momentum of the momentum and nesterov optimizers (default 0.9).");
+				System.out.println("         \"-schedule <constant|step:Factor:Rounds|exp:Factor|cosine>\" changes the learning rate each round.");
+				System.out.println("         \"-earlystop <Patience>\" holds out validation data and stops training once it stops improving.");
+				System.out.println("         \"-validateevery <Rounds>\" sets how often the validation data is evaluated (default 1).");
+				System.out.println("         \"-hardexamples <Fraction>\" trains on that fraction of the images, mostly the poorly predicted ones, between full rounds.");
+				System.out.println("         \"-refreshevery <Rounds>\" sets how often a full round refreshes the hard-example losses (default 4).");
+				System.out.println("         \"-metrics\" publishes training metrics as a JMX MBean (\"NeuralNetwork:type=TrainingMetrics\").");
+				System.out.println("         \"-metricslog <File>\" appends the training metrics to the file as JSON lines.");
+				System.out.println("         \"-metricsevery <Seconds>\" sets how often a metrics line is written (default 10).");
+				System.out.println("         \"-checkpoint <File>\" saves the training state to the file in the background while training.");
+				System.out.println("         \"-checkpointevery <Rounds>\" sets how often a checkpoint is saved (default 1).");
+				System.out.println("         \"-resume <CheckpointFile>\" continues a -train run from a saved checkpoint.");
+				System.out.println("         \"-batch <Images>\" sets the number of images per gradient a distributed worker sends (default 16).");
+				System.out.println("         The parameter server averages each update over its images and applies it at \"-rate\", so each image counts for");
+				System.out.println("         -rate / (<Batch> * <Workers>) (synchronous) or -rate / <Batch> (with -staleness): raise -rate as those grow.");
+				System.out.println("         \"-staleness <Batches>\" lets distributed workers run up to that many batches ahead of the slowest (default: synchronous).");
+				System.out.println("         \"-topk <Fraction>\" makes distributed workers send only that fraction of the gradients, the largest ones.");
+				System.out.println("         \"-replay <OldMaleDir> <OldFemaleDir>\" mixes a sample of the old training data into -finetune.");
+				System.out.println("         \"-replaysize <Images>\" sets the number of old images replayed when fine-tuning (default 50).");
+				System.out.println("         \"-offheap\" keeps the neural network weights outside of the Java heap.");
+				System.out.println("         \"-temperature <T>\" softens the teacher's outputs when distilling, above 0 (default 1.0).");
+				System.out.println("         \"-softweight <W>\" blends the teacher's outputs with the labels when distilling, between 0 and 1 (default 0.5).");
+			}
+		}
+		else
+		{ // Parsing Failed.
+			System.out.println("Failed to parse input parameters. Please check parameter arguments.");
+		}
+		
+		// Code to produce the neural network visualization. Not accessible through normal program usage.
+		/*
+		NeuralNetwork nn = new NeuralNetwork_AllConnected(hiddenUnits);
+		ImageCollection femaleData = new ImageCollection("Female");
+		ImageCollection maleData = new ImageCollection("Male");
+		ImageCollection testData = new ImageCollection("Test");
+		ImageCollection normalizedTrainingData = femaleData.duplicate(4).combine(maleData);
+		trainNeuralNetwork(nn, normalizedTrainingData, trainingRounds, learningRate);
+		
+		crossFoldValidation(trainingRounds, 5, normalizedTrainingData, trainingRounds, learningRate);
+		
+		displayImages(nn.visualizeWeights());
+		displayImages(femaleData, 1000);
+		displayImages(maleData, 1000);
+		displayImages(testData, 1000);
+		*/
+	}
+	
+	// Runs the parameter server with numWorkers worker processes launched on this host, each training on its own shard of
+	// the labeled images. The workers are started with the same Java runtime and class path as this process, and their output
+	// is shown with this process's. Returns true iff every worker finished successfully.
+	public static boolean runDistributedTraining(ParameterServer server, int numWorkers, String maleDir, String femaleDir)
+	{
+		List<Process> workers = new ArrayList<Process>();
+		boolean success = runParameterServer(server, 0, numWorkers, new String[] { maleDir, femaleDir }, workers);
+		
+		for (Process worker : workers)
+		{
+			try
+			{
+				success = (worker.waitFor() == 0) && success;
+			}
+			catch (InterruptedException e)
+			{
+				worker.destroy();
+				success = false;
+			}
+		}
+		
+		return success;
+	}
+	
+	// Runs the parameter server on the port (0 picks a free port) until numWorkers workers have connected and finished.
+	// Returns true iff every worker finished successfully.
+	public static boolean runParameterServer(ParameterServer server, int port, int numWorkers)
+	{
+		return runParameterServer(server, port, numWorkers, null, new ArrayList<Process>());
+	}
+	
+	// Runs the parameter server, first launching numWorkers local worker processes on the passed directories if they are not null.
+	private static boolean runParameterServer(ParameterServer server, int port, int numWorkers, String[] dirs, List<Process> workers)
+	{
+		long start = System.nanoTime();
+		try (ServerSocket serverSocket = new ServerSocket(port))
+		{
+			System.out.printf("Parameter server listening on port %d for %d workers (%s).%n",
+				serverSocket.getLocalPort(), numWorkers, (server.isSynchronous()) ? "synchronous" : "bounded staleness");
+			
+			if (dirs != null)
+			{
+				String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+				for (int w = 0; w < numWorkers; w++)
+				{
+					List<String> command = new ArrayList<String>(Arrays.asList(java, "-cp", System.getProperty("java.class.path"), "MatthewMartin",
+						"-worker", "localhost:" + serverSocket.getLocalPort(), dirs[0], dirs[1]));
+					if (ImageCollection.getDefaultPixelCache() != null)
+					{
+						command.add("-lazy");
+						command.add(Integer.toString(ImageCollection.getDefaultPixelCache().getCapacity()));
+					}
+					ProcessBuilder builder = new ProcessBuilder(command);
+					builder.inheritIO();
+					workers.add(builder.start());
+				}
+			}
+			
+			boolean success = server.serve(serverSocket, workers);
+			server.printSummary();
+			System.out.printf("Distributed training took %.1f seconds.%n", (System.nanoTime() - start) / 1e9);
+			if (!success)
+			{
+				// Workers still waiting for a server that gave up would otherwise never exit.
+				for (Process worker : workers)
+				{
+					worker.destroy();
+				}
+			}
+			return success;
+		}
+		catch (IOException e)
+		{
+			System.out.println("Parameter server failed: " + e);
+			for (Process worker : workers)
+			{
+				worker.destroy();
+			}
+		}
+		return false;
+	}
+	
+	// Perform crossfold validation on training data. Requires that all images are labeled as Male or Female.
+	public static int crossFoldValidation(int hiddenUnits, int numFolds, ImageCollection trainingData, int trainingRounds, double learningRate)
+	{
+		return crossFoldValidation(hiddenUnits, numFolds, trainingData, trainingRounds, learningRate, System.currentTimeMillis());
+	}
+	
+	// Perform crossfold validation on training data. Requires that all images are labeled as Male or Female.
+	public static int crossFoldValidation(int hiddenUnits, int numFolds, ImageCollection trainingData, int trainingRounds, double learningRate, long seed)
+	{
+		return crossFoldValidation(hiddenUnits, numFolds, trainingData, trainingRounds, learningRate, seed, null);
+	}
+	
+	// Perform crossfold validation on training data. Requires that all images are labeled as Male or Female.
+	// The labeled data must hold each image once: the folds are drawn from it, and the female images are used four times
+	// (as in -train) only within the training folds, so no copy of a test image is ever trained on.
+	// Every fold is used as the test fold once. The models for the folds are trained concurrently, on up to one thread per
+	// processor, and share the (read-only) images. Runs with the same seed produce the same results.
+	// If groups is not null, images in the same group (groups[i] is the group of image i) are kept in the same fold,
+	// so near-duplicates of a test image are never trained on.
+	// Returns the total number of correct test predictions across all folds.
+	public static int crossFoldValidation(int hiddenUnits, int numFolds, ImageCollection trainingData, int trainingRounds, double learningRate, long seed, int[] groups)
+	{
+		Random rand = new Random(seed);
+		final ImageCollection[] folds = (groups == null) ? trainingData.getRandomFolds(numFolds, rand) : trainingData.getRandomFolds(numFolds, rand, groups);
+		
+		System.out.printf("*** Performing %d-fold crossfold validation. %d images total.%n", numFolds, trainingData.numImages());
+		System.out.printf("Seed: %d%n%n", seed);
+		
+		ExecutorService executor = Executors.newFixedThreadPool(numConcurrentFolds(numFolds));
+		List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+		
+		for (int testFold = 0; testFold < numFolds; testFold++)
+		{
+			final int foldIndex = testFold;
+			final long foldSeed = rand.nextLong();
+			
+			results.add(executor.submit(new Callable<Integer>()
+			{
+				public Integer call()
+				{
+					Random foldRand = new Random(foldSeed);
+					
+					ImageCollection toTrain = new ImageCollection();
+					for (int i = 0; i < folds.length; i++)
+					{
+						if (i != foldIndex) toTrain.addAll(oversampleFemales(folds[i], 4));
+					}
+					
+					NeuralNetwork nn = new NeuralNetwork_AllConnected(hiddenUnits, foldRand);
+					trainNeuralNetwork(nn, toTrain, trueOutputs(toTrain), trainingRounds, learningRate, foldRand, false);
+					
+					return countCorrect(nn, folds[foldIndex]);
+				}
+			}));
+		}
+		executor.shutdown();
+		
+		int totalCorrect = 0;
+		double[] accuracies = new double[numFolds];
+		try
+		{
+			for (int i = 0; i < numFolds; i++)
+			{
+				int numCorrect = results.get(i).get();
+				int numTest = folds[i].numImages();
+				accuracies[i] = (numTest == 0) ? 0.0 : (double)numCorrect / (double)numTest;
+				totalCorrect += numCorrect;
+				
+				System.out.printf(
+					"Fold %d used as test fold:  %d distinct images in training folds. %d / %d (%.2f%%) correct.%n",
+					i,
+					trainingData.numImages() - numTest,
+					numCorrect,
+					numTest,
+					100.0 * accuracies[i]
+				);
+			}
+		}
+		catch (InterruptedException | ExecutionException e)
+		{
+			System.out.println("Crossfold validation failed: " + e);
+			executor.shutdownNow();
+			return totalCorrect;
+		}
+		
+		double accuracyMean = 0.0;
+		for (int i = 0; i < numFolds; i++)
+		{
+			accuracyMean += accuracies[i];
+		}
+		accuracyMean /= (double)numFolds;
+		
+		double accuracyStdDev = 0.0;
+		for (int i = 0; i < numFolds; i++)
+		{
+			accuracyStdDev += Math.pow(accuracies[i] - accuracyMean, 2);
+		}
+		accuracyStdDev /= (double)numFolds;
+		accuracyStdDev = Math.sqrt(accuracyStdDev);
+		
+		System.out.println();
+		System.out.printf("%d / %d (%.2f%%) correct across all folds.%n", totalCorrect, trainingData.numImages(), 100.0 * totalCorrect / (double)trainingData.numImages());
+		System.out.printf("              Fold Accuracy Mean: %.4f%n", accuracyMean);
+		System.out.printf("Fold Accuracy Standard Deviation: %.4f%n", accuracyStdDev);
+		
+		return totalCorrect;
+	}
+	
+	// Runs the hyperparameter sweep described in the search space file on the labeled data.
+	// One fifth of each class is held out for validation; the rest is normalized and used for training.
+	// Returns true iff the leaderboard was written.
+	public static boolean runHyperparameterSweep(String spaceFile, ImageCollection maleData, ImageCollection femaleData)
+	{
+		Properties space = new Properties();
+		try (Reader reader = new FileReader(spaceFile))
+		{
+			space.load(reader);
+		}
+		catch (IOException e)
+		{
+			System.out.printf("Error loading search space from file \"%s\".%n", spaceFile);
+			return false;
+		}
+		
+		if (maleData.numImages() < 5 || femaleData.numImages() < 5)
+		{
+			System.out.println("Not enough training data for a hyperparameter sweep.");
+			return false;
+		}
+		
+		try
+		{
+			long seed = Long.parseLong(space.getProperty("seed", Long.toString(System.currentTimeMillis())).trim());
+			int numWorkers = Integer.parseInt(space.getProperty("workers", Integer.toString(Runtime.getRuntime().availableProcessors())).trim());
+			String leaderboardFile = space.getProperty("leaderboard", "Leaderboard.csv").trim();
+			Random rand = new Random(seed);
+			
+			ImageCollection[] split = splitTrainingData(maleData, femaleData, rand);
+			HyperparameterSweep sweep = new HyperparameterSweep(split[0], split[1]);
+			List<SweepTrial> results = sweep.run(HyperparameterSweep.createTrials(space, rand), numWorkers, seed);
+			
+			if (!HyperparameterSweep.saveLeaderboard(results, leaderboardFile)) return false;
+			
+			// Failed trials are sorted last, so if the first one failed, they all did.
+			if (results.size() > 0 && results.get(0).error != null)
+			{
+				System.out.printf("Every trial failed (first error: %s). Leaderboard saved to \"%s\".%n", results.get(0).error, leaderboardFile);
+			}
+			else if (results.size() > 0)
+			{
+				SweepTrial best = results.get(0);
+				System.out.printf("Best trial: %d (hidden %d, rounds %d, rate %.4f) with validation accuracy %.4f. Leaderboard saved to \"%s\".%n",
+					best.id, best.hiddenUnits, best.trainingRounds, best.learningRate, best.validationAccuracy, leaderboardFile);
+			}
+			return true;
+		}
+		catch (NumberFormatException e)
+		{
+			System.out.printf("Error in search space file \"%s\": %s%n", spaceFile, e.getMessage());
+		}
+		return false;
+	}
+	
+	// Returns the images with each female image repeated n times (to balance the classes). The images are shared, not copied.
+	public static ImageCollection oversampleFemales(ImageCollection ic, int n)
+	{
+		ImageCollection result = new ImageCollection();
+		for (int i = 0; i < ic.numImages(); i++)
+		{
+			FaceImage face = ic.getImage(i);
+			int copies = (face.trueNNOutput() == 0.0) ? n : 1;
+			for (int c = 0; c < copies; c++)
+			{
+				result.add(face);
+			}
+		}
+		return result;
+	}
+	
+	// Holds out one fifth of each class for validation, and normalizes the rest for training (as -train does).
+	// Returns the training data, then the validation data.
+	public static ImageCollection[] splitTrainingData(ImageCollection maleData, ImageCollection femaleData, Random rand)
+	{
+		ImageCollection[] maleFolds = maleData.getRandomFolds(5, rand);
+		ImageCollection[] femaleFolds = femaleData.getRandomFolds(5, rand);
+		
+		ImageCollection maleTraining = new ImageCollection();
+		ImageCollection femaleTraining = new ImageCollection();
+		for (int i = 1; i < 5; i++)
+		{
+			maleTraining.addAll(maleFolds[i]);
+			femaleTraining.addAll(femaleFolds[i]);
+		}
+		
+		ImageCollection validationData = new ImageCollection();
+		validationData.addAll(maleFolds[0]);
+		validationData.addAll(femaleFolds[0]);
+		
+		return new ImageCollection[] { femaleTraining.duplicate(4).combine(maleTraining), validationData };
+	}
+	
+	// Returns a new, untrained neural network. Off-heap networks keep their weights outside of the Java heap.
+	public static NeuralNetwork newNeuralNetwork(int hiddenUnits, boolean offHeap)
+	{
+		if (offHeap)
+		{
+			return new NeuralNetwork_Dense(hiddenUnits, new OffHeapWeightStorage(NeuralNetwork_Dense.numWeights(hiddenUnits)));
+		}
+		else
+		{
+			return new NeuralNetwork_AllConnected(hiddenUnits);
+		}
+	}
+	
+	// Estimates the memory a -train run on the image directories needs, from the number of image files (which are not read).
+	public static MemoryPlan planTraining(String maleDir, String femaleDir, int hiddenUnits, boolean offHeap, String optimizerName,
+		boolean earlyStopping, boolean checkpoint, double hardExampleFraction)
+	{
+		return MemoryPlan.estimateTraining(hiddenUnits, ImageCollection.countImageFiles(maleDir), ImageCollection.countImageFiles(femaleDir),
+			offHeap, optimizerName, earlyStopping, checkpoint, hardExampleFraction, ImageCollection.getDefaultPixelCache());
+	}
+	
+	// Estimates the memory a -finetune run needs, from the model file's number of hidden units and the number of image files.
+	// The replay directories may be null. Returns a plan with no model if the model file could not be read (loading it reports the error).
+	public static MemoryPlan planFinetuning(String modelFile, String maleDir, String femaleDir, String oldMaleDir, String oldFemaleDir,
+		boolean offHeap, String optimizerName, double hardExampleFraction)
+	{
+		int hiddenUnits = new File(modelFile).isFile() ? Math.max(0, NeuralNetwork_Frozen.readNumHiddenUnits(modelFile)) : 0;
+		MemoryPlan result = MemoryPlan.estimateTraining(hiddenUnits, ImageCollection.countImageFiles(maleDir), ImageCollection.countImageFiles(femaleDir),
+			offHeap, optimizerName, false, false, hardExampleFraction, ImageCollection.getDefaultPixelCache());
+		if (oldMaleDir != null)
+		{
+			// The replay sample is drawn from the old images, which are all loaded.
+			result.addImages(ImageCollection.countImageFiles(oldMaleDir) + ImageCollection.countImageFiles(oldFemaleDir), ImageCollection.getDefaultPixelCache());
+		}
+		return result;
+	}
+	
+	// Estimates the memory a -distill run needs: training the student, plus the teacher network and a labeled copy of the images.
+	public static MemoryPlan planDistillation(String teacherFile, String maleDir, String femaleDir, int hiddenUnits, boolean offHeap)
+	{
+		int numMale = ImageCollection.countImageFiles(maleDir);
+		int numFemale = ImageCollection.countImageFiles(femaleDir);
+		MemoryPlan result = MemoryPlan.estimateTraining(hiddenUnits, numMale, numFemale, offHeap, "sgd", false, false, 1.0, ImageCollection.getDefaultPixelCache());
+		if (new File(teacherFile).isFile())
+		{
+			result.addFrozenModel(Math.max(0, NeuralNetwork_Frozen.readNumHiddenUnits(teacherFile)), offHeap);
+		}
+		result.addImages(numMale + numFemale, ImageCollection.getDefaultPixelCache());
+		return result;
+	}
+	
+	// Estimates the memory a -sweep run needs, from the search space file and the number of image files.
+	// Returns null if the search space could not be read (the sweep itself reports the error).
+	public static MemoryPlan planSweep(String spaceFile, String maleDir, String femaleDir)
+	{
+		Properties space = new Properties();
+		try (Reader reader = new FileReader(spaceFile))
+		{
+			space.load(reader);
+			int numWorkers = Integer.parseInt(space.getProperty("workers", Integer.toString(Runtime.getRuntime().availableProcessors())).trim());
+			int numConcurrent = Math.max(1, Math.min(numWorkers, HyperparameterSweep.numTrials(space)));
+			return MemoryPlan.estimateSweep(HyperparameterSweep.maxHiddenUnits(space), numConcurrent,
+				ImageCollection.countImageFiles(maleDir), ImageCollection.countImageFiles(femaleDir), ImageCollection.getDefaultPixelCache());
+		}
+		catch (IOException | NumberFormatException e)
+		{
+			return null;
+		}
+	}
+	
+	// Returns true iff the estimated memory of a run fits in the heap. Otherwise prints the plan and what to change, so that
+	// the run can be stopped before anything is loaded, rather than running out of memory partway through.
+	// A null plan (one that could not be estimated) passes, and the run itself reports the problem.
+	public static boolean checkMemoryPlan(MemoryPlan plan, boolean offHeapSupported)
+	{
+		if (plan == null || plan.fitsInHeap()) return true;
+		
+		plan.print(System.out);
+		System.out.println(offHeapSupported ? "Not enough memory to run. Use a larger heap (-Xmx), -lazy, -offheap or fewer hidden units."
+			: "Not enough memory to run. Use a larger heap (-Xmx), -lazy or fewer hidden units.");
+		return false;
+	}
+	
+	// Returns the number of crossfold validation folds trained at once: each holds a network of its own, so no more run
+	// at once than there are processors.
+	public static int numConcurrentFolds(int numFolds)
+	{
+		return Math.max(1, Math.min(numFolds, Runtime.getRuntime().availableProcessors()));
+	}
+	
+	// Returns the images with all but the first of each group of near-duplicates removed, and prints how many were removed.
+	public static ImageCollection removeNearDuplicates(ImageCollection ic, ImageDeduplicator dedup)
+	{
+		ImageCollection result = dedup.removeNearDuplicates(ic);
+		System.out.printf("Removed %d near-duplicates of %d images.%n", ic.numImages() - result.numImages(), ic.numImages());
+		System.out.println(dedup);
+		return result;
+	}
+	
+	// Loads the network used for predictions: an ensemble of the model files if any are given, or else the frozen model file.
+	// Returns null if a file could not be loaded.
+	public static InferenceNetwork loadPredictionNetwork(String modelFile, String[] ensembleFiles, double[] ensembleWeights, int combine, boolean offHeap)
+	{
+		if (ensembleFiles == null) return NeuralNetwork_Frozen.load(modelFile, offHeap);
+		return NeuralNetwork_Ensemble.load(ensembleFiles, ensembleWeights, combine, offHeap);
+	}
+	
+	// Returns storage for numWeights weights, outside of the Java heap if offHeap is set.
+	public static WeightStorage newWeightStorage(int numWeights, boolean offHeap)
+	{
+		return offHeap ? new OffHeapWeightStorage(numWeights) : new HeapWeightStorage(numWeights);
+	}
+	
+	// Loads a trainable neural network from a neural network file, using the file's number of hidden units.
+	// Returns null if the file could not be loaded, or is a binary frozen network file (which holds no training state).
+	public static NeuralNetwork loadNeuralNetwork(String fileName, boolean offHeap)
+	{
+		if (NeuralNetwork_Frozen.isFrozenFile(fileName))
+		{
+			System.out.printf("\"%s\" is a frozen neural network file. Frozen networks can only make predictions, and cannot be fine-tuned; use the model file it was frozen from.%n", fileName);
+			return null;
+		}
+		
+		int hiddenUnits = NeuralNetwork_AllConnected.readNumHiddenUnits(fileName);
+		if (hiddenUnits <= 0) return null;
+		
+		NeuralNetwork nn = newNeuralNetwork(hiddenUnits, offHeap);
+		return nn.loadFromFile(fileName) ? nn : null;
+	}
+	
+	// Returns the file name of the next version of a model file:
+	// "NeuralNetwork.data" becomes "NeuralNetwork.v2.data", and "NeuralNetwork.v2.data" becomes "NeuralNetwork.v3.data".
+	public static String nextModelFileVersion(String fileName)
+	{
+		int slash = Math.max(fileName.lastIndexOf('/'), fileName.lastIndexOf(File.separatorChar));
+		int dot = fileName.lastIndexOf('.');
+		if (dot <= slash) dot = fileName.length();
+		
+		String base = fileName.substring(0, dot);
+		String extension = fileName.substring(dot);
+		
+		int version = 1;
+		int versionDot = base.lastIndexOf(".v");
+		if (versionDot > slash && isInteger(base.substring(versionDot + 2)))
+		{
+			version = Integer.parseInt(base.substring(versionDot + 2));
+			base = base.substring(0, versionDot);
+		}
+		
+		return base + ".v" + (version + 1) + extension;
+	}
+	
+	// Returns new training metrics, published over JMX and/or logged to a file as JSON lines.
+	// Returns null if neither was requested, so nothing is measured.
+	public static TrainingMetrics newTrainingMetrics(String name, boolean jmx, String logFile, double intervalSeconds)
+	{
+		if (!jmx && logFile == null) return null;
+		
+		TrainingMetrics metrics = new TrainingMetrics();
+		if (jmx) metrics.register(name);
+		if (logFile != null) metrics.startLog(logFile, intervalSeconds);
+		
+		return metrics;
+	}
+	
+	// Prints a summary of the training metrics, then stops publishing and logging them.
+	public static void closeTrainingMetrics(TrainingMetrics metrics)
+	{
+		if (metrics == null) return;
+		
+		System.out.printf("Trained %d images at %.1f images/sec. Time: data %.2fs, forward %.2fs, backward %.2fs. GC: %d collections, %d ms.%n",
+			metrics.getImagesTrained(), metrics.getAverageImagesPerSecond(), metrics.getDataPrepSeconds(), metrics.getForwardSeconds(),
+			metrics.getBackwardSeconds(), metrics.getGcCount(), metrics.getGcPauseMillis());
+		metrics.close();
+	}
+	
+	// Returns a new optimizer ("sgd", "momentum", "nesterov" or "adam") for a network with numWeights weights.
+	// Returns null for plain gradient descent, which the networks perform without an optimizer.
+	public static Optimizer newOptimizer(String name, int numWeights, double learningRate, double momentum)
+	{
+		if (name.equals("momentum") || name.equals("nesterov"))
+		{
+			return new MomentumOptimizer(numWeights, learningRate, momentum, name.equals("nesterov"));
+		}
+		else if (name.equals("adam"))
+		{
+			return new AdamOptimizer(numWeights, learningRate);
+		}
+		else
+		{
+			return null;
+		}
+	}
+	
+	// Train the neural network. Assumes that all images in the image collection are labeled.
+	public static void trainNeuralNetwork(NeuralNetwork nn, ImageCollection ic, int trainingRounds, double learningRate)
+	{
+		trainNeuralNetwork(nn, ic, trueOutputs(ic), trainingRounds, learningRate);
+	}
+	
+	// Train the neural network towards the passed target outputs (one for each image in the image collection).
+	public static void trainNeuralNetwork(NeuralNetwork nn, ImageCollection ic, double[] targets, int trainingRounds, double learningRate)
+	{
+		trainNeuralNetwork(nn, ic, targets, trainingRounds, learningRate, new Random(), true);
+	}
+	
+	// Train the neural network towards the passed target outputs (one for each image in the image collection).
+	// The random number generator decides the order the images are visited in. The progress bar is optional.
+	public static void trainNeuralNetwork(NeuralNetwork nn, ImageCollection ic, double[] targets, int trainingRounds, double learningRate, Random rand, boolean showProgress)
+	{
+		TrainingOptions options = new TrainingOptions(trainingRounds, learningRate);
+		options.rand = rand;
+		options.showProgress = showProgress;
+		
+		trainNeuralNetwork(nn, ic, targets, options);
+	}
+	
+	// Train the neural network towards the passed target outputs (one for each image in the image collection),
+	// with the passed options. Returns the number of rounds that were trained before training stopped.
+	public static int trainNeuralNetwork(NeuralNetwork nn, ImageCollection ic, double[] targets, TrainingOptions options)
+	{
+		// The images are visited in a shuffled order each round. The collection itself is never modified.
+		int[] order = new int[ic.numImages()];
+		
+		int trainingRounds = options.trainingRounds;
+		int trainingOperations = (trainingRounds - options.startRound) * ic.numImages();
+		
+		HardExampleSampler sampler = null;
+		if (options.hardExampleFraction < 1.0)
+		{
+			sampler = new HardExampleSampler(ic.numImages(), options.hardExampleFraction, options.hardExampleRefreshInterval);
+			trainingOperations = (int)sampler.numTrainings(options.startRound, trainingRounds);
+		}
+		long numTrainings = 0;
+		
+		if (options.showProgress)
+		{
+			System.out.printf("Training %d rounds on %d images (%d image-trainings).%n", trainingRounds, ic.numImages(), trainingOperations);
+			System.out.println(" Please wait while the neural network is trained:");
+			System.out.println("|                                                |");
+			System.out.print(" ");
+		}
+		
+		// The best weights seen on the validation data are kept in a buffer that is only allocated once.
+		boolean earlyStopping = (options.validationData != null && options.validationData.numImages() > 0);
+		double[] bestWeights = earlyStopping ? new double[nn.numWeights()] : null;
+		double bestLoss = Double.MAX_VALUE;
+		int bestRound = 0;
+		int evaluationsSinceBest = 0;
+		
+		CheckpointWriter checkpoints = (options.checkpointFile == null) ? null : new CheckpointWriter(options.checkpointFile, nn, options);
+		
+		// Every phase of training is timed only when metrics are being collected.
+		TrainingMetrics metrics = options.metrics;
+		if (metrics != null) metrics.beginTraining(trainingRounds);
+		
+		int printDots = 48;
+		int printDotRoundWait = trainingOperations / printDots;
+		int dotCounter = printDotRoundWait;
+		
+		int round;
+		for (round = options.startRound; round < trainingRounds; round++)
+		{
+			long prepStart = 0;
+			if (metrics != null)
+			{
+				metrics.beginRound(round);
+				prepStart = System.nanoTime();
+			}
+			
+			// Each round's order depends only on the random number generator, so a resumed run visits the images in the same order.
+			boolean fullRound = (sampler == null || sampler.isFullRound(round));
+			int count = order.length;
+			if (fullRound)
+			{
+				for (int i = 0; i < order.length; i++)
+				{
+					order[i] = i;
+				}
+				shuffle(order, options.rand);
+			}
+			else
+			{
+				count = sampler.sample(order, options.rand);
+			}
+			if (metrics != null) metrics.recordDataPrep(System.nanoTime() - prepStart);
+			
+			double learningRate = options.learningRate;
+			if (options.schedule != null)
+			{
+				learningRate = options.schedule.getLearningRate(options.learningRate, round, trainingRounds);
+			}
+			if (options.optimizer != null)
+			{
+				options.optimizer.setLearningRate(learningRate);
+			}
+			
+			FaceImage image;
+			long imageStart = 0, forwardStart = 0, forwardEnd = 0, backwardStart = 0;
+			for (int i = 0; i < count; i++)
+			{
+				if (metrics != null) imageStart = System.nanoTime();
+				image = ic.getImage(order[i]);
+				if (metrics != null) forwardStart = System.nanoTime();
+				nn.calculateOutputs(image);
+				if (metrics != null) forwardEnd = System.nanoTime();
+				
+				// Sampled images are weighted by their importance, so the expected update about matches a full round.
+				// This scales the step only, not the gradients an optimizer accumulates in its moments.
+				double weight = 1.0;
+				if (sampler != null)
+				{
+					double error = targets[order[i]] - nn.getFinalOutput();
+					sampler.recordLoss(order[i], error * error);
+					if (!fullRound) weight = sampler.getImportanceWeight(i);
+				}
+				
+				if (options.optimizer != null && !fullRound) options.optimizer.setLearningRate(learningRate * weight);
+				if (metrics != null)
+				{
+					metrics.recordOutput(nn.getFinalOutput(), targets[order[i]]);
+					backwardStart = System.nanoTime();
+				}
+				
+				if (options.optimizer != null)
+				{
+					nn.backpropagateUpdate(targets[order[i]], options.optimizer);
+				}
+				else
+				{
+					nn.backpropagateUpdate(targets[order[i]], learningRate * weight);
+				}
+				numTrainings++;
+				
+				if (metrics != null)
+				{
+					metrics.recordImage((forwardStart - imageStart) + (backwardStart - forwardEnd), forwardEnd - forwardStart,
+						System.nanoTime() - backwardStart);
+				}
+				
+				dotCounter--;
+				if (dotCounter == 0)
+				{
+					if (options.showProgress) System.out.print("*");
+					dotCounter = printDotRoundWait;
+				}
+			}
+			if (sampler != null && fullRound) sampler.endFullRound();
+			if (metrics != null) metrics.endRound();
+			
+			if (earlyStopping && ((round + 1) % options.validationInterval == 0 || round + 1 == trainingRounds))
 			{
-				NeuralNetwork nn = null;
-				
-				if (trainArg >= 0)
-				{ // The -train option was specified.
-					// Collect the training data into an image collection.
-					ImageCollection maleData = new ImageCollection(args[trainArg + 1], "Male");
-					ImageCollection femaleData = new ImageCollection(args[trainArg + 2], "Female");
-					ImageCollection normalizedTrainingData = femaleData.duplicate(4).combine(maleData);
-					
-					if (normalizedTrainingData.numImages() > 0)
-					{
-						// Train the neural network and save the trained network to the "NeuralNetwork.data" file.
-						nn = new NeuralNetwork_AllConnected(hiddenUnits);
-						trainNeuralNetwork(nn, normalizedTrainingData, trainingRounds, learningRate);
-						nn.saveToFile("NeuralNetwork.data");
-					}
-					else
-					{
-						System.out.println("Failed to load any training data.");
-					}
+				double loss = calculateLoss(nn, options.validationData);
+				if (loss < bestLoss)
+				{
+					bestLoss = loss;
+					bestRound = round + 1;
+					evaluationsSinceBest = 0;
+					nn.copyWeights(bestWeights);
 				}
-				if (testArg >= 0)
-				{ // The -test option was specified.
-					// Load the test data into an image collection.
-					ImageCollection testData = new ImageCollection(args[testArg + 1], "");
-					boolean success = (testData.numImages() > 0);
-					
-					if (nn == null)
-					{
-						// If the neural network was not created this run of the program, attempt to load it.
-						nn = new NeuralNetwork_AllConnected(hiddenUnits);
-						success = nn.loadFromFile("NeuralNetwork.data");
-					}
-					if (success)
+				else
+				{
+					evaluationsSinceBest++;
+					if (evaluationsSinceBest >= options.patience)
 					{
-						// Run the test data through the neural network and print the results.
-						printPredictions(nn, testData);
+						round++;
+						break;
 					}
 				}
 			}
-			else
-			{ // No -train or -test option was specified. Print usage information to the user.
-				System.out.println("Please specify a -train and/or -test option.");
-				System.out.println("Usage: \"java MatthewMartin -train <MaleDir> <FemaleDir>\"");
-				System.out.println("       \"java MatthewMartin -test <TestDir>\"");
+			
+			if (checkpoints != null && (round + 1) % options.checkpointInterval == 0)
+			{
+				checkpoints.checkpoint(nn, options.optimizer, round + 1, options.rand);
 			}
 		}
-		else
-		{ // Parsing Failed.
-			System.out.println("Failed to parse input parameters. Please check parameter arguments.");
+		if (options.showProgress) System.out.println();
+		
+		if (sampler != null && options.showProgress)
+		{
+			System.out.printf("Hard-example sampling: %d image-trainings (%.1f%% of %d for full rounds).%n",
+				numTrainings, 100.0 * numTrainings / ((double)(round - options.startRound) * ic.numImages()), (round - options.startRound) * ic.numImages());
 		}
 		
-		// Code to produce the neural network visualization. Not accessible through normal program usage.
-		/*
-		NeuralNetwork nn = new NeuralNetwork_AllConnected(hiddenUnits);
-		ImageCollection femaleData = new ImageCollection("Female");
-		ImageCollection maleData = new ImageCollection("Male");
-		ImageCollection testData = new ImageCollection("Test");
-		ImageCollection normalizedTrainingData = femaleData.duplicate(4).combine(maleData);
-		trainNeuralNetwork(nn, normalizedTrainingData, trainingRounds, learningRate);
+		if (checkpoints != null)
+		{
+			checkpoints.close();
+			if (options.showProgress)
+			{
+				System.out.printf("Saved %d checkpoints to \"%s\" (%d skipped while a save was in progress).%n",
+					checkpoints.getNumWritten(), options.checkpointFile, checkpoints.getNumSkipped());
+			}
+		}
 		
-		crossFoldValidation(trainingRounds, 5, normalizedTrainingData, trainingRounds, learningRate);
+		if (earlyStopping)
+		{
+			if (bestRound != round)
+			{ // The final weights are not the best ones, so restore the best weights.
+				nn.setWeights(bestWeights);
+			}
+			if (options.showProgress)
+			{
+				System.out.printf("Trained %d of %d rounds. Kept the weights from round %d (validation loss %.4f).%n", round, trainingRounds, bestRound, bestLoss);
+			}
+		}
 		
-		displayImages(nn.visualizeWeights());
-		displayImages(femaleData.getBufferedImages());
-		displayImages(maleData.getBufferedImages());
-		displayImages(testData.getBufferedImages());
-		*/
+		return round;
 	}
 	
-	// Perform crossfold validation on training data. Requires that all images are labeled as Male or Female.
-	public static int crossFoldValidation(int hiddenUnits, int numFolds, ImageCollection trainingData, int trainingRounds, double learningRate)
+	// Returns the true output of each image in the collection. Assumes that all images in the image collection are labeled.
+	public static double[] trueOutputs(ImageCollection ic)
 	{
-		long seed = System.currentTimeMillis();
-		Random rand = new Random(seed);
-		ImageCollection[] folds = trainingData.getRandomFolds(numFolds, rand);
-		
-		System.out.printf("*** Performing %d-fold crossfold validation. %d images total.%n", numFolds, trainingData.numImages());
-		System.out.printf("Seed: %d%n%n", seed);
-		
-		int totalCorrect = 0;
-		int testFold = rand.nextInt(folds.length);
+		double[] result = new double[ic.numImages()];
+		for (int i = 0; i < result.length; i++)
+		{
+			result[i] = ic.getImage(i).trueNNOutput();
+		}
 		
-		NeuralNetwork nn = new NeuralNetwork_AllConnected(hiddenUnits);
-		ImageCollection toTrain = new ImageCollection();
-		ImageCollection toTest = null;
+		return result;
+	}
+	
+	// Train the multi-head network on the images, with one target per head for each image (NaN where the label is unknown).
+	// Every head is trained from the same forward pass. Prints each head's mean squared error after every round.
+	public static void trainMultiHeadNetwork(NeuralNetwork_MultiHead nn, ImageCollection ic, double[][] targets, TrainingOptions options)
+	{
+		Optimizer optimizer = (options.optimizer != null) ? options.optimizer : new SgdOptimizer(options.learningRate);
+		int numHeads = nn.numHeads();
+		double[] losses = new double[numHeads];
+		int[] counts = new int[numHeads];
 		
-		for (int i = 0; i < folds.length; i++)
+		int[] order = new int[ic.numImages()];
+		for (int round = 0; round < options.trainingRounds; round++)
 		{
-			if (i == testFold)
+			if (options.schedule != null) optimizer.setLearningRate(options.schedule.getLearningRate(options.learningRate, round, options.trainingRounds));
+			
+			for (int i = 0; i < order.length; i++)
 			{
-				toTest = folds[i].deepCopy();
+				order[i] = i;
 			}
-			else
+			shuffle(order, options.rand);
+			Arrays.fill(losses, 0.0);
+			Arrays.fill(counts, 0);
+			
+			for (int i = 0; i < order.length; i++)
+			{
+				double[] target = targets[order[i]];
+				nn.calculateOutputs(ic.getImage(order[i]));
+				for (int h = 0; h < numHeads; h++)
+				{
+					if (Double.isNaN(target[h])) continue;
+					losses[h] += Math.pow(target[h] - nn.getOutput(h), 2);
+					counts[h]++;
+				}
+				nn.backpropagateUpdate(target, optimizer);
+			}
+			
+			if (options.showProgress)
 			{
-				toTrain = toTrain.combine(folds[i]);
+				StringBuilder line = new StringBuilder(String.format("Round %d of %d. Loss:", round + 1, options.trainingRounds));
+				for (int h = 0; h < numHeads; h++)
+				{
+					line.append(String.format("  %s %.4f", nn.getHeadName(h), (counts[h] == 0) ? 0.0 : losses[h] / counts[h]));
+				}
+				System.out.println(line);
 			}
 		}
+	}
+	
+	// Output each head's prediction for every image to stdout.
+	public static void printHeadPredictions(NeuralNetwork_MultiHead nn, ImageCollection testSet)
+	{
+		int longestStr = 0;
+		for (int i = 0; i < testSet.numImages(); i++)
+		{
+			longestStr = Math.max(longestStr, testSet.getImage(i).getName().length());
+		}
 		
-		System.out.printf(
-			"Fold %d used as test fold:  %d images in training fold. %d images in test fold.%n",
-			testFold,
-			toTrain.numImages(),
-			toTest.numImages()
-		);
-		
-		trainNeuralNetwork(nn, toTrain, trainingRounds, learningRate);
-		totalCorrect += calculateTestResults(nn, toTest);
-		System.out.println();
-		
+		StringBuilder header = new StringBuilder(String.format("%" + longestStr + "s", ""));
+		for (int h = 0; h < nn.numHeads(); h++)
+		{
+			header.append(String.format("  %10s", nn.getHeadName(h)));
+		}
+		System.out.println(header);
 		
-		return totalCorrect;
+		for (int i = 0; i < testSet.numImages(); i++)
+		{
+			nn.calculateOutputs(testSet.getImage(i));
+			StringBuilder line = new StringBuilder(String.format("%" + longestStr + "s", testSet.getImage(i).getName()));
+			for (int h = 0; h < nn.numHeads(); h++)
+			{
+				line.append(String.format("  %10.4f", nn.getOutput(h)));
+			}
+			System.out.println(line);
+		}
 	}
 	
-	// Train the neural network. Assumes that all images in the image collection are labeled.
-	public static void trainNeuralNetwork(NeuralNetwork nn, ImageCollection ic, int trainingRounds, double learningRate)
+	// Prints, for each head, the number of labeled images it predicts correctly. Images with unknown labels are skipped.
+	public static void calculateHeadResults(NeuralNetwork_MultiHead nn, ImageCollection testSet, double[][] targets)
 	{
-		ImageCollection icClone = ic.deepCopy();
-		int trainingOperations = trainingRounds * icClone.numImages();
-		
-		System.out.printf("Training %d rounds on %d images (%d image-trainings).%n", trainingRounds, ic.numImages(), trainingOperations);
-		System.out.println(" Please wait while the neural network is trained:");
-		System.out.println("|                                                |");
-		System.out.print(" ");
+		int numHeads = nn.numHeads();
+		int[] numCorrect = new int[numHeads];
+		int[] numLabeled = new int[numHeads];
 		
-		int printDots = 48;
-		int printDotRoundWait = trainingOperations / printDots;
-		int dotCounter = printDotRoundWait;
+		for (int i = 0; i < testSet.numImages(); i++)
+		{
+			nn.calculateOutputs(testSet.getImage(i));
+			for (int h = 0; h < numHeads; h++)
+			{
+				if (Double.isNaN(targets[i][h])) continue;
+				numLabeled[h]++;
+				if (getError(targets[i][h], nn.getOutput(h)) < 0.5) numCorrect[h]++;
+			}
+		}
 		
-		for (int round = 0; round < trainingRounds; round++)
+		for (int h = 0; h < numHeads; h++)
 		{
-			icClone.shuffle();
-			
-			FaceImage image;
-			for (int i = 0; i < icClone.numImages(); i++)
+			System.out.printf("%12s: %d / %d (%.2f%%) correct.%n", nn.getHeadName(h), numCorrect[h], numLabeled[h],
+				(numLabeled[h] == 0) ? 0.0 : 100.0 * numCorrect[h] / (double)numLabeled[h]);
+		}
+	}
+	
+	// Train the student neural network to reproduce the outputs of the trained teacher network (knowledge distillation).
+	// The teacher's outputs are softened by the temperature (1.0 uses them unchanged) and used as the training targets.
+	// The soft weight blends the soft targets with the 0/1 labels: 1.0 trains on the teacher's outputs alone.
+	public static void distillNeuralNetwork(InferenceNetwork teacher, NeuralNetwork student, ImageCollection ic, int trainingRounds, double learningRate, double temperature, double softWeight)
+	{
+		double[] softTargets = new double[ic.numImages()];
+		for (int i = 0; i < softTargets.length; i++)
+		{
+			teacher.calculateOutputs(ic.getImage(i));
+			softTargets[i] = softWeight * softenOutput(teacher.getFinalOutput(), temperature);
+			if (softWeight < 1.0)
 			{
-				image = icClone.getImage(i);
-				nn.calculateOutputs(image);
-				nn.backpropagateUpdate(image.trueNNOutput(), learningRate);
-				
-				dotCounter--;
-				if (dotCounter == 0)
-				{
-					System.out.print("*");
-					dotCounter = printDotRoundWait;
-				}
+				softTargets[i] += (1.0 - softWeight) * ic.getImage(i).trueNNOutput();
 			}
 		}
-		System.out.println();
+		
+		System.out.printf("Distilling teacher outputs into student network (temperature %.2f, soft weight %.2f).%n", temperature, softWeight);
+		trainNeuralNetwork(student, ic, softTargets, trainingRounds, learningRate);
+	}
+	
+	// Divides the logit of a sigmoid output by the temperature, pulling outputs towards 0.5 for temperatures above 1.0.
+	public static double softenOutput(double output, double temperature)
+	{
+		double clamped = Math.min(Math.max(output, 1.0e-12), 1.0 - 1.0e-12);
+		double logit = Math.log(clamped / (1.0 - clamped));
+		
+		return 1.0 / (1.0 + Math.exp(-logit / temperature));
+	}
+	
+	// Randomly shuffles the passed array (Fisher-Yates).
+	public static void shuffle(int[] array, Random rand)
+	{
+		for (int i = array.length - 1; i > 0; i--)
+		{
+			int j = rand.nextInt(i + 1);
+			int temp = array[i];
+			array[i] = array[j];
+			array[j] = temp;
+		}
 	}
 	
 	// Output the neural network predictions to stdout.
-	public static void printPredictions(NeuralNetwork nn, ImageCollection testSet)
+	public static void printPredictions(InferenceNetwork nn, ImageCollection testSet)
+	{
+		printPredictions(nn, testSet, null);
+	}
+	
+	// Output the neural network predictions to stdout, using the prediction cache if it is not null.
+	public static void printPredictions(InferenceNetwork nn, ImageCollection testSet, PredictionCache cache)
 	{
 		int longestStr = 0;
 		for (int i = 0; i < testSet.numImages(); i++)
@@ -209,8 +1786,16 @@ public class MatthewMartin
 		
 		for (int i = 0; i < testSet.numImages(); i++)
 		{
-			nn.calculateOutputs(testSet.getImage(i));
-			double result = nn.getFinalOutput();
+			double result;
+			if (cache != null)
+			{
+				result = cache.predict(nn, testSet.getImage(i));
+			}
+			else
+			{
+				nn.calculateOutputs(testSet.getImage(i));
+				result = nn.getFinalOutput();
+			}
 			
 			System.out.printf(
 				"%" + longestStr + "s    %6s    %.4f%n",
@@ -222,65 +1807,165 @@ public class MatthewMartin
 	}
 	
 	// Assumes that all images in the test set are labeled (M or F at start of name).
-	public static int calculateTestResults(NeuralNetwork nn, ImageCollection testSet)
+	public static int calculateTestResults(InferenceNetwork nn, ImageCollection testSet)
+	{
+		PrintWriter details = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16));
+		return calculateTestResults(nn, testSet, 1, details);
+	}
+	
+	// Assumes that all images in the test set are labeled (M or F at start of name).
+	// Evaluates the test set in one pass on numThreads threads and prints the summary, confusion matrix and ROC curve.
+	// A line per image is written to details, unless it is null. Returns the number of correct predictions.
+	public static int calculateTestResults(InferenceNetwork nn, ImageCollection testSet, int numThreads, Writer details)
 	{
-		double[] accuracies = new double[testSet.numImages()];
+		long start = System.nanoTime();
+		EvaluationReport report = EvaluationReport.evaluate(nn, testSet, numThreads, details);
+		if (report == null) return 0;
 		
-		int numCorrect = 0;
+		double seconds = (System.nanoTime() - start) / 1e9;
+		report.print(System.out);
+		System.out.printf("Evaluated %d images in %.2f seconds (%.0f images/second) on %d threads.%n",
+			report.getCount(), seconds, report.getCount() / Math.max(seconds, 1e-9), Math.max(1, Math.min(numThreads, testSet.numImages())));
 		
-		double result;
-		double expected;
-		double error;
-		double accuracy;
-		boolean isCorrect;
-		for (int i = 0; i < testSet.numImages(); i++)
+		return (int)report.getNumCorrect();
+	}
+	
+	// Renders the network's hidden unit weight maps, and the images in the image directory (if any), to PNG files
+	// in the output directory. If no network was created this run, it is loaded from the model file.
+	// Returns the number of files written.
+	public static int exportPngs(String outputDir, NeuralNetwork nn, String modelFile, String imageDir)
+	{
+		long start = System.nanoTime();
+		PngExporter exporter = new PngExporter(Runtime.getRuntime().availableProcessors());
+		
+		NeuralNetwork_Frozen frozen;
+		if (nn != null)
 		{
-			nn.calculateOutputs(testSet.getImage(i));
-			
-			result = nn.getFinalOutput();
-			expected = testSet.getImage(i).trueNNOutput();
-			error = getError(expected, result);
-			accuracy = getAccuracy(expected, result);
-			isCorrect = (error < 0.5);
-			
-			accuracies[i] = accuracy;
-			
-			System.out.printf(
-				"%19s  expected: %f    result: %f    error: %f    accuracy: %f    correct? %s%n",
-				"\"" + testSet.getImage(i).getName() + "\"",
-				expected,
-				result,
-				error,
-				accuracy,
-				isCorrect ? "TRUE" : "FALSE"
-			);
+			double[] weights = new double[nn.numWeights()];
+			nn.copyWeights(weights);
+			frozen = new NeuralNetwork_Frozen(weights.length / ((128 * 120) + 1), new HeapWeightStorage(weights));
+		}
+		else
+		{
+			frozen = NeuralNetwork_Frozen.load(modelFile);
+		}
+		if (frozen != null)
+		{
+			exporter.exportWeights(frozen, new File(outputDir, "weights"));
+		}
+		
+		if (imageDir != null)
+		{
+			exporter.exportImages(new ImageCollection(imageDir, ""), new File(outputDir, "images"));
+		}
+		
+		int numWritten = exporter.finish();
+		System.out.printf("Exported %d PNG files to \"%s\" in %.2fs.%n", numWritten, outputDir, (System.nanoTime() - start) / 1.0e9);
+		
+		return numWritten;
+	}
+	
+	// Saves the network in the model file as a frozen network file, and reports the time to the first prediction
+	// when loading each file. Returns true iff the frozen network file was written.
+	public static boolean freezeNeuralNetwork(String modelFile, String frozenFile)
+	{
+		FaceImage face = new FaceImage();
+		
+		// The frozen network is timed first, so that the current path does not pay for any shared class loading.
+		long start = System.nanoTime();
+		NeuralNetwork_Frozen frozen = NeuralNetwork_Frozen.load(modelFile);
+		if (frozen == null) return false;
+		frozen.calculateOutputs(face);
+		long textFrozenTime = System.nanoTime() - start;
+		
+		if (!frozen.saveToFile(frozenFile)) return false;
+		
+		start = System.nanoTime();
+		InferenceNetwork frozenCopy = NeuralNetwork_Frozen.load(frozenFile);
+		if (frozenCopy == null) return false;
+		frozenCopy.calculateOutputs(face);
+		long binaryFrozenTime = System.nanoTime() - start;
+		
+		start = System.nanoTime();
+		NeuralNetwork nn = NeuralNetwork_AllConnected.load(modelFile);
+		if (nn == null) return false;
+		nn.calculateOutputs(face);
+		long allConnectedTime = System.nanoTime() - start;
+		
+		System.out.printf("Saved frozen neural network with %d hidden units to \"%s\".%n", frozen.numHiddenUnits(), frozenFile);
+		System.out.println("Time to first prediction:");
+		System.out.printf("  NeuralNetwork_AllConnected from \"%s\": %8.1f ms%n", modelFile, allConnectedTime / 1.0e6);
+		System.out.printf("        NeuralNetwork_Frozen from \"%s\": %8.1f ms%n", modelFile, textFrozenTime / 1.0e6);
+		System.out.printf("        NeuralNetwork_Frozen from \"%s\": %8.1f ms%n", frozenFile, binaryFrozenTime / 1.0e6);
+		
+		return true;
+	}
+	
+	// Evaluates a cascade predictor against its full network alone. Assumes that all images in the test set are labeled.
+	// After an untimed warm-up pass of each (which compiles the code and loads lazy images), the two are timed in
+	// alternating passes, so neither is favoured by running while the JIT compiler is still working.
+	public static void calculateCascadeResults(CascadePredictor cascade, InferenceNetwork fullNN, ImageCollection testSet)
+	{
+		final int timedPasses = 5;
+		
+		int fullCorrect = 0;
+		int cascadeCorrect = 0;
+		long fullTime = 0;
+		long cascadeTime = 0;
+		for (int pass = -1; pass < timedPasses; pass++)
+		{
+			fullCorrect = 0;
+			long start = System.nanoTime();
+			for (int i = 0; i < testSet.numImages(); i++)
+			{
+				FaceImage image = testSet.getImage(i);
+				fullNN.calculateOutputs(image);
+				if (getError(image.trueNNOutput(), fullNN.getFinalOutput()) < 0.5) fullCorrect++;
+			}
+			if (pass >= 0) fullTime += System.nanoTime() - start;
 			
-			if (isCorrect)
+			cascade.resetCounters();
+			cascadeCorrect = 0;
+			start = System.nanoTime();
+			for (int i = 0; i < testSet.numImages(); i++)
 			{
-				numCorrect++;
+				FaceImage image = testSet.getImage(i);
+				if (getError(image.trueNNOutput(), cascade.predict(image)) < 0.5) cascadeCorrect++;
 			}
+			if (pass >= 0) cascadeTime += System.nanoTime() - start;
 		}
 		
-		double accuracyMean = 0.0;
-		for (int i = 0; i < accuracies.length; i++)
+		double numImages = (double)testSet.numImages() * timedPasses;
+		System.out.printf("Cascade with confidence threshold %.4f on %d images:%n", cascade.getConfidenceThreshold(), testSet.numImages());
+		System.out.printf("  Short-circuited by cheap network: %d (%.2f%%)%n", cascade.getNumShortCircuited(), 100.0 * cascade.getShortCircuitFraction());
+		System.out.printf("  Full network alone: %d / %d (%.2f%%) correct, %.3f ms per image.%n", fullCorrect, testSet.numImages(), 100.0 * fullCorrect / testSet.numImages(), fullTime / numImages / 1.0e6);
+		System.out.printf("             Cascade: %d / %d (%.2f%%) correct, %.3f ms per image.%n", cascadeCorrect, testSet.numImages(), 100.0 * cascadeCorrect / testSet.numImages(), cascadeTime / numImages / 1.0e6);
+	}
+	
+	// Returns the number of images in the labeled test set that the neural network predicts correctly.
+	public static int countCorrect(InferenceNetwork nn, ImageCollection testSet)
+	{
+		int numCorrect = 0;
+		for (int i = 0; i < testSet.numImages(); i++)
 		{
-			accuracyMean += accuracies[i];
+			nn.calculateOutputs(testSet.getImage(i));
+			if (getError(testSet.getImage(i).trueNNOutput(), nn.getFinalOutput()) < 0.5) numCorrect++;
 		}
-		accuracyMean /= (double)accuracies.length;
 		
-		double accuracyStdDev = 0.0;
-		for (int i = 0; i < accuracies.length; i++)
+		return numCorrect;
+	}
+	
+	// Returns the mean squared error of the neural network on the labeled test set.
+	public static double calculateLoss(InferenceNetwork nn, ImageCollection testSet)
+	{
+		double loss = 0.0;
+		for (int i = 0; i < testSet.numImages(); i++)
 		{
-			accuracyStdDev += Math.pow(accuracies[i] - accuracyMean, 2);
+			nn.calculateOutputs(testSet.getImage(i));
+			loss += Math.pow(testSet.getImage(i).trueNNOutput() - nn.getFinalOutput(), 2);
 		}
-		accuracyStdDev /= (double)accuracies.length;
-		accuracyStdDev = Math.sqrt(accuracyStdDev);
-		
-		System.out.printf("%d / %d (%.2f%%) correct.%n", numCorrect, testSet.numImages(), 100.0 * ((float)numCorrect) / (float)testSet.numImages());
-		System.out.printf("              Accuracy Mean: %.4f%n", accuracyMean);
-		System.out.printf("Accuracy Standard Deviation: %.4f%n", accuracyStdDev);
 		
-		return numCorrect;
+		return (testSet.numImages() == 0) ? 0.0 : loss / (double)testSet.numImages();
 	}
 	
 	// Returns the accuracy from a true and expected value.
@@ -312,6 +1997,34 @@ public class MatthewMartin
 		}
 	}
 	
+	// Returns true iff the passed string is an integer.
+	public static boolean isInteger(String str)
+	{
+		try
+		{
+			Integer.parseInt(str);
+			return true;
+		}
+		catch (NumberFormatException e)
+		{
+			return false;
+		}
+	}
+	
+	// Returns true iff the passed string is a floating point number.
+	public static boolean isDouble(String str)
+	{
+		try
+		{
+			Double.parseDouble(str);
+			return true;
+		}
+		catch (NumberFormatException e)
+		{
+			return false;
+		}
+	}
+	
 	// Returns the confidence of a predicted value.
 	public static double calculateConfidence(double predictionValue)
 	{
@@ -329,13 +2042,33 @@ public class MatthewMartin
 	// Displays the passed images.
 	public static void displayImages(Image[] images)
 	{
-		JFrame frame = new JFrame();
-		
-		frame.getContentPane().add(new Display(images));
-		
-		frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-		frame.setSize(128 * Display.getWidth(images.length), 120 * Display.getHeight(images.length));
-		frame.setVisible(true);
+		showDisplay(new Display(images));
+	}
+	
+	// Displays the images in the collection. Images are only rendered when they are scrolled into view,
+	// and up to cacheSize rendered images are kept.
+	public static void displayImages(ImageCollection ic, int cacheSize)
+	{
+		showDisplay(new Display(ic, cacheSize));
+	}
+	
+	// Shows the display in a scrollable window.
+	private static void showDisplay(final Display display)
+	{
+		SwingUtilities.invokeLater(new Runnable()
+		{
+			public void run()
+			{
+				JFrame frame = new JFrame();
+				
+				frame.getContentPane().add(new JScrollPane(display,
+					ScrollPaneConstants.VERTICAL_SCROLLBAR_AS_NEEDED, ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER));
+				
+				frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+				frame.pack();
+				frame.setVisible(true);
+			}
+		});
 	}
 }
 
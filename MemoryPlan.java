@@ -0,0 +1,351 @@
+/* MemoryPlan.java
+ * 
+ * Accounts for the memory a training run needs, split into the model weights, the training state (optimizer state,
+ * early stopping and checkpoint copies of the weights, hard-example losses), the activation buffers and the dataset.
+ * A plan can be estimated before anything is loaded, from the configuration and the number of image files, so a run
+ * that would not fit in the heap can be stopped before it starts. There are plans for training (also used for fine-tuning
+ * and distillation), multi-head training, crossfold validation and hyperparameter sweeps. A plan can also be estimated
+ * from a running job's network, optimizer and images, using the same size model; this is not a sample of the heap.
+ * 
+ * Sizes follow the object layout of a 64-bit HotSpot JVM: 12-byte object headers and 4-byte references when
+ * compressed references are in use (heaps below 32 GB), 16-byte headers and 8-byte references otherwise, with every
+ * object padded to a multiple of 8 bytes. An eagerly loaded image is about 62 KB: 120 row arrays of 128 ints each.
+ * 
+ */
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+
+public class MemoryPlan
+{
+	private static final int numInputs = 128 * 120;
+	private static final int imageWidth = 128;
+	private static final int imageHeight = 120;
+	
+	// Object layout of this JVM.
+	private static final boolean compressedReferences = Runtime.getRuntime().maxMemory() < (32L << 30);
+	private static final int referenceBytes = compressedReferences ? 4 : 8;
+	private static final int objectHeaderBytes = compressedReferences ? 12 : 16;
+	private static final int arrayHeaderBytes = 16;
+	
+	private String description;
+	private long modelBytes = 0;
+	private long trainingStateBytes = 0;
+	private long activationBytes = 0;
+	private long datasetBytes = 0;
+	private long offHeapBytes = 0;
+	
+	// Constructor. Use one of the estimate methods.
+	private MemoryPlan(String description)
+	{
+		this.description = description;
+	}
+	
+	// Estimates the memory needed to train a network with the passed configuration on numMale and numFemale images.
+	// Every female image is used four times, and the images are copied while the training set is built, so at the peak
+	// there are nine copies of each female image and two of each male one. Lazily loaded copies share their pixels,
+	// which are only held for the images in the pixel cache (if it is not null).
+	public static MemoryPlan estimateTraining(int hiddenUnits, int numMale, int numFemale, boolean offHeap, String optimizerName,
+		boolean earlyStopping, boolean checkpoint, double hardExampleFraction, PixelCache pixelCache)
+	{
+		MemoryPlan result = new MemoryPlan(String.format("Estimated memory for training %d hidden units on %d male and %d female images", hiddenUnits, numMale, numFemale));
+		
+		long numWeights = ((long)hiddenUnits * numInputs) + hiddenUnits;
+		result.addModel(hiddenUnits, offHeap ? "dense-offheap" : "allconnected");
+		result.activationBytes = activationBytes(hiddenUnits);
+		
+		int stateArrays = stateArrays(optimizerName);
+		int weightCopies = stateArrays + (earlyStopping ? 1 : 0) + (checkpoint ? 1 + stateArrays : 0);
+		result.trainingStateBytes = weightCopies * arrayBytes(numWeights, 8);
+		
+		long numTrainingImages = (4L * numFemale) + numMale;
+		if (hardExampleFraction < 1.0) result.trainingStateBytes += 3 * arrayBytes(numTrainingImages, 8);
+		
+		long imageCopies = (9L * numFemale) + (2L * numMale);
+		result.addImages(imageCopies, (long)numFemale + numMale, pixelCache);
+		result.datasetBytes += arrayBytes(numTrainingImages, 8);
+		
+		return result;
+	}
+	
+	// Estimates the memory needed to train a network with numHeads output heads on numImages images, with one target per
+	// head for each image. The weights are kept in one flat array (or off the heap).
+	public static MemoryPlan estimateMultiHead(int hiddenUnits, int numHeads, int numImages, boolean offHeap, String optimizerName, PixelCache pixelCache)
+	{
+		MemoryPlan result = new MemoryPlan(String.format("Estimated memory for training %d hidden units and %d heads on %d images", hiddenUnits, numHeads, numImages));
+		
+		long numWeights = ((long)hiddenUnits * numInputs) + ((long)hiddenUnits * numHeads);
+		if (offHeap) result.offHeapBytes += 8 * numWeights;
+		else result.modelBytes += arrayBytes(numWeights, 8);
+		result.activationBytes = activationBytes(hiddenUnits) + (3 * arrayBytes(numHeads, 8));
+		result.trainingStateBytes = stateArrays(optimizerName) * arrayBytes(numWeights, 8);
+		
+		result.addImages(numImages, numImages, pixelCache);
+		result.datasetBytes += arrayBytes(numImages, referenceBytes) + (numImages * arrayBytes(numHeads, 8));
+		
+		return result;
+	}
+	
+	// Estimates the memory needed for crossfold validation on numMale and numFemale images, with numConcurrent folds
+	// training at once. The labeled images are copied once while the folds are built; each running fold holds its own
+	// network and a training list that refers to the shared images, with every female image listed four times.
+	public static MemoryPlan estimateCrossFold(int hiddenUnits, int numFolds, int numConcurrent, int numMale, int numFemale, PixelCache pixelCache)
+	{
+		MemoryPlan result = new MemoryPlan(String.format("Estimated memory for %d-fold crossfold validation (%d running at once) with %d hidden units on %d male and %d female images",
+			numFolds, numConcurrent, hiddenUnits, numMale, numFemale));
+		
+		for (int i = 0; i < numConcurrent; i++)
+		{
+			result.addModel(hiddenUnits, "allconnected");
+		}
+		result.activationBytes = numConcurrent * activationBytes(hiddenUnits);
+		
+		long numImages = (long)numFemale + numMale;
+		result.addImages(2 * numImages, numImages, pixelCache);
+		long numTrainingImages = ((4L * numFemale) + numMale) * (numFolds - 1) / numFolds;
+		result.datasetBytes += numConcurrent * (arrayBytes(numTrainingImages, referenceBytes) + arrayBytes(numTrainingImages, 8));
+		
+		return result;
+	}
+	
+	// Estimates the memory needed for a hyperparameter sweep on numMale and numFemale images, with numConcurrent trials
+	// (of at most maxHiddenUnits hidden units) training at once. Four fifths of the images are trained on, with the female
+	// images used four times and copied while the training set is built, as in estimateTraining; the rest are shared.
+	public static MemoryPlan estimateSweep(int maxHiddenUnits, int numConcurrent, int numMale, int numFemale, PixelCache pixelCache)
+	{
+		MemoryPlan result = new MemoryPlan(String.format("Estimated memory for a hyperparameter sweep (%d trials running at once, up to %d hidden units) on %d male and %d female images",
+			numConcurrent, maxHiddenUnits, numMale, numFemale));
+		
+		for (int i = 0; i < numConcurrent; i++)
+		{
+			result.addModel(maxHiddenUnits, "allconnected");
+		}
+		result.activationBytes = numConcurrent * activationBytes(maxHiddenUnits);
+		
+		long trainingFemale = numFemale * 4L / 5;
+		long trainingMale = numMale * 4L / 5;
+		long imageCopies = numFemale + numMale + (8 * trainingFemale) + trainingMale;
+		result.addImages(imageCopies, (long)numFemale + numMale, pixelCache);
+		result.datasetBytes += arrayBytes((4 * trainingFemale) + trainingMale, 8);
+		
+		return result;
+	}
+	
+	// Adds the weights of an inference-only network (such as a distillation teacher), kept in one flat array or off the heap.
+	public void addFrozenModel(int hiddenUnits, boolean offHeap)
+	{
+		addModel(hiddenUnits, offHeap ? "dense-offheap" : "dense");
+	}
+	
+	// Adds numImages images that are loaded but not copied (such as the old images a fine-tuning replay sample is drawn from).
+	public void addImages(long numImages, PixelCache pixelCache)
+	{
+		addImages(numImages, numImages, pixelCache);
+	}
+	
+	// Adds numObjects image objects, which are copies of numDistinct distinct images. Eagerly loaded copies have pixels
+	// of their own; lazily loaded ones share them, and only the images in the pixel cache hold pixels.
+	private void addImages(long numObjects, long numDistinct, PixelCache pixelCache)
+	{
+		long pixelArrays = (pixelCache == null) ? numObjects : Math.min(pixelCache.getCapacity(), numDistinct);
+		datasetBytes += (numObjects * (imageObjectBytes() + referenceBytes)) + (pixelArrays * pixelBytes());
+	}
+	
+	// Estimates the memory held by a running training job from its network, optimizer and early stopping/checkpoint settings,
+	// and its training images. Pixels of lazily loaded images are counted for the images currently in the pixel cache.
+	public static MemoryPlan estimateRunning(NeuralNetwork nn, TrainingOptions options, ImageCollection trainingData)
+	{
+		MemoryPlan result = new MemoryPlan(String.format("Estimated memory for training on %d images", trainingData.numImages()));
+		
+		int hiddenUnits = (nn instanceof NeuralNetwork_Dense) ? ((NeuralNetwork_Dense)nn).numHiddenUnits() : nn.numWeights() / (numInputs + 1);
+		if (nn instanceof NeuralNetwork_AllConnected) result.addModel(hiddenUnits, "allconnected");
+		else result.addModel(hiddenUnits, (nn.numWeights() > 0 && isOffHeap(nn)) ? "dense-offheap" : "dense");
+		result.activationBytes = activationBytes(hiddenUnits);
+		
+		// A checkpoint holds a copy of the weights and of the optimizer state.
+		long optimizerBytes = 0;
+		if (options.optimizer != null)
+		{
+			for (double[] state : options.optimizer.getState())
+			{
+				optimizerBytes += arrayBytes(state.length, 8);
+			}
+		}
+		int weightCopies = ((options.validationData != null) ? 1 : 0) + ((options.checkpointFile != null) ? 1 : 0);
+		result.trainingStateBytes = (optimizerBytes * ((options.checkpointFile != null) ? 2 : 1)) + (weightCopies * arrayBytes(nn.numWeights(), 8));
+		if (options.hardExampleFraction < 1.0) result.trainingStateBytes += 3 * arrayBytes(trainingData.numImages(), 8);
+		
+		long eagerImages = 0;
+		for (int i = 0; i < trainingData.numImages(); i++)
+		{
+			if (!trainingData.getImage(i).isLazy()) eagerImages++;
+		}
+		PixelCache pixelCache = ImageCollection.getDefaultPixelCache();
+		long cachedImages = (pixelCache == null) ? 0 : pixelCache.size();
+		result.datasetBytes = (trainingData.numImages() * (imageObjectBytes() + referenceBytes)) + ((eagerImages + cachedImages) * pixelBytes())
+			+ arrayBytes(trainingData.numImages(), 8);
+		
+		return result;
+	}
+	
+	// Returns the number of arrays of per-weight state the optimizer keeps.
+	private static int stateArrays(String optimizerName)
+	{
+		if (optimizerName.equals("adam")) return 2;
+		if (optimizerName.equals("momentum") || optimizerName.equals("nesterov")) return 1;
+		return 0;
+	}
+	
+	// Returns true iff the network keeps its weights outside of the Java heap.
+	private static boolean isOffHeap(NeuralNetwork nn)
+	{
+		return (nn instanceof NeuralNetwork_Dense) && (((NeuralNetwork_Dense)nn).getWeights() instanceof OffHeapWeightStorage);
+	}
+	
+	// Adds the weights of a network with the passed number of hidden units.
+	private void addModel(int hiddenUnits, String kind)
+	{
+		long numWeights = ((long)hiddenUnits * numInputs) + hiddenUnits;
+		if (kind.equals("dense-offheap"))
+		{
+			offHeapBytes += 8 * numWeights;
+		}
+		else if (kind.equals("dense"))
+		{
+			modelBytes += arrayBytes(numWeights, 8);
+		}
+		else
+		{ // One SigmoidUnit (with two lists of links) per unit, and one UnitLink per weight.
+			long numUnits = numInputs + hiddenUnits + 1;
+			long unitBytes = objectBytes((2 * referenceBytes) + 16) + (2 * objectBytes(8 + referenceBytes));
+			long linkArrayBytes = (numInputs * arrayBytes(listCapacity(hiddenUnits), referenceBytes))
+				+ (hiddenUnits * (arrayBytes(listCapacity(numInputs), referenceBytes) + arrayBytes(listCapacity(1), referenceBytes)))
+				+ arrayBytes(listCapacity(hiddenUnits), referenceBytes);
+			long unitArrayBytes = (imageWidth * arrayBytes(imageHeight, referenceBytes)) + arrayBytes(imageWidth, referenceBytes) + arrayBytes(hiddenUnits, referenceBytes);
+			
+			modelBytes += (numUnits * unitBytes) + (numWeights * objectBytes((2 * referenceBytes) + 8)) + linkArrayBytes + unitArrayBytes;
+		}
+	}
+	
+	// Returns the size of the input, hidden output and hidden delta buffers.
+	private static long activationBytes(int hiddenUnits)
+	{
+		return arrayBytes(numInputs, 8) + (2 * arrayBytes(hiddenUnits, 8));
+	}
+	
+	// Returns the size of a FaceImage object (without its pixels) and its name.
+	private static long imageObjectBytes()
+	{
+		long fields = (4 * referenceBytes) + 8 + 1 + 4 + 4;
+		long name = objectBytes(referenceBytes + 8) + arrayBytes(24, 1);
+		return objectBytes(fields) + name;
+	}
+	
+	// Returns the size of an image's pixel array: an array of rows of ints.
+	private static long pixelBytes()
+	{
+		return arrayBytes(imageHeight, referenceBytes) + (imageHeight * arrayBytes(imageWidth, 4));
+	}
+	
+	// Returns the capacity an ArrayList grows to when n elements are added one by one.
+	private static long listCapacity(long n)
+	{
+		if (n == 0) return 0;
+		long capacity = 10;
+		while (capacity < n)
+		{
+			capacity += capacity >> 1;
+		}
+		return capacity;
+	}
+	
+	// Returns the size of an object with the passed number of bytes of fields.
+	private static long objectBytes(long fieldBytes)
+	{
+		return align(objectHeaderBytes + fieldBytes);
+	}
+	
+	// Returns the size of an array.
+	private static long arrayBytes(long length, int elementBytes)
+	{
+		return align(arrayHeaderBytes + (length * elementBytes));
+	}
+	
+	// Rounds the size up to a multiple of 8 bytes.
+	private static long align(long bytes)
+	{
+		return (bytes + 7) & ~7L;
+	}
+	
+	// Returns the bytes used by the model weights (on the heap).
+	public long getModelBytes()
+	{
+		return modelBytes;
+	}
+	
+	// Returns the bytes used by optimizer state, saved copies of the weights and per-image training losses.
+	public long getTrainingStateBytes()
+	{
+		return trainingStateBytes;
+	}
+	
+	// Returns the bytes used by the buffers of a forward and backward pass.
+	public long getActivationBytes()
+	{
+		return activationBytes;
+	}
+	
+	// Returns the bytes used by the images and their targets.
+	public long getDatasetBytes()
+	{
+		return datasetBytes;
+	}
+	
+	// Returns the bytes of weights held outside of the Java heap.
+	public long getOffHeapBytes()
+	{
+		return offHeapBytes;
+	}
+	
+	// Returns the total bytes needed on the heap.
+	public long getHeapBytes()
+	{
+		return modelBytes + trainingStateBytes + activationBytes + datasetBytes;
+	}
+	
+	// Returns true iff the plan fits in the heap, on top of what the heap already holds.
+	public boolean fitsInHeap()
+	{
+		return getHeapBytes() + heapUsedBytes() <= Runtime.getRuntime().maxMemory();
+	}
+	
+	// Returns the bytes currently in use on the heap.
+	public static long heapUsedBytes()
+	{
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+	
+	// Prints the plan, and how it compares with the maximum heap size.
+	public void print(PrintStream out)
+	{
+		long maxHeap = Runtime.getRuntime().maxMemory();
+		out.println(description + ":");
+		out.printf("    Model weights:   %10.1f MB%n", megabytes(modelBytes));
+		out.printf("    Training state:  %10.1f MB%n", megabytes(trainingStateBytes));
+		out.printf("    Activations:     %10.1f MB%n", megabytes(activationBytes));
+		out.printf("    Dataset:         %10.1f MB%n", megabytes(datasetBytes));
+		out.printf("    Total heap:      %10.1f MB (%.1f MB already in use, %.1f MB maximum heap)%n",
+			megabytes(getHeapBytes()), megabytes(heapUsedBytes()), megabytes(maxHeap));
+		if (offHeapBytes > 0)
+		{
+			out.printf("    Off-heap:        %10.1f MB%n", megabytes(offHeapBytes));
+		}
+		out.println(fitsInHeap() ? "    The run fits in the heap." : "    The run does NOT fit in the heap.");
+	}
+	
+	// Converts bytes to megabytes.
+	private static double megabytes(long bytes)
+	{
+		return bytes / (1024.0 * 1024.0);
+	}
+}
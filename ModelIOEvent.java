@@ -0,0 +1,48 @@
+/* ModelIOEvent.java
+ * 
+ * Java Flight Recorder event for saving or loading a neural network file.
+ * 
+ */
+
+import jdk.jfr.*;
+
+@Name("NeuralNetwork.ModelIO")
+@Label("Model I/O")
+@Category({ "Neural Network", "I/O" })
+@Description("Saves or loads a neural network file.")
+public class ModelIOEvent extends Event
+{
+	@Label("Operation")
+	public String operation;
+	
+	@Label("File")
+	public String fileName;
+	
+	@Label("Format")
+	public String format;
+	
+	@Label("Layer Size")
+	@Description("Number of hidden units.")
+	public int layerSize;
+	
+	@Label("Weights")
+	public int numWeights;
+	
+	@Label("Success")
+	public boolean success;
+	
+	// Ends the event and records it, if a recording is running.
+	public void record(String operation, String fileName, String format, int layerSize, int numWeights, boolean success)
+	{
+		if (shouldCommit())
+		{
+			this.operation = operation;
+			this.fileName = fileName;
+			this.format = format;
+			this.layerSize = layerSize;
+			this.numWeights = numWeights;
+			this.success = success;
+			commit();
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/* MomentumOptimizer.java
+ * 
+ * Updates weights with gradient descent with momentum, either classical or Nesterov.
+ * The velocity of each weight is kept in an array parallel to the weights, which is allocated once.
+ * 
+ */
+
+public class MomentumOptimizer implements Optimizer
+{
+	private double learningRate;
+	private double momentum;
+	private boolean nesterov;
+	
+	// The velocity of each weight.
+	private double[] velocity;
+	
+	// Constructor. numWeights is the number of weights in the network being trained.
+	public MomentumOptimizer(int numWeights, double learningRate, double momentum, boolean nesterov)
+	{
+		this.learningRate = learningRate;
+		this.momentum = momentum;
+		this.nesterov = nesterov;
+		this.velocity = new double[numWeights];
+	}
+	
+	// Momentum keeps no per-step state.
+	public void beginStep()
+	{
+	}
+	
+	// Returns the change to make to the weight at the passed index.
+	public double step(int index, double gradient)
+	{
+		double previous = velocity[index];
+		double current = (momentum * previous) - (learningRate * gradient);
+		velocity[index] = current;
+		
+		if (nesterov)
+		{ // Look ahead along the new velocity (the Sutskever et al. formulation, which stores the plain weights).
+			return (-momentum * previous) + ((1.0 + momentum) * current);
+		}
+		else
+		{
+			return current;
+		}
+	}
+	
+	// Returns the learning rate.
+	public double getLearningRate()
+	{
+		return learningRate;
+	}
+	
+	// Sets the learning rate.
+	public void setLearningRate(double learningRate)
+	{
+		this.learningRate = learningRate;
+	}
+	
+	// Returns the name of the update rule.
+	public String getName()
+	{
+		return nesterov ? "nesterov" : "momentum";
+	}
+	
+	// Returns the velocity array.
+	public double[][] getState()
+	{
+		return new double[][] { velocity };
+	}
+	
+	// Momentum does not count steps.
+	public long getNumSteps()
+	{
+		return 0;
+	}
+	public void setNumSteps(long numSteps)
+	{
+	}
+}
\ No newline at end of file
@@ -1,25 +1,21 @@
 /* NeuralNetwork.java
  * 
- * Defines the interface for neural network implementation.
+ * Defines the interface for neural network implementation: a network that can be trained, modified and saved,
+ * on top of making predictions.
  * 
  */
 
-import java.awt.*;
-import java.io.*;
-
-public interface NeuralNetwork
+public interface NeuralNetwork extends InferenceNetwork
 {
-	// Calculates the output value for each unit in the network (these values are stored in the units).
-	void calculateOutputs(FaceImage face);
-	// Returns the final output from the neural network.
-	double getFinalOutput();
 	// Updates the neural network using backpropagation.
 	void backpropagateUpdate(double trueOutput, double learningRate);
+	// Updates the neural network using backpropagation, with the optimizer deciding each weight change.
+	void backpropagateUpdate(double trueOutput, Optimizer optimizer);
+	
+	// Replaces every weight with those in the array, ordered as in copyWeights.
+	void setWeights(double[] src);
 	
 	// Save/load the neural network to/from a file.
 	boolean saveToFile(String fileName);
 	boolean loadFromFile(String fileName);
-	
-	// Returns an image array used to visualze the trained neural network weights.
-	Image[] visualizeWeights();
 }
\ No newline at end of file
@@ -7,7 +7,9 @@
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.io.*;
 
 public class NeuralNetwork_AllConnected implements NeuralNetwork
@@ -16,11 +18,26 @@ public class NeuralNetwork_AllConnected implements NeuralNetwork
 	SigmoidUnit[] hiddenUnits;
 	SigmoidUnit outputUnit;
 	
-	Random rand = new Random();
+	Random rand;
+	
+	// Model versions are unique across every network in the process, so caches can never confuse two models.
+	private static final AtomicLong versionCounter = new AtomicLong();
+	private long modelVersion = nextModelVersion();
+	
+	// Buffer for the input values of the most recent calculation.
+	private double[] inputs = new double[128 * 120];
 	
 	// Constructor.
 	public NeuralNetwork_AllConnected(int numHiddenUnits)
 	{
+		this(numHiddenUnits, new Random());
+	}
+	
+	// Constructor. The random number generator is used to initialize the link weights.
+	public NeuralNetwork_AllConnected(int numHiddenUnits, Random rand)
+	{
+		this.rand = rand;
+		
 		// Defines the range for random link weight initialization.
 		double epsilon = 0.01;
 		
@@ -59,22 +76,32 @@ public class NeuralNetwork_AllConnected implements NeuralNetwork
 	public void calculateOutputs(FaceImage face)
 	{
 		// Get outputs of input layer (just the value of each pixel in the image, converted to [0.0 - 1.0]).
+		LayerForwardEvent event = new LayerForwardEvent();
+		event.begin();
+		face.getNormalizedValues(inputs);
 		for (int i = 0; i < 128; i++)
 		{
 			for (int j = 0; j < 120; j++)
 			{
-				inputUnits[i][j].setOutput((float)face.getValue(i, j) / 255.0);
+				inputUnits[i][j].setOutput(inputs[(i * 120) + j]);
 			}
 		}
+		event.record("input", 128 * 120, 1);
 		
 		// Calculate the outputs of the hidden layer.
+		event = new LayerForwardEvent();
+		event.begin();
 		for (int i = 0; i < hiddenUnits.length; i++)
 		{
 			hiddenUnits[i].calculateOutput();
 		}
+		event.record("hidden", hiddenUnits.length, 128 * 120);
 		
 		// Calculate the output of the output layer.
+		event = new LayerForwardEvent();
+		event.begin();
 		outputUnit.calculateOutput();
+		event.record("output", 1, hiddenUnits.length);
 	}
 	
 	// Returns the output of the output layer.
@@ -88,22 +115,133 @@ public class NeuralNetwork_AllConnected implements NeuralNetwork
 	public void backpropagateUpdate(double trueOutput, double learningRate)
 	{
 		// Calculate deltas for hidden and output units.
+		BackpropEvent event = new BackpropEvent();
+		event.begin();
 		outputUnit.calculateDelta(trueOutput);
+		event.record("output", "delta", 1, hiddenUnits.length);
+		
+		event = new BackpropEvent();
+		event.begin();
 		for (int i = 0; i < hiddenUnits.length; i++)
 		{
 			hiddenUnits[i].calculateDelta(trueOutput);
 		}
+		event.record("hidden", "delta", hiddenUnits.length, 128 * 120);
 		
 		// Update weights for hidden and output units.
+		event = new BackpropEvent();
+		event.begin();
 		outputUnit.updateWeights(learningRate);
+		event.record("output", "update", 1, hiddenUnits.length);
+		
+		event = new BackpropEvent();
+		event.begin();
 		for (int i = 0; i < hiddenUnits.length; i++)
 		{
 			hiddenUnits[i].updateWeights(learningRate);
 		}
+		event.record("hidden", "update", hiddenUnits.length, 128 * 120);
+		
+		modelVersion = nextModelVersion();
+	}
+	
+	// Update weights in the neural networks based on the current output values, using backpropagation and the optimizer.
+	// Assumes that calculateOutputs has already been used.
+	public void backpropagateUpdate(double trueOutput, Optimizer optimizer)
+	{
+		// Calculate deltas for hidden and output units.
+		BackpropEvent event = new BackpropEvent();
+		event.begin();
+		outputUnit.calculateDelta(trueOutput);
+		event.record("output", "delta", 1, hiddenUnits.length);
+		
+		event = new BackpropEvent();
+		event.begin();
+		for (int i = 0; i < hiddenUnits.length; i++)
+		{
+			hiddenUnits[i].calculateDelta(trueOutput);
+		}
+		event.record("hidden", "delta", hiddenUnits.length, 128 * 120);
+		
+		// Update weights for hidden and output units. Weights are numbered in the order of the neural network file.
+		event = new BackpropEvent();
+		event.begin();
+		optimizer.beginStep();
+		outputUnit.updateWeights(optimizer, hiddenUnits.length * 128 * 120);
+		event.record("output", "update", 1, hiddenUnits.length);
+		
+		event = new BackpropEvent();
+		event.begin();
+		for (int i = 0; i < hiddenUnits.length; i++)
+		{
+			hiddenUnits[i].updateWeights(optimizer, i * 128 * 120);
+		}
+		event.record("hidden", "update", hiddenUnits.length, 128 * 120);
+		
+		modelVersion = nextModelVersion();
+	}
+	
+	// Returns the number of weights in the network.
+	public int numWeights()
+	{
+		return (hiddenUnits.length * 128 * 120) + hiddenUnits.length;
+	}
+	
+	// Copies every weight (in the order of the neural network file) into the passed array.
+	public void copyWeights(double[] dest)
+	{
+		int index = 0;
+		for (int hu = 0; hu < hiddenUnits.length; hu++)
+		{
+			java.util.List<UnitLink> links = hiddenUnits[hu].inputLinks;
+			for (int i = 0; i < links.size(); i++)
+			{
+				dest[index] = links.get(i).weight;
+				index++;
+			}
+		}
+		for (int i = 0; i < hiddenUnits.length; i++)
+		{
+			dest[index] = outputUnit.inputLinks.get(i).weight;
+			index++;
+		}
+	}
+	
+	// Replaces every weight with those in the passed array (in the order of the neural network file).
+	public void setWeights(double[] src)
+	{
+		int index = 0;
+		for (int hu = 0; hu < hiddenUnits.length; hu++)
+		{
+			java.util.List<UnitLink> links = hiddenUnits[hu].inputLinks;
+			for (int i = 0; i < links.size(); i++)
+			{
+				links.get(i).weight = src[index];
+				index++;
+			}
+		}
+		for (int i = 0; i < hiddenUnits.length; i++)
+		{
+			outputUnit.inputLinks.get(i).weight = src[index];
+			index++;
+		}
+		
+		modelVersion = nextModelVersion();
 	}
 	
 	// Saves the neural network to a file. Returns true iff the operation was successful.
 	public boolean saveToFile(String fileName)
+	{
+		ModelIOEvent event = new ModelIOEvent();
+		event.begin();
+		boolean success = writeFile(fileName);
+		event.record("save", fileName, "text", hiddenUnits.length, numWeights(), success);
+		
+		return success;
+	}
+	
+	// Writes the neural network file.
+	private boolean writeFile(String fileName)
 	{
 		File file;
 		FileWriter fileWriter;
@@ -151,8 +289,50 @@ public class NeuralNetwork_AllConnected implements NeuralNetwork
 		return false;
 	}
 	
+	// Creates a neural network with the number of hidden units stored in the file, and loads it from the file.
+	// Returns null if the file could not be loaded.
+	public static NeuralNetwork_AllConnected load(String fileName)
+	{
+		int numHu = readNumHiddenUnits(fileName);
+		if (numHu <= 0) return null;
+		
+		NeuralNetwork_AllConnected result = new NeuralNetwork_AllConnected(numHu);
+		if (!result.loadFromFile(fileName)) return null;
+		
+		return result;
+	}
+	
+	// Returns the number of hidden units stored in a neural network file, or -1 if it could not be read.
+	public static int readNumHiddenUnits(String fileName)
+	{
+		try
+		{
+			Scanner scanner = new Scanner(new File(fileName));
+			int numHu = scanner.hasNextInt() ? scanner.nextInt() : -1;
+			scanner.close();
+			
+			return numHu;
+		}
+		catch (FileNotFoundException e)
+		{
+			System.out.printf("Error loading neural network from file \"%s\".%n", fileName);
+		}
+		return -1;
+	}
+	
 	// Load the neural network from a file. Returns true iff the operation was successful.
 	public boolean loadFromFile(String fileName)
+	{
+		ModelIOEvent event = new ModelIOEvent();
+		event.begin();
+		boolean success = readFile(fileName);
+		event.record("load", fileName, "text", hiddenUnits.length, numWeights(), success);
+		
+		return success;
+	}
+	
+	// Reads the neural network file.
+	private boolean readFile(String fileName)
 	{
 		File file;
 		Scanner scanner;
@@ -190,6 +370,8 @@ public class NeuralNetwork_AllConnected implements NeuralNetwork
 			
 			scanner.close();
 			
+			modelVersion = nextModelVersion();
+			
 			return true;
 		}
 		catch (FileNotFoundException e)
@@ -199,6 +381,18 @@ public class NeuralNetwork_AllConnected implements NeuralNetwork
 		return false;
 	}
 	
+	// Returns a new model version stamp, unique within this process.
+	public static long nextModelVersion()
+	{
+		return versionCounter.incrementAndGet();
+	}
+	
+	// Returns the version stamp of the current weights.
+	public long getModelVersion()
+	{
+		return modelVersion;
+	}
+	
 	// Returns an array of images (one for each hidden unit) that visualizes the link weights using greyscale values.
 	public Image[] visualizeWeights()
 	{
@@ -207,7 +401,8 @@ public class NeuralNetwork_AllConnected implements NeuralNetwork
 		for (int hu = 0; hu < hiddenUnits.length; hu++)
 		{
 			BufferedImage bi = new BufferedImage(128, 120, BufferedImage.TYPE_INT_RGB);
-			Graphics g = bi.getGraphics();
+			// Pixels are written straight into the image's raster (row by row, one int per pixel).
+			int[] pixels = ((DataBufferInt)bi.getRaster().getDataBuffer()).getData();
 			
 			SigmoidUnit currHu = hiddenUnits[hu];
 			
@@ -221,8 +416,7 @@ public class NeuralNetwork_AllConnected implements NeuralNetwork
 					double w = Math.abs(currHu.inputLinks.get(linkNum).weight);
 					int intensity = (int)Math.round((w / maxW) * 255.0);
 					
-					g.setColor(new Color(intensity, intensity, intensity));
-					g.drawLine(i, j, i, j);
+					pixels[(j * 128) + i] = (intensity << 16) | (intensity << 8) | intensity;
 					
 					linkNum++;
 				}
@@ -0,0 +1,285 @@
+/* NeuralNetwork_Dense.java
+ * 
+ * Defines a totally connected neural network with a single hidden layer, like NeuralNetwork_AllConnected.
+ * Instead of linked SigmoidUnits, the weights are held in one flat WeightStorage, which may be off-heap.
+ * The network computes the same outputs and updates as NeuralNetwork_AllConnected, and uses the same file format.
+ * 
+ */
+
+import java.awt.*;
+import java.util.*;
+import java.io.*;
+
+public class NeuralNetwork_Dense implements NeuralNetwork
+{
+	private static final int numInputs = 128 * 120;
+	
+	// All weights, in the order of the neural network file:
+	// the input weights of hidden unit hu start at index hu * numInputs, and the output unit's weights follow them.
+	private WeightStorage weights;
+	private int numHu;
+	private int outputOffset;
+	
+	// Unit outputs and deltas from the most recent calculation.
+	private double[] inputs = new double[numInputs];
+	private double[] hiddenOutputs;
+	private double[] hiddenDeltas;
+	private double finalOutput = 0.0;
+	
+	private long modelVersion = NeuralNetwork_AllConnected.nextModelVersion();
+	
+	Random rand;
+	
+	// Constructor. Initializes the weights in the passed storage (which must hold numWeights(numHiddenUnits) weights) randomly.
+	public NeuralNetwork_Dense(int numHiddenUnits, WeightStorage weights)
+	{
+		this(numHiddenUnits, weights, new Random());
+	}
+	
+	// Constructor. The random number generator is used to initialize the weights.
+	public NeuralNetwork_Dense(int numHiddenUnits, WeightStorage weights, Random rand)
+	{
+		this.rand = rand;
+		
+		// Defines the range for random link weight initialization.
+		double epsilon = 0.01;
+		
+		this.numHu = numHiddenUnits;
+		this.weights = weights;
+		this.outputOffset = numHiddenUnits * numInputs;
+		this.hiddenOutputs = new double[numHiddenUnits];
+		this.hiddenDeltas = new double[numHiddenUnits];
+		
+		// Weights are drawn in the same order as NeuralNetwork_AllConnected draws them.
+		for (int hu = 0; hu < numHiddenUnits; hu++)
+		{
+			for (int i = 0; i < numInputs; i++)
+			{
+				weights.set((hu * numInputs) + i, (rand.nextDouble() * epsilon) - (epsilon / 2.0));
+			}
+			weights.set(outputOffset + hu, (rand.nextDouble() * epsilon) - (epsilon / 2.0));
+		}
+	}
+	
+	// Returns the number of weights in a network with the passed number of hidden units.
+	public static int numWeights(int numHiddenUnits)
+	{
+		return NeuralNetwork_Frozen.numWeights(numHiddenUnits);
+	}
+	
+	// Update the neural network to store the calculated output of each unit.
+	public void calculateOutputs(FaceImage face)
+	{
+		LayerForwardEvent event = new LayerForwardEvent();
+		event.begin();
+		face.getNormalizedValues(inputs);
+		event.record("input", numInputs, 1);
+		
+		event = new LayerForwardEvent();
+		event.begin();
+		for (int hu = 0; hu < numHu; hu++)
+		{
+			double net = weights.dot(hu * numInputs, inputs);
+			hiddenOutputs[hu] = 1.0 / (1.0 + Math.exp(-net));
+		}
+		event.record("hidden", numHu, numInputs);
+		
+		event = new LayerForwardEvent();
+		event.begin();
+		double net = weights.dot(outputOffset, hiddenOutputs);
+		finalOutput = 1.0 / (1.0 + Math.exp(-net));
+		event.record("output", 1, numHu);
+	}
+	
+	// Returns the output of the output layer.
+	public double getFinalOutput()
+	{
+		return finalOutput;
+	}
+	
+	// Update weights in the neural networks based on the current output values, using backpropagation.
+	// Assumes that calculateOutputs has already been used.
+	public void backpropagateUpdate(double trueOutput, double learningRate)
+	{
+		// Calculate deltas for hidden and output units.
+		BackpropEvent event = new BackpropEvent();
+		event.begin();
+		double outputDelta = finalOutput * (1.0 - finalOutput) * (trueOutput - finalOutput);
+		event.record("output", "delta", 1, numHu);
+		
+		event = new BackpropEvent();
+		event.begin();
+		for (int hu = 0; hu < numHu; hu++)
+		{
+			hiddenDeltas[hu] = hiddenOutputs[hu] * (1.0 - hiddenOutputs[hu]) * weights.get(outputOffset + hu) * outputDelta;
+		}
+		event.record("hidden", "delta", numHu, numInputs);
+		
+		// Update weights for hidden and output units.
+		event = new BackpropEvent();
+		event.begin();
+		weights.addScaled(outputOffset, hiddenOutputs, learningRate * outputDelta);
+		event.record("output", "update", 1, numHu);
+		
+		event = new BackpropEvent();
+		event.begin();
+		for (int hu = 0; hu < numHu; hu++)
+		{
+			weights.addScaled(hu * numInputs, inputs, learningRate * hiddenDeltas[hu]);
+		}
+		event.record("hidden", "update", numHu, numInputs);
+		
+		modelVersion = NeuralNetwork_AllConnected.nextModelVersion();
+	}
+	
+	// Update weights in the neural networks based on the current output values, using backpropagation and the optimizer.
+	// Assumes that calculateOutputs has already been used.
+	public void backpropagateUpdate(double trueOutput, Optimizer optimizer)
+	{
+		// Calculate deltas for hidden and output units.
+		BackpropEvent event = new BackpropEvent();
+		event.begin();
+		double outputDelta = finalOutput * (1.0 - finalOutput) * (trueOutput - finalOutput);
+		event.record("output", "delta", 1, numHu);
+		
+		event = new BackpropEvent();
+		event.begin();
+		for (int hu = 0; hu < numHu; hu++)
+		{
+			hiddenDeltas[hu] = hiddenOutputs[hu] * (1.0 - hiddenOutputs[hu]) * weights.get(outputOffset + hu) * outputDelta;
+		}
+		event.record("hidden", "delta", numHu, numInputs);
+		
+		// Update weights for hidden and output units. Deltas are negative gradients of the error.
+		event = new BackpropEvent();
+		event.begin();
+		optimizer.beginStep();
+		for (int hu = 0; hu < numHu; hu++)
+		{
+			int index = outputOffset + hu;
+			weights.set(index, weights.get(index) + optimizer.step(index, -outputDelta * hiddenOutputs[hu]));
+		}
+		event.record("output", "update", 1, numHu);
+		
+		event = new BackpropEvent();
+		event.begin();
+		for (int hu = 0; hu < numHu; hu++)
+		{
+			int offset = hu * numInputs;
+			for (int i = 0; i < numInputs; i++)
+			{
+				weights.set(offset + i, weights.get(offset + i) + optimizer.step(offset + i, -hiddenDeltas[hu] * inputs[i]));
+			}
+		}
+		event.record("hidden", "update", numHu, numInputs);
+		
+		modelVersion = NeuralNetwork_AllConnected.nextModelVersion();
+	}
+	
+	// Returns the number of weights in the network.
+	public int numWeights()
+	{
+		return weights.size();
+	}
+	
+	// Copies every weight (in the order of the neural network file) into the passed array.
+	public void copyWeights(double[] dest)
+	{
+		for (int i = 0; i < dest.length; i++)
+		{
+			dest[i] = weights.get(i);
+		}
+	}
+	
+	// Replaces every weight with those in the passed array (in the order of the neural network file).
+	public void setWeights(double[] src)
+	{
+		for (int i = 0; i < src.length; i++)
+		{
+			weights.set(i, src[i]);
+		}
+		
+		modelVersion = NeuralNetwork_AllConnected.nextModelVersion();
+	}
+	
+	// Saves the neural network to a file, in the same format as NeuralNetwork_AllConnected.
+	// Returns true iff the operation was successful.
+	public boolean saveToFile(String fileName)
+	{
+		ModelIOEvent event = new ModelIOEvent();
+		event.begin();
+		boolean success = writeFile(fileName);
+		event.record("save", fileName, "text", numHu, numWeights(), success);
+		
+		return success;
+	}
+	
+	// Writes the neural network file.
+	private boolean writeFile(String fileName)
+	{
+		try (Writer writer = new BufferedWriter(new FileWriter(fileName)))
+		{
+			// Write the number of hidden units.
+			writer.write(String.format("%d%n", numHu));
+			
+			// Write the hidden unit weights.
+			for (int hu = 0; hu < numHu; hu++)
+			{
+				for (int i = 0; i < numInputs; i++)
+				{
+					writer.write(String.format("%f ", weights.get((hu * numInputs) + i)));
+				}
+				writer.write(String.format("%n"));
+			}
+			
+			// Write the output unit weights.
+			for (int hu = 0; hu < numHu; hu++)
+			{
+				writer.write(String.format("%f ", weights.get(outputOffset + hu)));
+			}
+			writer.write(String.format("%n"));
+			
+			return true;
+		}
+		catch (IOException e)
+		{
+			System.out.printf("Error saving neural network to file \"%s\".%n", fileName);
+		}
+		return false;
+	}
+	
+	// Load the neural network from a file (text or frozen). Returns true iff the operation was successful.
+	public boolean loadFromFile(String fileName)
+	{
+		// The file is read straight into the weight storage, so no second copy of the weights is held.
+		if (!NeuralNetwork_Frozen.loadWeights(fileName, numHu, weights)) return false;
+		
+		modelVersion = NeuralNetwork_AllConnected.nextModelVersion();
+		
+		return true;
+	}
+	
+	// Returns the number of hidden units.
+	public int numHiddenUnits()
+	{
+		return numHu;
+	}
+	
+	// Returns the weight storage (in the order of the neural network file).
+	public WeightStorage getWeights()
+	{
+		return weights;
+	}
+	
+	// Returns the version stamp of the current weights.
+	public long getModelVersion()
+	{
+		return modelVersion;
+	}
+	
+	// Returns an array of images (one for each hidden unit) that visualizes the link weights using greyscale values.
+	public Image[] visualizeWeights()
+	{
+		return new NeuralNetwork_Frozen(numHu, weights).visualizeWeights();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,216 @@
+/* NeuralNetwork_Ensemble.java
+ * 
+ * Defines an inference-only ensemble of several trained networks, which predicts by combining their outputs.
+ * The input weights of every model's hidden units are stacked into one matrix (one row per hidden unit of any model),
+ * so an image's pixels are normalized once and all the hidden layers are computed by a single dotRows call.
+ * The ensemble then costs about as much as one network with all the models' hidden units, rather than one pass per model.
+ * Outputs are combined by a weighted mean, or by a weighted vote of the models' male/female predictions.
+ * 
+ */
+
+import java.awt.*;
+import java.io.*;
+import java.util.*;
+
+public class NeuralNetwork_Ensemble implements InferenceNetwork
+{
+	// Ways of combining the model outputs.
+	public static final int COMBINE_MEAN = 0;
+	public static final int COMBINE_VOTE = 1;
+	
+	private static final int numInputs = 128 * 120;
+	
+	// All weights: the input weights of hidden unit hu (counting the hidden units of every model in turn) start at
+	// index hu * numInputs, and its output weight is at outputOffset + hu.
+	private WeightStorage weights;
+	private int totalHu;
+	private int outputOffset;
+	
+	// The hidden units of model k are firstHu[k] up to firstHu[k + 1].
+	private int[] firstHu;
+	private String[] modelNames;
+	private double[] modelWeights;
+	private int combine;
+	
+	// Buffers for the most recent calculation.
+	private double[] inputs = new double[numInputs];
+	private double[] hiddenOutputs;
+	private double[] modelOutputs;
+	private double finalOutput = 0.0;
+	
+	private long modelVersion = NeuralNetwork_AllConnected.nextModelVersion();
+	
+	// Constructor. The storage is used directly, not copied.
+	private NeuralNetwork_Ensemble(WeightStorage weights, int[] firstHu, String[] modelNames, double[] modelWeights, int combine)
+	{
+		this.weights = weights;
+		this.firstHu = firstHu;
+		this.modelNames = modelNames;
+		this.modelWeights = modelWeights;
+		this.combine = combine;
+		this.totalHu = firstHu[firstHu.length - 1];
+		this.outputOffset = totalHu * numInputs;
+		this.hiddenOutputs = new double[totalHu];
+		this.modelOutputs = new double[modelNames.length];
+	}
+	
+	// Loads the networks in the files (binary or text) and stacks their weights into one ensemble.
+	// Model weights may be null, to weight every model equally. Returns null if any file could not be loaded.
+	public static NeuralNetwork_Ensemble load(String[] fileNames, double[] modelWeights, int combine, boolean offHeap)
+	{
+		// The stacked storage is sized from the file headers, so only one model is loaded at a time.
+		int[] firstHu = new int[fileNames.length + 1];
+		long totalHu = 0;
+		for (int k = 0; k < fileNames.length; k++)
+		{
+			int numHu = NeuralNetwork_Frozen.readNumHiddenUnits(fileNames[k]);
+			if (numHu <= 0) return null;
+			
+			totalHu += numHu;
+			if (totalHu * (numInputs + 1) > Integer.MAX_VALUE)
+			{
+				System.out.printf("The ensemble has too many hidden units (%d or more) to stack into one matrix.%n", totalHu);
+				return null;
+			}
+			firstHu[k + 1] = (int)totalHu;
+		}
+		
+		// Copy each model's hidden rows into place, and its output weights next to those of the other models.
+		WeightStorage weights = MatthewMartin.newWeightStorage((int)totalHu * (numInputs + 1), offHeap);
+		int outputOffset = (int)totalHu * numInputs;
+		for (int k = 0; k < fileNames.length; k++)
+		{
+			NeuralNetwork_Frozen model = NeuralNetwork_Frozen.load(fileNames[k], offHeap);
+			int numHu = firstHu[k + 1] - firstHu[k];
+			if (model == null || model.numHiddenUnits() != numHu) return null;
+			
+			WeightStorage source = model.getWeights();
+			for (int i = 0; i < numHu * numInputs; i++)
+			{
+				weights.set((firstHu[k] * numInputs) + i, source.get(i));
+			}
+			for (int hu = 0; hu < numHu; hu++)
+			{
+				weights.set(outputOffset + firstHu[k] + hu, source.get((numHu * numInputs) + hu));
+			}
+		}
+		
+		if (modelWeights == null)
+		{
+			modelWeights = new double[fileNames.length];
+			Arrays.fill(modelWeights, 1.0);
+		}
+		
+		return new NeuralNetwork_Ensemble(weights, firstHu, fileNames.clone(), modelWeights.clone(), combine);
+	}
+	
+	// Returns an ensemble sharing these weights, for running predictions on another thread.
+	public NeuralNetwork_Ensemble inferenceCopy()
+	{
+		return new NeuralNetwork_Ensemble(weights, firstHu, modelNames, modelWeights, combine);
+	}
+	
+	// Parses the name of a way of combining outputs ("mean" or "vote"). Returns -1 if the name is not recognized.
+	public static int parseCombine(String name)
+	{
+		if (name.toLowerCase().equals("mean")) return COMBINE_MEAN;
+		if (name.toLowerCase().equals("vote")) return COMBINE_VOTE;
+		return -1;
+	}
+	
+	// Update the stored outputs for the passed image.
+	public void calculateOutputs(FaceImage face)
+	{
+		LayerForwardEvent event = new LayerForwardEvent();
+		event.begin();
+		face.getNormalizedValues(inputs);
+		event.record("input", numInputs, 1);
+		
+		// The hidden layers of all the models, as one wide layer.
+		event = new LayerForwardEvent();
+		event.begin();
+		weights.dotRows(0, inputs, hiddenOutputs);
+		for (int hu = 0; hu < totalHu; hu++)
+		{
+			hiddenOutputs[hu] = 1.0 / (1.0 + Math.exp(-hiddenOutputs[hu]));
+		}
+		event.record("hidden", totalHu, numInputs);
+		
+		event = new LayerForwardEvent();
+		event.begin();
+		double sum = 0.0;
+		double totalWeight = 0.0;
+		for (int k = 0; k < modelOutputs.length; k++)
+		{
+			double net = 0.0;
+			for (int hu = firstHu[k]; hu < firstHu[k + 1]; hu++)
+			{
+				net += weights.get(outputOffset + hu) * hiddenOutputs[hu];
+			}
+			modelOutputs[k] = 1.0 / (1.0 + Math.exp(-net));
+			
+			if (combine == COMBINE_VOTE) sum += (modelOutputs[k] >= 0.5) ? modelWeights[k] : 0.0;
+			else sum += modelWeights[k] * modelOutputs[k];
+			totalWeight += modelWeights[k];
+		}
+		finalOutput = (totalWeight == 0.0) ? 0.5 : sum / totalWeight;
+		event.record("output", modelOutputs.length, totalHu);
+	}
+	
+	// Returns the combined output of the models.
+	public double getFinalOutput()
+	{
+		return finalOutput;
+	}
+	
+	// Returns the output of model k from the most recent calculation.
+	public double getModelOutput(int k)
+	{
+		return modelOutputs[k];
+	}
+	
+	// Returns the number of models.
+	public int numModels()
+	{
+		return modelNames.length;
+	}
+	
+	// Returns the file model k was loaded from.
+	public String getModelName(int k)
+	{
+		return modelNames[k];
+	}
+	
+	// Returns the number of weights in the ensemble.
+	public int numWeights()
+	{
+		return weights.size();
+	}
+	
+	// Copies every weight (stacked hidden weights, then the output weights) into the passed array.
+	public void copyWeights(double[] dest)
+	{
+		for (int i = 0; i < dest.length; i++)
+		{
+			dest[i] = weights.get(i);
+		}
+	}
+	
+	// Returns the total number of hidden units of all the models.
+	public int numHiddenUnits()
+	{
+		return totalHu;
+	}
+	
+	// Returns the version stamp of the weights.
+	public long getModelVersion()
+	{
+		return modelVersion;
+	}
+	
+	// Returns an array of images (one for each hidden unit of every model) that visualizes the link weights using greyscale values.
+	public Image[] visualizeWeights()
+	{
+		return new NeuralNetwork_Frozen(totalHu, weights).visualizeWeights();
+	}
+}
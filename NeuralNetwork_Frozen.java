@@ -0,0 +1,509 @@
+/* NeuralNetwork_Frozen.java
+ * 
+ * Defines an inference-only copy of a trained NeuralNetwork_AllConnected.
+ * The weights are stored in one flat WeightStorage, and no training state (deltas, links, random weights) is allocated.
+ * Frozen networks can be loaded from a regular neural network file, or from the compact binary file written by saveToFile.
+ * Binary files can also be mapped straight into off-heap memory.
+ * 
+ */
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+public class NeuralNetwork_Frozen implements InferenceNetwork
+{
+	// Marks the start of a frozen network file ("NNFZ").
+	public static final int FILE_MAGIC = 0x4E4E465A;
+	public static final int FILE_FORMAT_VERSION = 1;
+	// Size of the binary file header (magic, format version, hidden units, padding).
+	public static final int FILE_HEADER_BYTES = 16;
+	// Size of the buffer the weights of a binary file are read through, so files of any size can be read.
+	private static final int READ_CHUNK_BYTES = 1 << 20;
+	
+	private static final int numInputs = 128 * 120;
+	
+	// All weights, in the order of the neural network file:
+	// the input weights of hidden unit hu start at index hu * numInputs, and the output unit's weights follow them.
+	private WeightStorage weights;
+	private int numHu;
+	private int outputOffset;
+	
+	// Buffers for the most recent calculation.
+	private double[] inputs = new double[numInputs];
+	private double[] hiddenOutputs;
+	private double finalOutput = 0.0;
+	
+	private long modelVersion = NeuralNetwork_AllConnected.nextModelVersion();
+	
+	// Constructor. The storage is used directly, not copied.
+	public NeuralNetwork_Frozen(int numHu, WeightStorage weights)
+	{
+		this.numHu = numHu;
+		this.weights = weights;
+		this.outputOffset = numHu * numInputs;
+		this.hiddenOutputs = new double[numHu];
+	}
+	
+	// The most hidden units a network can have: weights are indexed by int, so there can be at most Integer.MAX_VALUE of them.
+	public static final int MAX_HIDDEN_UNITS = Integer.MAX_VALUE / (numInputs + 1);
+	
+	// Returns the number of weights in a network with the passed number of hidden units.
+	public static int numWeights(int numHu)
+	{
+		return (numHu * numInputs) + numHu;
+	}
+	
+	// Loads a frozen network from a neural network file (binary or text). Returns null if the file could not be loaded.
+	public static NeuralNetwork_Frozen load(String fileName)
+	{
+		return load(fileName, false);
+	}
+	
+	// Loads a frozen network from a neural network file (binary or text), with the weights optionally held off-heap.
+	// Off-heap binary files are mapped read-only rather than read. Returns null if the file could not be loaded.
+	public static NeuralNetwork_Frozen load(String fileName, boolean offHeap)
+	{
+		ModelIOEvent event = new ModelIOEvent();
+		event.begin();
+		
+		NeuralNetwork_Frozen result = null;
+		String format = "text";
+		try
+		{
+			if (isFrozenFile(fileName))
+			{
+				format = offHeap ? "mapped" : "binary";
+				result = offHeap ? mapBinary(fileName) : readBinary(fileName);
+			}
+			else
+			{
+				result = readText(fileName, offHeap);
+			}
+		}
+		catch (IOException | RuntimeException e)
+		{
+			System.out.printf("Error loading neural network from file \"%s\".%n", fileName);
+		}
+		
+		event.record("load", fileName, format, (result == null) ? 0 : result.numHu, (result == null) ? 0 : result.numWeights(), result != null);
+		return result;
+	}
+	
+	// Reads the weights of a neural network file (binary or text) straight into the passed storage, which must hold
+	// numWeights(numHu) weights. Returns false if the file could not be loaded or has a different number of hidden units,
+	// in which case some of the weights may already have been replaced.
+	public static boolean loadWeights(String fileName, int numHu, WeightStorage dest)
+	{
+		ModelIOEvent event = new ModelIOEvent();
+		event.begin();
+		
+		boolean success = false;
+		String format = "text";
+		try
+		{
+			if (isFrozenFile(fileName))
+			{
+				format = "binary";
+				try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ))
+				{
+					if (readBinaryHeader(channel) != numHu) throw new IOException("Wrong number of hidden units.");
+					readBinaryWeights(channel, dest);
+				}
+			}
+			else
+			{
+				byte[] bytes = Files.readAllBytes(Paths.get(fileName));
+				int[] pos = new int[1];
+				if (readTextHeader(bytes, pos) != numHu) throw new IOException("Wrong number of hidden units.");
+				readTextWeights(bytes, pos, dest);
+			}
+			success = true;
+		}
+		catch (IOException | RuntimeException e)
+		{
+			System.out.printf("Error loading neural network from file \"%s\".%n", fileName);
+		}
+		
+		event.record("load", fileName, format, numHu, dest.size(), success);
+		return success;
+	}
+	
+	// Returns a frozen network with the same weights as the passed network, for running predictions on another thread.
+	// A frozen network's weight storage is shared, since it is never modified; other networks' weights are copied.
+	public static NeuralNetwork_Frozen inferenceCopy(InferenceNetwork nn)
+	{
+		if (nn instanceof NeuralNetwork_Frozen)
+		{
+			NeuralNetwork_Frozen frozen = (NeuralNetwork_Frozen)nn;
+			return new NeuralNetwork_Frozen(frozen.numHu, frozen.weights);
+		}
+		
+		double[] weights = new double[nn.numWeights()];
+		nn.copyWeights(weights);
+		return new NeuralNetwork_Frozen(weights.length / (numInputs + 1), new HeapWeightStorage(weights));
+	}
+	
+	// Returns true iff the file starts with the frozen network file marker.
+	public static boolean isFrozenFile(String fileName)
+	{
+		try (DataInputStream in = new DataInputStream(new FileInputStream(fileName)))
+		{
+			return in.readInt() == FILE_MAGIC;
+		}
+		catch (IOException e)
+		{
+			return false;
+		}
+	}
+	
+	// Returns the number of hidden units stored in a binary frozen or regular neural network file, or -1 if it could not be read.
+	public static int readNumHiddenUnits(String fileName)
+	{
+		if (!isFrozenFile(fileName)) return NeuralNetwork_AllConnected.readNumHiddenUnits(fileName);
+		
+		try (DataInputStream in = new DataInputStream(new FileInputStream(fileName)))
+		{
+			in.readInt();
+			in.readInt();
+			return in.readInt();
+		}
+		catch (IOException e)
+		{
+			return -1;
+		}
+	}
+	
+	// Reads a binary frozen network file. The weights are read in chunks, straight into the storage.
+	private static NeuralNetwork_Frozen readBinary(String fileName)
+		throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ))
+		{
+			int numHu = readBinaryHeader(channel);
+			WeightStorage weights = new HeapWeightStorage(numWeights(numHu));
+			readBinaryWeights(channel, weights);
+			
+			return new NeuralNetwork_Frozen(numHu, weights);
+		}
+	}
+	
+	// Reads and checks the header of a binary frozen network file, and returns the number of hidden units.
+	// The file must be exactly as long as the header and weights, so a truncated or padded file is rejected.
+	private static int readBinaryHeader(FileChannel channel)
+		throws IOException
+	{
+		ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES);
+		readFully(channel, header);
+		
+		if (header.getInt() != FILE_MAGIC || header.getInt() != FILE_FORMAT_VERSION)
+		{
+			throw new IOException("Unsupported frozen network file.");
+		}
+		int numHu = header.getInt();
+		if (numHu < 1 || numHu > MAX_HIDDEN_UNITS)
+		{
+			throw new IOException("Invalid number of hidden units " + numHu + ".");
+		}
+		// The fourth int is padding, so the weights start on an 8-byte boundary.
+		
+		long expectedSize = FILE_HEADER_BYTES + (8L * numWeights(numHu));
+		if (channel.size() != expectedSize)
+		{
+			throw new IOException("Frozen network file is " + channel.size() + " bytes long, expected " + expectedSize + ".");
+		}
+		
+		return numHu;
+	}
+	
+	// Reads the weights following the header of a binary frozen network file into the passed storage, one chunk at a time.
+	private static void readBinaryWeights(FileChannel channel, WeightStorage dest)
+		throws IOException
+	{
+		// The weights were written by a DataOutputStream, which is big-endian (the ByteBuffer default).
+		ByteBuffer buffer = ByteBuffer.allocate(READ_CHUNK_BYTES);
+		int numWeights = dest.size();
+		int index = 0;
+		while (index < numWeights)
+		{
+			buffer.clear();
+			buffer.limit((int)Math.min(READ_CHUNK_BYTES, 8L * (numWeights - index)));
+			readFully(channel, buffer);
+			
+			DoubleBuffer doubles = buffer.asDoubleBuffer();
+			while (doubles.hasRemaining())
+			{
+				dest.set(index++, doubles.get());
+			}
+		}
+	}
+	
+	// Fills the rest of the buffer from the channel, and flips it for reading.
+	private static void readFully(FileChannel channel, ByteBuffer buffer)
+		throws IOException
+	{
+		while (buffer.hasRemaining())
+		{
+			if (channel.read(buffer) < 0) throw new EOFException();
+		}
+		buffer.flip();
+	}
+	
+	// Maps the weights of a binary frozen network file read-only into off-heap memory.
+	private static NeuralNetwork_Frozen mapBinary(String fileName)
+		throws IOException
+	{
+		int numHu;
+		try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ))
+		{
+			numHu = readBinaryHeader(channel);
+		}
+		
+		// The weights were written by a DataOutputStream, which is big-endian.
+		WeightStorage weights = OffHeapWeightStorage.map(fileName, FILE_HEADER_BYTES, numWeights(numHu), ByteOrder.BIG_ENDIAN, false);
+		return new NeuralNetwork_Frozen(numHu, weights);
+	}
+	
+	// Reads a text neural network file (as written by NeuralNetwork_AllConnected.saveToFile).
+	// The file is tokenized by hand, which is far faster than reading it with a Scanner.
+	private static NeuralNetwork_Frozen readText(String fileName, boolean offHeap)
+		throws IOException
+	{
+		byte[] bytes = Files.readAllBytes(Paths.get(fileName));
+		int[] pos = new int[1];
+		
+		int numHu = readTextHeader(bytes, pos);
+		int numWeights = numWeights(numHu);
+		WeightStorage weights = offHeap ? new OffHeapWeightStorage(numWeights) : new HeapWeightStorage(numWeights);
+		readTextWeights(bytes, pos, weights);
+		
+		return new NeuralNetwork_Frozen(numHu, weights);
+	}
+	
+	// Reads and checks the number of hidden units at the start of a text neural network file.
+	private static int readTextHeader(byte[] bytes, int[] pos)
+		throws IOException
+	{
+		double numHu = nextNumber(bytes, pos);
+		if (numHu < 1 || numHu > MAX_HIDDEN_UNITS || numHu != Math.floor(numHu))
+		{
+			throw new IOException("Invalid number of hidden units " + numHu + ".");
+		}
+		
+		return (int)numHu;
+	}
+	
+	// Reads the weights following the number of hidden units in a text neural network file into the passed storage.
+	private static void readTextWeights(byte[] bytes, int[] pos, WeightStorage dest)
+		throws IOException
+	{
+		for (int i = 0; i < dest.size(); i++)
+		{
+			dest.set(i, nextNumber(bytes, pos));
+		}
+	}
+	
+	// Parses the next whitespace-separated number in the text, starting at pos[0]. Advances pos[0] past the number.
+	private static double nextNumber(byte[] text, int[] pos)
+		throws IOException
+	{
+		int i = pos[0];
+		while (i < text.length && text[i] <= ' ') i++;
+		if (i >= text.length) throw new EOFException();
+		
+		boolean negative = false;
+		if (text[i] == '-' || text[i] == '+')
+		{
+			negative = (text[i] == '-');
+			i++;
+		}
+		
+		long digits = 0;
+		int fractionDigits = 0;
+		boolean inFraction = false;
+		int start = i;
+		while (i < text.length && text[i] > ' ')
+		{
+			byte c = text[i];
+			if (c >= '0' && c <= '9' && digits < 100000000000000000L)
+			{
+				digits = (digits * 10) + (c - '0');
+				if (inFraction) fractionDigits++;
+			}
+			else if (c == '.' && !inFraction)
+			{
+				inFraction = true;
+			}
+			else
+			{ // Not a plain decimal number (e.g. an exponent or too many digits). Let Double.parseDouble handle it.
+				while (i < text.length && text[i] > ' ') i++;
+				pos[0] = i;
+				return Double.parseDouble(new String(text, start - (negative ? 1 : 0), i - start + (negative ? 1 : 0), "US-ASCII"));
+			}
+			i++;
+		}
+		pos[0] = i;
+		
+		double result = digits / Math.pow(10.0, fractionDigits);
+		return negative ? -result : result;
+	}
+	
+	// Update the stored outputs for the passed image.
+	public void calculateOutputs(FaceImage face)
+	{
+		LayerForwardEvent event = new LayerForwardEvent();
+		event.begin();
+		face.getNormalizedValues(inputs);
+		event.record("input", numInputs, 1);
+		
+		event = new LayerForwardEvent();
+		event.begin();
+		for (int hu = 0; hu < numHu; hu++)
+		{
+			double hiddenNet = weights.dot(hu * numInputs, inputs);
+			hiddenOutputs[hu] = 1.0 / (1.0 + Math.exp(-hiddenNet));
+		}
+		event.record("hidden", numHu, numInputs);
+		
+		event = new LayerForwardEvent();
+		event.begin();
+		double net = weights.dot(outputOffset, hiddenOutputs);
+		finalOutput = 1.0 / (1.0 + Math.exp(-net));
+		event.record("output", 1, numHu);
+	}
+	
+	// Returns the output of the output layer.
+	public double getFinalOutput()
+	{
+		return finalOutput;
+	}
+	
+	// Returns the number of weights in the network.
+	public int numWeights()
+	{
+		return weights.size();
+	}
+	
+	// Copies every weight (in the order of the neural network file) into the passed array.
+	public void copyWeights(double[] dest)
+	{
+		for (int i = 0; i < dest.length; i++)
+		{
+			dest[i] = weights.get(i);
+		}
+	}
+	
+	// Saves the network as a binary frozen network file. Returns true iff the operation was successful.
+	public boolean saveToFile(String fileName)
+	{
+		ModelIOEvent event = new ModelIOEvent();
+		event.begin();
+		boolean success = writeFile(fileName);
+		event.record("save", fileName, "binary", numHu, numWeights(), success);
+		
+		return success;
+	}
+	
+	// Writes the binary frozen network file.
+	private boolean writeFile(String fileName)
+	{
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName))))
+		{
+			out.writeInt(FILE_MAGIC);
+			out.writeInt(FILE_FORMAT_VERSION);
+			out.writeInt(numHu);
+			out.writeInt(0);
+			
+			for (int i = 0; i < weights.size(); i++)
+			{
+				out.writeDouble(weights.get(i));
+			}
+			
+			return true;
+		}
+		catch (IOException e)
+		{
+			System.out.printf("Error saving neural network to file \"%s\".%n", fileName);
+		}
+		return false;
+	}
+	
+	// Replaces the weights with those in the file. The file must have the same number of hidden units.
+	// Returns true iff the operation was successful.
+	public boolean loadFromFile(String fileName)
+	{
+		NeuralNetwork_Frozen loaded = load(fileName, weights instanceof OffHeapWeightStorage);
+		if (loaded == null || loaded.numHu != numHu) return false;
+		
+		weights = loaded.weights;
+		modelVersion = NeuralNetwork_AllConnected.nextModelVersion();
+		
+		return true;
+	}
+	
+	// Returns the number of hidden units.
+	public int numHiddenUnits()
+	{
+		return numHu;
+	}
+	
+	// Returns the weight storage (in the order of the neural network file).
+	public WeightStorage getWeights()
+	{
+		return weights;
+	}
+	
+	// Returns the version stamp of the current weights.
+	public long getModelVersion()
+	{
+		return modelVersion;
+	}
+	
+	// Returns an array of images (one for each hidden unit) that visualizes the link weights using greyscale values.
+	public Image[] visualizeWeights()
+	{
+		BufferedImage[] result = new BufferedImage[numHu];
+		
+		for (int hu = 0; hu < numHu; hu++)
+		{
+			result[hu] = visualizeWeights(hu);
+		}
+		
+		return result;
+	}
+	
+	// Returns an image that visualizes the link weights of one hidden unit using greyscale values.
+	// Different hidden units may be rendered on different threads at the same time.
+	public BufferedImage visualizeWeights(int hu)
+	{
+		BufferedImage bi = new BufferedImage(128, 120, BufferedImage.TYPE_INT_RGB);
+		// Pixels are written straight into the image's raster (row by row, one int per pixel).
+		int[] pixels = ((DataBufferInt)bi.getRaster().getDataBuffer()).getData();
+		int offset = hu * numInputs;
+		
+		double maxW = 0.0;
+		for (int i = 0; i < numInputs; i++)
+		{
+			maxW = Math.max(maxW, Math.abs(weights.get(offset + i)));
+		}
+		
+		for (int i = 0; i < 128; i++)
+		{
+			for (int j = 0; j < 120; j++)
+			{
+				double w = Math.abs(weights.get(offset + (i * 120) + j));
+				int intensity = (int)Math.round((w / maxW) * 255.0);
+				
+				pixels[(j * 128) + i] = (intensity << 16) | (intensity << 8) | intensity;
+			}
+		}
+		
+		return bi;
+	}
+}
\ No newline at end of file
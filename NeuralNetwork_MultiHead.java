@@ -0,0 +1,365 @@
+/* NeuralNetwork_MultiHead.java
+ * 
+ * Defines a neural network with a single shared hidden layer and several sigmoid output units ("heads"), one for each
+ * binary attribute of a face. The expensive input-to-hidden layer is computed once per image for all heads, and the
+ * head deltas are combined into a single hidden layer update, so each extra head only adds numHu weights.
+ * Heads whose target is unknown (NaN) are neither trained nor allowed to affect the hidden layer.
+ * As a NeuralNetwork, the network predicts (and trains) its first head.
+ * 
+ */
+
+import java.awt.*;
+import java.io.*;
+import java.util.*;
+
+public class NeuralNetwork_MultiHead implements NeuralNetwork
+{
+	// Marks the start of a multi-head network file ("NNMH").
+	public static final int FILE_MAGIC = 0x4E4E4D48;
+	public static final int FILE_FORMAT_VERSION = 1;
+	
+	private static final int numInputs = 128 * 120;
+	
+	// All weights: the input weights of hidden unit hu start at index hu * numInputs,
+	// and the weights of head h start at outputOffset + (h * numHu).
+	private WeightStorage weights;
+	private int numHu;
+	private int outputOffset;
+	private String[] headNames;
+	
+	// Unit outputs and deltas from the most recent calculation.
+	private double[] inputs = new double[numInputs];
+	private double[] hiddenOutputs;
+	private double[] hiddenDeltas;
+	private double[] outputs;
+	private double[] outputDeltas;
+	private double[] firstHeadTargets;
+	
+	// Applies plain gradient descent updates for backpropagateUpdate(double, double), reused for every image.
+	private SgdOptimizer sgdOptimizer = new SgdOptimizer(0.0);
+	
+	private long modelVersion = NeuralNetwork_AllConnected.nextModelVersion();
+	
+	// Constructor. Initializes the weights in the passed storage (which must hold numWeights(numHiddenUnits, headNames.length)
+	// weights) randomly, using the random number generator.
+	public NeuralNetwork_MultiHead(int numHiddenUnits, String[] headNames, WeightStorage weights, Random rand)
+	{
+		this(numHiddenUnits, headNames, weights);
+		
+		// Defines the range for random link weight initialization.
+		double epsilon = 0.01;
+		for (int i = 0; i < weights.size(); i++)
+		{
+			weights.set(i, (rand.nextDouble() * epsilon) - (epsilon / 2.0));
+		}
+	}
+	
+	// Constructor. The storage is used directly, not initialized.
+	private NeuralNetwork_MultiHead(int numHiddenUnits, String[] headNames, WeightStorage weights)
+	{
+		this.numHu = numHiddenUnits;
+		this.headNames = headNames.clone();
+		this.weights = weights;
+		this.outputOffset = numHiddenUnits * numInputs;
+		this.hiddenOutputs = new double[numHiddenUnits];
+		this.hiddenDeltas = new double[numHiddenUnits];
+		this.outputs = new double[headNames.length];
+		this.outputDeltas = new double[headNames.length];
+		this.firstHeadTargets = new double[headNames.length];
+	}
+	
+	// Returns the most hidden units a network with numHeads heads can have, since weights are indexed by int.
+	public static int maxHiddenUnits(int numHeads)
+	{
+		return Integer.MAX_VALUE / (numInputs + numHeads);
+	}
+	
+	// Returns the number of weights in a network with the passed number of hidden units and heads.
+	public static int numWeights(int numHiddenUnits, int numHeads)
+	{
+		return (numHiddenUnits * numInputs) + (numHeads * numHiddenUnits);
+	}
+	
+	// Update the neural network to store the calculated output of each unit.
+	public void calculateOutputs(FaceImage face)
+	{
+		LayerForwardEvent event = new LayerForwardEvent();
+		event.begin();
+		face.getNormalizedValues(inputs);
+		event.record("input", numInputs, 1);
+		
+		event = new LayerForwardEvent();
+		event.begin();
+		for (int hu = 0; hu < numHu; hu++)
+		{
+			double net = weights.dot(hu * numInputs, inputs);
+			hiddenOutputs[hu] = 1.0 / (1.0 + Math.exp(-net));
+		}
+		event.record("hidden", numHu, numInputs);
+		
+		event = new LayerForwardEvent();
+		event.begin();
+		for (int h = 0; h < outputs.length; h++)
+		{
+			double net = weights.dot(outputOffset + (h * numHu), hiddenOutputs);
+			outputs[h] = 1.0 / (1.0 + Math.exp(-net));
+		}
+		event.record("output", outputs.length, numHu);
+	}
+	
+	// Returns the output of the first head.
+	public double getFinalOutput()
+	{
+		return outputs[0];
+	}
+	
+	// Returns the output of the head.
+	public double getOutput(int head)
+	{
+		return outputs[head];
+	}
+	
+	// Returns the number of heads.
+	public int numHeads()
+	{
+		return headNames.length;
+	}
+	
+	// Returns the attribute name of the head.
+	public String getHeadName(int head)
+	{
+		return headNames[head];
+	}
+	
+	// Trains the first head only. Assumes that calculateOutputs has already been used.
+	public void backpropagateUpdate(double trueOutput, double learningRate)
+	{
+		sgdOptimizer.setLearningRate(learningRate);
+		backpropagateUpdate(firstHeadTarget(trueOutput), sgdOptimizer);
+	}
+	
+	// Trains the first head only. Assumes that calculateOutputs has already been used.
+	public void backpropagateUpdate(double trueOutput, Optimizer optimizer)
+	{
+		backpropagateUpdate(firstHeadTarget(trueOutput), optimizer);
+	}
+	
+	// Returns targets that train only the first head.
+	private double[] firstHeadTarget(double trueOutput)
+	{
+		Arrays.fill(firstHeadTargets, Double.NaN);
+		firstHeadTargets[0] = trueOutput;
+		return firstHeadTargets;
+	}
+	
+	// Update weights in the neural network based on the current output values and the target of every head (NaN where unknown),
+	// using backpropagation and the optimizer. Assumes that calculateOutputs has already been used.
+	// An image with no known target leaves the weights (and the optimizer's state) unchanged.
+	public void backpropagateUpdate(double[] trueOutputs, Optimizer optimizer)
+	{
+		boolean anyTarget = false;
+		for (int h = 0; h < outputs.length; h++)
+		{
+			if (!Double.isNaN(trueOutputs[h])) anyTarget = true;
+		}
+		if (!anyTarget) return;
+		
+		// Calculate deltas for the heads, and combine them into one delta per hidden unit.
+		BackpropEvent event = new BackpropEvent();
+		event.begin();
+		for (int h = 0; h < outputs.length; h++)
+		{
+			outputDeltas[h] = Double.isNaN(trueOutputs[h]) ? 0.0 : outputs[h] * (1.0 - outputs[h]) * (trueOutputs[h] - outputs[h]);
+		}
+		event.record("output", "delta", outputs.length, numHu);
+		
+		event = new BackpropEvent();
+		event.begin();
+		for (int hu = 0; hu < numHu; hu++)
+		{
+			double sum = 0.0;
+			for (int h = 0; h < outputs.length; h++)
+			{
+				sum += weights.get(outputOffset + (h * numHu) + hu) * outputDeltas[h];
+			}
+			hiddenDeltas[hu] = hiddenOutputs[hu] * (1.0 - hiddenOutputs[hu]) * sum;
+		}
+		event.record("hidden", "delta", numHu, numInputs);
+		
+		// Update weights for the heads and the hidden units. Deltas are negative gradients of the error.
+		event = new BackpropEvent();
+		event.begin();
+		optimizer.beginStep();
+		for (int h = 0; h < outputs.length; h++)
+		{
+			if (Double.isNaN(trueOutputs[h])) continue;
+			for (int hu = 0; hu < numHu; hu++)
+			{
+				int index = outputOffset + (h * numHu) + hu;
+				weights.set(index, weights.get(index) + optimizer.step(index, -outputDeltas[h] * hiddenOutputs[hu]));
+			}
+		}
+		event.record("output", "update", outputs.length, numHu);
+		
+		event = new BackpropEvent();
+		event.begin();
+		for (int hu = 0; hu < numHu; hu++)
+		{
+			int offset = hu * numInputs;
+			for (int i = 0; i < numInputs; i++)
+			{
+				weights.set(offset + i, weights.get(offset + i) + optimizer.step(offset + i, -hiddenDeltas[hu] * inputs[i]));
+			}
+		}
+		event.record("hidden", "update", numHu, numInputs);
+		
+		modelVersion = NeuralNetwork_AllConnected.nextModelVersion();
+	}
+	
+	// Returns the number of weights in the network.
+	public int numWeights()
+	{
+		return weights.size();
+	}
+	
+	// Copies every weight (in the order of the network file) into the passed array.
+	public void copyWeights(double[] dest)
+	{
+		for (int i = 0; i < dest.length; i++)
+		{
+			dest[i] = weights.get(i);
+		}
+	}
+	
+	// Replaces every weight with those in the passed array (in the order of the network file).
+	public void setWeights(double[] src)
+	{
+		for (int i = 0; i < src.length; i++)
+		{
+			weights.set(i, src[i]);
+		}
+		
+		modelVersion = NeuralNetwork_AllConnected.nextModelVersion();
+	}
+	
+	// Saves the network as a binary multi-head network file. Returns true iff the operation was successful.
+	public boolean saveToFile(String fileName)
+	{
+		ModelIOEvent event = new ModelIOEvent();
+		event.begin();
+		boolean success = writeFile(fileName);
+		event.record("save", fileName, "multihead", numHu, numWeights(), success);
+		
+		return success;
+	}
+	
+	// Writes the binary multi-head network file: the header, the head names, and then the weights.
+	private boolean writeFile(String fileName)
+	{
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName))))
+		{
+			out.writeInt(FILE_MAGIC);
+			out.writeInt(FILE_FORMAT_VERSION);
+			out.writeInt(numHu);
+			out.writeInt(headNames.length);
+			for (int h = 0; h < headNames.length; h++)
+			{
+				out.writeUTF(headNames[h]);
+			}
+			
+			for (int i = 0; i < weights.size(); i++)
+			{
+				out.writeDouble(weights.get(i));
+			}
+			
+			return true;
+		}
+		catch (IOException e)
+		{
+			System.out.printf("Error saving neural network to file \"%s\".%n", fileName);
+		}
+		return false;
+	}
+	
+	// Replaces the weights with those in the file. The file must have the same number of hidden units and heads.
+	// Returns true iff the operation was successful.
+	public boolean loadFromFile(String fileName)
+	{
+		NeuralNetwork_MultiHead loaded = load(fileName, false);
+		if (loaded == null || loaded.numHu != numHu || loaded.numHeads() != numHeads()) return false;
+		
+		for (int i = 0; i < weights.size(); i++)
+		{
+			weights.set(i, loaded.weights.get(i));
+		}
+		headNames = loaded.headNames;
+		modelVersion = NeuralNetwork_AllConnected.nextModelVersion();
+		
+		return true;
+	}
+	
+	// Loads a multi-head network file. Returns null if the file could not be loaded.
+	public static NeuralNetwork_MultiHead load(String fileName, boolean offHeap)
+	{
+		ModelIOEvent event = new ModelIOEvent();
+		event.begin();
+		NeuralNetwork_MultiHead result = null;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName))))
+		{
+			if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_FORMAT_VERSION)
+			{
+				throw new IOException("Unsupported multi-head network file.");
+			}
+			int numHu = in.readInt();
+			int numHeads = in.readInt();
+			// Check the counts before anything is allocated from them.
+			if (numHeads < 1 || numHeads > Integer.MAX_VALUE - numInputs)
+			{
+				throw new IOException("Invalid number of heads " + numHeads + ".");
+			}
+			if (numHu < 1 || numHu > maxHiddenUnits(numHeads))
+			{
+				throw new IOException("Invalid number of hidden units " + numHu + ".");
+			}
+			String[] headNames = new String[numHeads];
+			for (int h = 0; h < headNames.length; h++)
+			{
+				headNames[h] = in.readUTF();
+			}
+			
+			int numWeights = numWeights(numHu, headNames.length);
+			WeightStorage weights = offHeap ? new OffHeapWeightStorage(numWeights) : new HeapWeightStorage(numWeights);
+			for (int i = 0; i < numWeights; i++)
+			{
+				weights.set(i, in.readDouble());
+			}
+			
+			result = new NeuralNetwork_MultiHead(numHu, headNames, weights);
+		}
+		catch (IOException e)
+		{
+			System.out.printf("Error loading neural network from file \"%s\".%n", fileName);
+		}
+		
+		event.record("load", fileName, "multihead", (result == null) ? 0 : result.numHu, (result == null) ? 0 : result.numWeights(), result != null);
+		return result;
+	}
+	
+	// Returns the number of hidden units.
+	public int numHiddenUnits()
+	{
+		return numHu;
+	}
+	
+	// Returns the version stamp of the current weights.
+	public long getModelVersion()
+	{
+		return modelVersion;
+	}
+	
+	// Returns an array of images (one for each hidden unit) that visualizes the link weights using greyscale values.
+	public Image[] visualizeWeights()
+	{
+		return new NeuralNetwork_Frozen(numHu, weights).visualizeWeights();
+	}
+}
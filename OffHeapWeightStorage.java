@@ -0,0 +1,161 @@
+/* OffHeapWeightStorage.java
+ * 
+ * Stores neural network weights outside of the Java heap, so the garbage collector never has to scan them.
+ * The weights are either held in direct memory, or mapped straight from a file (which lets several processes
+ * share one copy of read-only weights through the operating system's page cache).
+ * Large weight arrays are split into chunks, since a single buffer is limited to 2GB.
+ * 
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+public class OffHeapWeightStorage implements WeightStorage
+{
+	// Each chunk holds 2^27 weights (1GB).
+	private static final int chunkShift = 27;
+	private static final int chunkSize = 1 << chunkShift;
+	private static final int chunkMask = chunkSize - 1;
+	
+	private DoubleBuffer[] chunks;
+	private int size;
+	private boolean readOnly;
+	
+	// Constructor. Allocates the weights in direct memory. All weights start at zero.
+	public OffHeapWeightStorage(int size)
+	{
+		this.size = size;
+		this.readOnly = false;
+		
+		chunks = new DoubleBuffer[numChunks(size)];
+		for (int c = 0; c < chunks.length; c++)
+		{
+			int chunkLength = Math.min(chunkSize, size - (c << chunkShift));
+			chunks[c] = ByteBuffer.allocateDirect(chunkLength * 8).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+		}
+	}
+	
+	// Private constructor for mapped storage.
+	private OffHeapWeightStorage(DoubleBuffer[] chunks, int size, boolean readOnly)
+	{
+		this.chunks = chunks;
+		this.size = size;
+		this.readOnly = readOnly;
+	}
+	
+	// Maps size weights, stored from the byte position in the file with the passed byte order, into memory.
+	// Changes to writable storage are written back to the file.
+	public static OffHeapWeightStorage map(String fileName, long position, int size, ByteOrder order, boolean writable)
+		throws IOException
+	{
+		DoubleBuffer[] chunks = new DoubleBuffer[numChunks(size)];
+		
+		StandardOpenOption[] options = writable
+			? new StandardOpenOption[] { StandardOpenOption.READ, StandardOpenOption.WRITE }
+			: new StandardOpenOption[] { StandardOpenOption.READ };
+		FileChannel.MapMode mode = writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+		
+		// The mapping stays valid after the channel is closed.
+		try (FileChannel channel = FileChannel.open(Paths.get(fileName), options))
+		{
+			if (channel.size() < position + (8L * size))
+			{
+				throw new IOException("File is too short to hold the weights.");
+			}
+			
+			for (int c = 0; c < chunks.length; c++)
+			{
+				int chunkLength = Math.min(chunkSize, size - (c << chunkShift));
+				long chunkPosition = position + (8L * ((long)c << chunkShift));
+				chunks[c] = channel.map(mode, chunkPosition, 8L * chunkLength).order(order).asDoubleBuffer();
+			}
+		}
+		
+		return new OffHeapWeightStorage(chunks, size, !writable);
+	}
+	
+	// Returns the number of chunks needed to hold size weights.
+	private static int numChunks(int size)
+	{
+		return Math.max(1, (int)(((long)size + chunkSize - 1) >> chunkShift));
+	}
+	
+	// Returns the number of weights.
+	public int size()
+	{
+		return size;
+	}
+	
+	// Returns the weight at the passed index.
+	public double get(int index)
+	{
+		return chunks[index >>> chunkShift].get(index & chunkMask);
+	}
+	
+	// Sets the weight at the passed index.
+	public void set(int index, double value)
+	{
+		chunks[index >>> chunkShift].put(index & chunkMask, value);
+	}
+	
+	// Returns the dot product of the weights starting at offset with the values.
+	public double dot(int offset, double[] values)
+	{
+		double result = 0.0;
+		
+		int i = 0;
+		while (i < values.length)
+		{
+			// Process the run of values that lies within one chunk.
+			DoubleBuffer chunk = chunks[(offset + i) >>> chunkShift];
+			int chunkIndex = (offset + i) & chunkMask;
+			int runLength = Math.min(values.length - i, chunkSize - chunkIndex);
+			
+			for (int k = 0; k < runLength; k++)
+			{
+				result += chunk.get(chunkIndex + k) * values[i + k];
+			}
+			i += runLength;
+		}
+		
+		return result;
+	}
+	
+	// Returns the dot products of consecutive rows of weights with the values.
+	public void dotRows(int offset, double[] values, double[] dest)
+	{
+		for (int r = 0; r < dest.length; r++)
+		{
+			dest[r] = dot(offset + (r * values.length), values);
+		}
+	}
+	
+	// Adds the scaled values to the weights starting at offset.
+	public void addScaled(int offset, double[] values, double scale)
+	{
+		int i = 0;
+		while (i < values.length)
+		{
+			// Process the run of values that lies within one chunk.
+			DoubleBuffer chunk = chunks[(offset + i) >>> chunkShift];
+			int chunkIndex = (offset + i) & chunkMask;
+			int runLength = Math.min(values.length - i, chunkSize - chunkIndex);
+			
+			for (int k = 0; k < runLength; k++)
+			{
+				chunk.put(chunkIndex + k, chunk.get(chunkIndex + k) + (scale * values[i + k]));
+			}
+			i += runLength;
+		}
+	}
+	
+	// Returns true iff the weights were mapped read-only.
+	public boolean isReadOnly()
+	{
+		return readOnly;
+	}
+}
\ No newline at end of file
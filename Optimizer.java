@@ -0,0 +1,27 @@
+/* Optimizer.java
+ * 
+ * Defines the interface for a weight update rule used by backpropagation.
+ * Optimizers keep any state they need (e.g. momentum) in flat arrays, indexed like the network's weights.
+ * 
+ */
+
+public interface Optimizer
+{
+	// Called once before the weights are updated for each training image.
+	void beginStep();
+	
+	// Returns the change to make to the weight at the passed index, given the gradient of the error with respect to it.
+	double step(int index, double gradient);
+	
+	// Returns/sets the learning rate.
+	double getLearningRate();
+	void setLearningRate(double learningRate);
+	
+	// Returns the name of the update rule ("sgd", "momentum", "nesterov" or "adam").
+	String getName();
+	// Returns the arrays that hold the optimizer's state (parallel to the weights). Used to save and restore the state.
+	double[][] getState();
+	// Returns/sets the number of steps taken. Used to save and restore the state.
+	long getNumSteps();
+	void setNumSteps(long numSteps);
+}
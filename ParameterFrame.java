@@ -0,0 +1,255 @@
+/* ParameterFrame.java
+ * 
+ * Reads and writes the binary frames exchanged between the parameter server and distributed training workers.
+ * Every frame starts with a one byte type. Weights are sent as doubles, so every worker trains the server's exact model.
+ * Gradients are sent as floats, either densely or (with top-k sparsification) as index/value pairs of the largest ones.
+ * 
+ * CONFIG   (server to worker)  workerIndex, numWorkers, rounds, batchSize, topK, staleness, seed
+ * WEIGHTS  (server to worker)  version, count, count doubles
+ * DENSE    (worker to server)  numImages, baseVersion, count, count floats
+ * SPARSE   (worker to server)  numImages, baseVersion, count, k, k indices, k floats
+ * DONE     (worker to server)  loss
+ * 
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+public class ParameterFrame
+{
+	public static final byte CONFIG = 'C';
+	public static final byte WEIGHTS = 'W';
+	public static final byte DENSE = 'G';
+	public static final byte SPARSE = 'S';
+	public static final byte DONE = 'D';
+	
+	// The largest number of values copied through the scratch buffer at once.
+	private static final int chunkValues = 8192;
+	
+	public byte type;
+	
+	// CONFIG fields.
+	public int workerIndex;
+	public int numWorkers;
+	public int rounds;
+	public int batchSize;
+	public double topK;
+	public int staleness;
+	public long seed;
+	
+	// WEIGHTS and gradient fields. The model version is the number of updates the server had applied.
+	public long version;
+	public int numImages;
+	public double[] values;
+	
+	// The loss reported with DONE.
+	public double loss;
+	
+	private byte[] scratch = new byte[chunkValues * 8];
+	private int[] indices = new int[0];
+	
+	// Writes the training settings sent to a newly connected worker.
+	public void writeConfig(DataOutputStream out, int workerIndex, int numWorkers, int rounds, int batchSize, double topK, int staleness, long seed) throws IOException
+	{
+		out.writeByte(CONFIG);
+		out.writeInt(workerIndex);
+		out.writeInt(numWorkers);
+		out.writeInt(rounds);
+		out.writeInt(batchSize);
+		out.writeDouble(topK);
+		out.writeInt(staleness);
+		out.writeLong(seed);
+		out.flush();
+	}
+	
+	// Writes the model weights.
+	public void writeWeights(DataOutputStream out, long version, double[] weights) throws IOException
+	{
+		out.writeByte(WEIGHTS);
+		out.writeLong(version);
+		out.writeInt(weights.length);
+		ByteBuffer buffer = ByteBuffer.wrap(scratch);
+		for (int start = 0; start < weights.length; start += chunkValues)
+		{
+			int count = Math.min(chunkValues, weights.length - start);
+			buffer.clear();
+			buffer.asDoubleBuffer().put(weights, start, count);
+			out.write(scratch, 0, count * 8);
+		}
+		out.flush();
+	}
+	
+	// Writes every gradient.
+	public void writeDense(DataOutputStream out, int numImages, long baseVersion, double[] gradients) throws IOException
+	{
+		out.writeByte(DENSE);
+		out.writeInt(numImages);
+		out.writeLong(baseVersion);
+		out.writeInt(gradients.length);
+		ByteBuffer buffer = ByteBuffer.wrap(scratch);
+		for (int start = 0; start < gradients.length; start += chunkValues)
+		{
+			int count = Math.min(chunkValues, gradients.length - start);
+			buffer.clear();
+			for (int i = 0; i < count; i++)
+			{
+				buffer.putFloat((float)gradients[start + i]);
+			}
+			out.write(scratch, 0, count * 4);
+		}
+		out.flush();
+	}
+	
+	// Writes the k gradients at the passed indices. The other gradients are zero.
+	public void writeSparse(DataOutputStream out, int numImages, long baseVersion, double[] gradients, int[] indices, int k) throws IOException
+	{
+		out.writeByte(SPARSE);
+		out.writeInt(numImages);
+		out.writeLong(baseVersion);
+		out.writeInt(gradients.length);
+		out.writeInt(k);
+		ByteBuffer buffer = ByteBuffer.wrap(scratch);
+		for (int start = 0; start < k; start += chunkValues)
+		{
+			int count = Math.min(chunkValues, k - start);
+			buffer.clear();
+			for (int i = 0; i < count; i++)
+			{
+				buffer.putInt(indices[start + i]);
+			}
+			out.write(scratch, 0, count * 4);
+		}
+		for (int start = 0; start < k; start += chunkValues)
+		{
+			int count = Math.min(chunkValues, k - start);
+			buffer.clear();
+			for (int i = 0; i < count; i++)
+			{
+				buffer.putFloat((float)gradients[indices[start + i]]);
+			}
+			out.write(scratch, 0, count * 4);
+		}
+		out.flush();
+	}
+	
+	// Writes the end of a worker's training, with its mean loss over the last round.
+	public void writeDone(DataOutputStream out, double loss) throws IOException
+	{
+		out.writeByte(DONE);
+		out.writeDouble(loss);
+		out.flush();
+	}
+	
+	// Reads the next frame into this object. The values array is reused when it has the right length.
+	// Gradients (dense or sparse) are read into values densely.
+	public void read(DataInputStream in) throws IOException
+	{
+		read(in, -1);
+	}
+	
+	// Reads the next frame into this object. If expectedCount is not negative, frames with values must have that many.
+	public void read(DataInputStream in, int expectedCount) throws IOException
+	{
+		type = in.readByte();
+		ByteBuffer buffer = ByteBuffer.wrap(scratch);
+		
+		if (type == CONFIG)
+		{
+			workerIndex = in.readInt();
+			numWorkers = in.readInt();
+			rounds = in.readInt();
+			batchSize = in.readInt();
+			topK = in.readDouble();
+			staleness = in.readInt();
+			seed = in.readLong();
+		}
+		else if (type == WEIGHTS)
+		{
+			version = in.readLong();
+			ensureValues(in.readInt(), expectedCount);
+			for (int start = 0; start < values.length; start += chunkValues)
+			{
+				int count = Math.min(chunkValues, values.length - start);
+				in.readFully(scratch, 0, count * 8);
+				buffer.clear();
+				buffer.asDoubleBuffer().get(values, start, count);
+			}
+		}
+		else if (type == DENSE)
+		{
+			numImages = in.readInt();
+			version = in.readLong();
+			ensureValues(in.readInt(), expectedCount);
+			for (int start = 0; start < values.length; start += chunkValues)
+			{
+				int count = Math.min(chunkValues, values.length - start);
+				in.readFully(scratch, 0, count * 4);
+				buffer.clear();
+				for (int i = 0; i < count; i++)
+				{
+					values[start + i] = buffer.getFloat();
+				}
+			}
+		}
+		else if (type == SPARSE)
+		{
+			numImages = in.readInt();
+			version = in.readLong();
+			ensureValues(in.readInt(), expectedCount);
+			java.util.Arrays.fill(values, 0.0);
+			
+			int k = in.readInt();
+			if (k < 0 || k > values.length)
+			{
+				throw new IOException("Invalid number of sparse gradients " + k + ".");
+			}
+			if (indices.length < k) indices = new int[k];
+			for (int start = 0; start < k; start += chunkValues)
+			{
+				int count = Math.min(chunkValues, k - start);
+				in.readFully(scratch, 0, count * 4);
+				buffer.clear();
+				buffer.asIntBuffer().get(indices, start, count);
+			}
+			for (int i = 0; i < k; i++)
+			{
+				if (indices[i] < 0 || indices[i] >= values.length)
+				{
+					throw new IOException("Sparse gradient index " + indices[i] + " is out of range.");
+				}
+			}
+			for (int start = 0; start < k; start += chunkValues)
+			{
+				int count = Math.min(chunkValues, k - start);
+				in.readFully(scratch, 0, count * 4);
+				buffer.clear();
+				for (int i = 0; i < count; i++)
+				{
+					values[indices[start + i]] = buffer.getFloat();
+				}
+			}
+		}
+		else if (type == DONE)
+		{
+			loss = in.readDouble();
+		}
+		else
+		{
+			throw new IOException("Unknown parameter frame type " + type + ".");
+		}
+	}
+	
+	// Makes sure the values array has the passed length, after checking it against the expected count (if not negative).
+	private void ensureValues(int count, int expectedCount) throws IOException
+	{
+		if (count < 0)
+		{
+			throw new IOException("Invalid number of parameter frame values " + count + ".");
+		}
+		if (expectedCount >= 0 && count != expectedCount)
+		{
+			throw new IOException("Parameter frame has " + count + " values, expected " + expectedCount + ".");
+		}
+		if (values == null || values.length != count) values = new double[count];
+	}
+}
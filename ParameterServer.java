@@ -0,0 +1,382 @@
+/* ParameterServer.java
+ * 
+ * Holds the model weights for distributed data-parallel training, and applies the gradients that the worker processes
+ * send over TCP. Each worker trains on its own shard of the images and, after every batch, sends the batch's gradient
+ * and receives the current weights back.
+ * 
+ * In synchronous mode (staleness < 0), the server waits for a gradient from every active worker, applies their
+ * average as one update, and then releases all of them with the same weights.
+ * In bounded-staleness mode, each gradient is applied as soon as it arrives, but a worker that is more than staleness
+ * batches ahead of the slowest active worker waits for it to catch up, so no gradient is computed on weights more than
+ * about staleness * numWorkers updates old.
+ * 
+ */
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+public class ParameterServer
+{
+	// How long to wait for the next worker to connect, and how often to check on launched worker processes meanwhile.
+	public static final int ACCEPT_TIMEOUT_MILLIS = 300000;
+	private static final int ACCEPT_POLL_MILLIS = 1000;
+	
+	private double[] weights;
+	private Optimizer optimizer;
+	
+	private int numWorkers;
+	private int rounds;
+	private int batchSize;
+	private double topK;
+	private int staleness;
+	private long seed;
+	
+	// The number of updates applied, which is the model version sent to the workers.
+	private long version = 0;
+	
+	// Synchronous mode: the summed gradients of the current step and the number of workers and images they came from.
+	private double[] pendingGradients;
+	private int pendingWorkers = 0;
+	private int pendingImages = 0;
+	
+	// The number of batches each worker has sent, and whether it is still training.
+	private long[] clocks;
+	private boolean[] active;
+	private int numActive = 0;
+	
+	// Statistics.
+	private long numFrames = 0;
+	private long numSparseFrames = 0;
+	private long bytesReceived = 0;
+	private long totalStaleness = 0;
+	private long maxStaleness = 0;
+	private double[] workerLosses;
+	
+	// Constructor. The initial weights are copied. If optimizer is null, plain gradient descent with learningRate is used.
+	public ParameterServer(double[] initialWeights, Optimizer optimizer, double learningRate, int numWorkers, int rounds, int batchSize, double topK, int staleness, long seed)
+	{
+		this.weights = initialWeights.clone();
+		this.optimizer = (optimizer != null) ? optimizer : new SgdOptimizer(learningRate);
+		this.numWorkers = numWorkers;
+		this.rounds = rounds;
+		this.batchSize = batchSize;
+		this.topK = topK;
+		this.staleness = staleness;
+		this.seed = seed;
+		
+		pendingGradients = new double[weights.length];
+		clocks = new long[numWorkers];
+		active = new boolean[numWorkers];
+		workerLosses = new double[numWorkers];
+	}
+	
+	// Accepts numWorkers connections on the server socket, then serves each on its own thread (so that every worker starts
+	// from the same weights), and returns once every worker has finished. Returns true iff every worker finished successfully.
+	// Fails without training if a worker does not connect within ACCEPT_TIMEOUT_MILLIS, or if one of the launched worker
+	// processes (which may be empty) exits while the workers are connecting.
+	public boolean serve(ServerSocket serverSocket, List<Process> launched)
+	{
+		Thread[] threads = new Thread[numWorkers];
+		final Socket[] sockets = new Socket[numWorkers];
+		final boolean[] success = new boolean[numWorkers];
+		
+		try
+		{
+			serverSocket.setSoTimeout(ACCEPT_POLL_MILLIS);
+			for (int w = 0; w < numWorkers; w++)
+			{
+				sockets[w] = accept(serverSocket, launched);
+				final Socket socket = sockets[w];
+				final int workerIndex = w;
+				socket.setTcpNoDelay(true);
+				System.out.printf("Worker %d connected from %s.%n", workerIndex, socket.getRemoteSocketAddress());
+				
+				threads[w] = new Thread(new Runnable()
+				{
+					public void run()
+					{
+						success[workerIndex] = serveWorker(socket, workerIndex);
+					}
+				}, "ParameterServer-" + w);
+			}
+		}
+		catch (IOException e)
+		{
+			System.out.println("Parameter server failed to accept a worker: " + e);
+			for (Socket socket : sockets)
+			{
+				try
+				{
+					if (socket != null) socket.close();
+				}
+				catch (IOException closeException)
+				{
+					// The connection is being abandoned anyway.
+				}
+			}
+			return false;
+		}
+		
+		synchronized (this)
+		{
+			for (int w = 0; w < numWorkers; w++)
+			{
+				active[w] = true;
+			}
+			numActive = numWorkers;
+		}
+		for (int w = 0; w < numWorkers; w++)
+		{
+			threads[w].start();
+		}
+		
+		boolean result = true;
+		for (int w = 0; w < numWorkers; w++)
+		{
+			try
+			{
+				if (threads[w] != null) threads[w].join();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			result = result && success[w];
+		}
+		
+		return result;
+	}
+	
+	// Accepts the next connection on the server socket (which must have a timeout of ACCEPT_POLL_MILLIS), checking that
+	// the launched worker processes are still running while it waits.
+	private static Socket accept(ServerSocket serverSocket, List<Process> launched) throws IOException
+	{
+		long deadline = System.nanoTime() + (ACCEPT_TIMEOUT_MILLIS * 1000000L);
+		while (true)
+		{
+			try
+			{
+				return serverSocket.accept();
+			}
+			catch (SocketTimeoutException e)
+			{
+				for (Process process : launched)
+				{
+					if (!process.isAlive())
+					{
+						throw new IOException("a worker process exited with code " + process.exitValue() + " before every worker connected.");
+					}
+				}
+				if (System.nanoTime() > deadline)
+				{
+					throw new IOException("no worker connected within " + (ACCEPT_TIMEOUT_MILLIS / 1000) + " seconds.");
+				}
+			}
+		}
+	}
+	
+	// Exchanges frames with one worker until it is done. Returns true iff the worker finished successfully.
+	private boolean serveWorker(Socket socket, int workerIndex)
+	{
+		ParameterFrame frame = new ParameterFrame();
+		double[] snapshot = new double[weights.length];
+		
+		try (Socket s = socket)
+		{
+			CountingInputStream counter = new CountingInputStream(new BufferedInputStream(s.getInputStream(), 1 << 16));
+			DataInputStream in = new DataInputStream(counter);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), 1 << 16));
+			
+			frame.writeConfig(out, workerIndex, numWorkers, rounds, batchSize, topK, staleness, seed);
+			frame.writeWeights(out, snapshot(snapshot), snapshot);
+			
+			while (true)
+			{
+				// Gradient frames must have one value per weight.
+				frame.read(in, weights.length);
+				if (frame.type == ParameterFrame.DONE)
+				{
+					workerLosses[workerIndex] = frame.loss;
+					break;
+				}
+				if (frame.type != ParameterFrame.DENSE && frame.type != ParameterFrame.SPARSE)
+				{
+					throw new IOException("Unexpected parameter frame type " + frame.type + ".");
+				}
+				
+				long newVersion = push(workerIndex, frame, counter.takeCount(), snapshot);
+				frame.writeWeights(out, newVersion, snapshot);
+			}
+			
+			return true;
+		}
+		catch (IOException | InterruptedException e)
+		{
+			System.out.printf("Worker %d failed: %s%n", workerIndex, e);
+			return false;
+		}
+		finally
+		{
+			// Even a worker that fails unexpectedly must not leave the others waiting for it.
+			finish(workerIndex);
+		}
+	}
+	
+	// Copies the current weights into the array, and returns their version.
+	private synchronized long snapshot(double[] dest)
+	{
+		System.arraycopy(weights, 0, dest, 0, weights.length);
+		return version;
+	}
+	
+	// Applies (or, in synchronous mode, collects) the worker's gradient, waits as the mode requires,
+	// and copies the resulting weights into the snapshot. Returns their version.
+	private synchronized long push(int workerIndex, ParameterFrame frame, long bytes, double[] snapshot) throws InterruptedException
+	{
+		numFrames++;
+		if (frame.type == ParameterFrame.SPARSE) numSparseFrames++;
+		bytesReceived += bytes;
+		
+		long frameStaleness = version - frame.version;
+		totalStaleness += frameStaleness;
+		maxStaleness = Math.max(maxStaleness, frameStaleness);
+		clocks[workerIndex]++;
+		
+		if (staleness < 0)
+		{
+			double[] gradients = frame.values;
+			for (int i = 0; i < gradients.length; i++)
+			{
+				pendingGradients[i] += gradients[i];
+			}
+			pendingWorkers++;
+			pendingImages += frame.numImages;
+			
+			long step = version;
+			if (pendingWorkers >= numActive)
+			{
+				applyPending();
+			}
+			while (version == step)
+			{
+				wait();
+			}
+		}
+		else
+		{
+			apply(frame.values, frame.numImages);
+			while (active[workerIndex] && clocks[workerIndex] - slowestClock() > staleness)
+			{
+				wait();
+			}
+		}
+		
+		System.arraycopy(weights, 0, snapshot, 0, weights.length);
+		return version;
+	}
+	
+	// Marks the worker as no longer training, so the others do not wait for it.
+	private synchronized void finish(int workerIndex)
+	{
+		if (!active[workerIndex]) return;
+		active[workerIndex] = false;
+		numActive--;
+		
+		if (staleness < 0 && pendingWorkers > 0 && pendingWorkers >= numActive)
+		{
+			applyPending();
+		}
+		notifyAll();
+	}
+	
+	// Applies the summed gradients of the synchronous step.
+	private void applyPending()
+	{
+		apply(pendingGradients, pendingImages);
+		Arrays.fill(pendingGradients, 0.0);
+		pendingWorkers = 0;
+		pendingImages = 0;
+	}
+	
+	// Applies the mean of the summed gradients of numImages images as one update, and notifies waiting workers.
+	private void apply(double[] gradients, int numImages)
+	{
+		double scale = 1.0 / Math.max(1, numImages);
+		optimizer.beginStep();
+		for (int i = 0; i < weights.length; i++)
+		{
+			weights[i] += optimizer.step(i, gradients[i] * scale);
+		}
+		version++;
+		notifyAll();
+	}
+	
+	// Returns the lowest clock of the active workers.
+	private long slowestClock()
+	{
+		long result = Long.MAX_VALUE;
+		for (int w = 0; w < numWorkers; w++)
+		{
+			if (active[w]) result = Math.min(result, clocks[w]);
+		}
+		return result;
+	}
+	
+	// Returns true iff the server waits for every worker's gradient before each update.
+	public boolean isSynchronous()
+	{
+		return staleness < 0;
+	}
+	
+	// Copies the final weights into the array.
+	public synchronized void copyWeights(double[] dest)
+	{
+		System.arraycopy(weights, 0, dest, 0, weights.length);
+	}
+	
+	// Prints the number of updates and frames, the bytes received, the gradient staleness and the workers' final losses.
+	public synchronized void printSummary()
+	{
+		System.out.printf("%d updates from %d gradient frames (%d sparse), %.1f MB received.%n",
+			version, numFrames, numSparseFrames, bytesReceived / (1024.0 * 1024.0));
+		System.out.printf("Gradient staleness: mean %.2f, max %d updates.%n",
+			(numFrames == 0) ? 0.0 : totalStaleness / (double)numFrames, maxStaleness);
+		for (int w = 0; w < numWorkers; w++)
+		{
+			System.out.printf("Worker %d final round loss: %.4f%n", w, workerLosses[w]);
+		}
+	}
+	
+	// Counts the bytes read through it, and resets the count each time it is read.
+	private static class CountingInputStream extends FilterInputStream
+	{
+		private long count = 0;
+		
+		public CountingInputStream(InputStream in)
+		{
+			super(in);
+		}
+		
+		public int read() throws IOException
+		{
+			int result = super.read();
+			if (result >= 0) count++;
+			return result;
+		}
+		
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			int result = super.read(b, off, len);
+			if (result > 0) count += result;
+			return result;
+		}
+		
+		public long takeCount()
+		{
+			long result = count;
+			count = 0;
+			return result;
+		}
+	}
+}
@@ -0,0 +1,93 @@
+/* PixelCache.java
+ * 
+ * Holds the pixel data of lazily loaded face images.
+ * A lazy image keeps only its file and name, and its pixels are read from the file the first time they are needed.
+ * The cache keeps the pixels of up to a fixed number of images, evicting the least recently used ones, so memory use
+ * does not grow with the number of images loaded. The cache is shared by all threads.
+ * 
+ */
+
+import java.io.*;
+import java.util.*;
+
+public class PixelCache
+{
+	// Maps image file paths to pixel data, in least-recently-used order.
+	private LinkedHashMap<String, int[][]> entries;
+	private final int capacity;
+	
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	private long loadNanos = 0;
+	
+	// Constructor. Capacity is the maximum number of images whose pixels are kept.
+	public PixelCache(int capacity)
+	{
+		this.capacity = Math.max(capacity, 1);
+		
+		entries = new LinkedHashMap<String, int[][]>(16, 0.75f, true)
+		{
+			protected boolean removeEldestEntry(Map.Entry<String, int[][]> eldest)
+			{
+				boolean evict = size() > PixelCache.this.capacity;
+				if (evict) evictions++;
+				return evict;
+			}
+		};
+	}
+	
+	// Returns the pixels of the image file, reading them only if they are not cached.
+	// The file is read outside of the lock, so threads reading different files do not wait for each other.
+	public int[][] getPixels(File file, int width, int height)
+	{
+		String key = file.getPath();
+		synchronized (this)
+		{
+			int[][] cached = entries.get(key);
+			if (cached != null)
+			{
+				hits++;
+				return cached;
+			}
+			misses++;
+		}
+		
+		long start = System.nanoTime();
+		int[][] pixels = FaceImage.readPixels(file, width, height);
+		
+		synchronized (this)
+		{
+			loadNanos += System.nanoTime() - start;
+			entries.put(key, pixels);
+		}
+		return pixels;
+	}
+	
+	// Returns the maximum number of images whose pixels are kept.
+	public int getCapacity()
+	{
+		return capacity;
+	}
+	
+	// Returns the number of images whose pixels are cached.
+	public synchronized int size()
+	{
+		return entries.size();
+	}
+	
+	// Returns the fraction of requests that were served from the cache.
+	public synchronized double getHitRate()
+	{
+		long requests = hits + misses;
+		return (requests == 0) ? 0.0 : (double)hits / (double)requests;
+	}
+	
+	// Returns a summary of the cache statistics.
+	public synchronized String toString()
+	{
+		return String.format(
+			"Pixel cache: %d hits, %d misses (%.1f%% hit rate), %d evictions, %d / %d images cached, %.1f ms reading files.",
+			hits, misses, 100.0 * getHitRate(), evictions, entries.size(), capacity, loadNanos / 1e6);
+	}
+}
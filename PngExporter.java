@@ -0,0 +1,109 @@
+/* PngExporter.java
+ * 
+ * Renders face images and hidden unit weight maps to PNG files, without a display.
+ * Every image is rendered and written as a separate task on a pool of worker threads.
+ * 
+ */
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import javax.imageio.ImageIO;
+
+public class PngExporter
+{
+	private ExecutorService executor;
+	private List<Future<Boolean>> pending = new ArrayList<Future<Boolean>>();
+	
+	// Constructor. Images are exported on the passed number of threads.
+	public PngExporter(int numThreads)
+	{
+		executor = Executors.newFixedThreadPool(Math.max(1, numThreads));
+	}
+	
+	// Queues every image in the collection, as "<dir>/<image name>.png".
+	public void exportImages(ImageCollection ic, File dir)
+	{
+		dir.mkdirs();
+		for (int i = 0; i < ic.numImages(); i++)
+		{
+			final FaceImage image = ic.getImage(i);
+			final File file = new File(dir, fileName(image.getName(), i));
+			pending.add(executor.submit(new Callable<Boolean>()
+			{
+				public Boolean call()
+				{
+					return write(image.getRawImage(), file);
+				}
+			}));
+		}
+	}
+	
+	// Queues the weight map of every hidden unit, as "<dir>/hidden_<unit>.png".
+	public void exportWeights(final NeuralNetwork_Frozen nn, File dir)
+	{
+		dir.mkdirs();
+		for (int hu = 0; hu < nn.numHiddenUnits(); hu++)
+		{
+			final int unit = hu;
+			final File file = new File(dir, String.format("hidden_%03d.png", hu));
+			pending.add(executor.submit(new Callable<Boolean>()
+			{
+				public Boolean call()
+				{
+					return write(nn.visualizeWeights(unit), file);
+				}
+			}));
+		}
+	}
+	
+	// Waits for every queued image to be written, and stops the worker threads. Returns the number of files written.
+	public int finish()
+	{
+		int numWritten = 0;
+		for (Future<Boolean> future : pending)
+		{
+			try
+			{
+				if (future.get()) numWritten++;
+			}
+			catch (InterruptedException | ExecutionException e)
+			{
+				System.out.println("PNG export failed: " + e);
+			}
+		}
+		pending.clear();
+		executor.shutdown();
+		
+		return numWritten;
+	}
+	
+	// Writes one PNG file. Returns true iff the operation was successful.
+	private static boolean write(BufferedImage image, File file)
+	{
+		try
+		{
+			return ImageIO.write(image, "png", file);
+		}
+		catch (IOException e)
+		{
+			System.out.printf("Error writing image to file \"%s\".%n", file.getPath());
+		}
+		return false;
+	}
+	
+	// Returns a file name for an image name (e.g. "Male/1_1_1.txt" becomes "Male_1_1_1.png").
+	// Unnamed images are numbered.
+	private static String fileName(String imageName, int index)
+	{
+		String name = imageName;
+		if (name.endsWith(".txt")) name = name.substring(0, name.length() - 4);
+		name = name.replaceAll("[^A-Za-z0-9._-]", "_");
+		if (name.isEmpty() || name.equals("_null_")) name = String.format("image_%05d", index);
+		
+		return name + ".png";
+	}
+}
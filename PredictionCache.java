@@ -0,0 +1,120 @@
+/* PredictionCache.java
+ * 
+ * Caches neural network outputs for repeated images.
+ * Entries are keyed by a hash of the image pixels, and are only valid for the model version they were computed with.
+ * The cache is bounded in size and evicts the least recently used entry when full.
+ * 
+ */
+
+import java.util.*;
+
+public class PredictionCache
+{
+	// Maps image content hashes to network outputs, in least-recently-used order.
+	private LinkedHashMap<Long, Double> entries;
+	private final int capacity;
+	
+	// The model version that the cached entries were computed with.
+	private long modelVersion = -1;
+	
+	private long hits = 0;
+	private long misses = 0;
+	private long invalidations = 0;
+	
+	// Constructor. Capacity is the maximum number of cached predictions.
+	public PredictionCache(int capacity)
+	{
+		this.capacity = Math.max(capacity, 1);
+		
+		entries = new LinkedHashMap<Long, Double>(16, 0.75f, true)
+		{
+			protected boolean removeEldestEntry(Map.Entry<Long, Double> eldest)
+			{
+				return size() > PredictionCache.this.capacity;
+			}
+		};
+	}
+	
+	// Returns the final output of the neural network for the passed image, computing it only if it is not cached.
+	public double predict(InferenceNetwork nn, FaceImage face)
+	{
+		if (nn.getModelVersion() != modelVersion)
+		{ // The model was reloaded or retrained since the entries were cached.
+			if (!entries.isEmpty()) invalidations++;
+			entries.clear();
+			modelVersion = nn.getModelVersion();
+		}
+		
+		Long key = face.contentHash();
+		Double cached = entries.get(key);
+		if (cached != null)
+		{
+			hits++;
+			return cached;
+		}
+		
+		misses++;
+		nn.calculateOutputs(face);
+		double result = nn.getFinalOutput();
+		entries.put(key, result);
+		
+		return result;
+	}
+	
+	// Removes all cached entries.
+	public void clear()
+	{
+		entries.clear();
+	}
+	
+	// Returns the number of cached entries.
+	public int size()
+	{
+		return entries.size();
+	}
+	
+	// Returns the maximum number of cached entries.
+	public int getCapacity()
+	{
+		return capacity;
+	}
+	
+	// Returns the number of predictions served from the cache.
+	public long getHits()
+	{
+		return hits;
+	}
+	
+	// Returns the number of predictions that required a forward pass.
+	public long getMisses()
+	{
+		return misses;
+	}
+	
+	// Returns the number of times the cache was cleared because the model changed.
+	public long getInvalidations()
+	{
+		return invalidations;
+	}
+	
+	// Returns the fraction of predictions served from the cache.
+	public double getHitRate()
+	{
+		long total = hits + misses;
+		return (total == 0) ? 0.0 : (double)hits / (double)total;
+	}
+	
+	// Returns a one-line summary of the cache statistics.
+	public String toString()
+	{
+		return String.format(
+			"Prediction cache: %d hits, %d misses (%.2f%% hit rate), %d/%d entries, %d invalidations.",
+			hits,
+			misses,
+			100.0 * getHitRate(),
+			entries.size(),
+			capacity,
+			invalidations
+		);
+	}
+}
\ No newline at end of file
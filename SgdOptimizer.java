@@ -0,0 +1,60 @@
+/* SgdOptimizer.java
+ * 
+ * Updates weights with plain stochastic gradient descent (the same rule as SigmoidUnit.updateWeights).
+ * 
+ */
+
+public class SgdOptimizer implements Optimizer
+{
+	private double learningRate;
+	
+	// Constructor.
+	public SgdOptimizer(double learningRate)
+	{
+		this.learningRate = learningRate;
+	}
+	
+	// Plain gradient descent keeps no per-step state.
+	public void beginStep()
+	{
+	}
+	
+	// Returns the change to make to the weight at the passed index.
+	public double step(int index, double gradient)
+	{
+		return -learningRate * gradient;
+	}
+	
+	// Returns the learning rate.
+	public double getLearningRate()
+	{
+		return learningRate;
+	}
+	
+	// Sets the learning rate.
+	public void setLearningRate(double learningRate)
+	{
+		this.learningRate = learningRate;
+	}
+	
+	// Returns the name of the update rule.
+	public String getName()
+	{
+		return "sgd";
+	}
+	
+	// Plain gradient descent has no state.
+	public double[][] getState()
+	{
+		return new double[0][];
+	}
+	
+	// Plain gradient descent does not count steps.
+	public long getNumSteps()
+	{
+		return 0;
+	}
+	public void setNumSteps(long numSteps)
+	{
+	}
+}
\ No newline at end of file
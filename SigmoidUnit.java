@@ -82,6 +82,21 @@ public class SigmoidUnit
 		}
 	}
 	
+	// Update the weights of each input-link to this unit using the optimizer.
+	// The weights of this unit's input links are numbered by the optimizer from firstWeightIndex on.
+	// Assumes that calculateDelta has already been called on this.
+	public void updateWeights(Optimizer optimizer, int firstWeightIndex)
+	{
+		for (int i = 0; i < numInputLinks(); i++)
+		{
+			UnitLink link = inputLinks.get(i);
+			
+			// The delta is the negative gradient of the error with respect to the unit's net input.
+			double gradient = -(this.getDelta() * link.from.getOutput());
+			link.weight += optimizer.step(firstWeightIndex + i, gradient);
+		}
+	}
+	
 	// Calculare the output for this unit. Assumes that the output of previous units has already been calculated.
 	public void calculateOutput()
 	{
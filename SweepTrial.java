@@ -0,0 +1,30 @@
+/* SweepTrial.java
+ * 
+ * Stores the hyperparameters and results of a single hyperparameter sweep trial.
+ * 
+ */
+
+public class SweepTrial
+{
+	public SweepTrial(int id, int hiddenUnits, int trainingRounds, double learningRate)
+	{
+		this.id = id;
+		this.hiddenUnits = hiddenUnits;
+		this.trainingRounds = trainingRounds;
+		this.learningRate = learningRate;
+	}
+	
+	// Hyperparameters.
+	public int id;
+	public int hiddenUnits;
+	public int trainingRounds;
+	public double learningRate;
+	
+	// Results. Filled in as the trial runs.
+	public int roundsCompleted = 0;
+	public boolean stoppedEarly = false;
+	public double validationAccuracy = 0.0;
+	public double validationLoss = 0.0;
+	public double seconds = 0.0;
+	public String error = null;
+}
@@ -0,0 +1,279 @@
+/* TrainingCheckpoint.java
+ * 
+ * Stores a snapshot of a training run: the network weights, the optimizer state, the number of rounds completed,
+ * the state of the random number generator, and the settings the run was started with (learning rate, momentum,
+ * schedule, total rounds and seed). Training can be resumed from a saved checkpoint.
+ * The buffers are allocated once, so taking a snapshot is just a copy.
+ * 
+ */
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.Random;
+
+public class TrainingCheckpoint
+{
+	// Marks the start of a checkpoint file ("NNCK").
+	public static final int FILE_MAGIC = 0x4E4E434B;
+	public static final int FILE_FORMAT_VERSION = 2;
+	
+	// A serialized java.util.Random takes about a hundred bytes; anything much longer is not one.
+	private static final int MAX_RANDOM_STATE_BYTES = 4096;
+	// Only a java.util.Random (and none of the classes an attacker could name in its place) may be deserialized.
+	private static final ObjectInputFilter RANDOM_FILTER = ObjectInputFilter.Config.createFilter(
+		"maxdepth=2;maxrefs=16;maxbytes=" + MAX_RANDOM_STATE_BYTES + ";java.util.Random;!*");
+	
+	// The number of training rounds completed.
+	public int round;
+	// The network weights (in the order of the neural network file).
+	public double[] weights;
+	// The optimizer name, state arrays and step count.
+	public String optimizerName;
+	public double[][] optimizerState;
+	public long optimizerSteps;
+	// The serialized random number generator.
+	public byte[] randState;
+	
+	// The settings of the run. Checkpoints written before the settings were saved (format version 1) have none.
+	public boolean hasSettings = false;
+	public double learningRate;
+	public double momentum;
+	public String schedule;
+	public int trainingRounds;
+	public long seed;
+	
+	// Constructor. Allocates buffers for the network and optimizer (which may be null, for plain gradient descent).
+	public TrainingCheckpoint(NeuralNetwork nn, Optimizer optimizer)
+	{
+		weights = new double[nn.numWeights()];
+		optimizerName = (optimizer == null) ? "sgd" : optimizer.getName();
+		
+		double[][] state = (optimizer == null) ? new double[0][] : optimizer.getState();
+		optimizerState = new double[state.length][];
+		for (int i = 0; i < state.length; i++)
+		{
+			optimizerState[i] = new double[state[i].length];
+		}
+	}
+	
+	// Private constructor for loading.
+	private TrainingCheckpoint()
+	{
+	}
+	
+	// Records the settings of the run.
+	public void setSettings(TrainingOptions options)
+	{
+		hasSettings = true;
+		learningRate = options.learningRate;
+		momentum = options.momentum;
+		schedule = (options.schedule == null) ? "" : options.schedule.toString();
+		trainingRounds = options.trainingRounds;
+		seed = options.seed;
+	}
+	
+	// Returns the checkpointed learning rate schedule, or null for a constant learning rate.
+	public LearningRateSchedule getSchedule()
+	{
+		return (schedule == null || schedule.isEmpty()) ? null : LearningRateSchedule.parse(schedule);
+	}
+	
+	// Copies the current training state into the buffers.
+	public void capture(NeuralNetwork nn, Optimizer optimizer, int round, Random rand)
+	{
+		this.round = round;
+		nn.copyWeights(weights);
+		
+		if (optimizer != null)
+		{
+			double[][] state = optimizer.getState();
+			for (int i = 0; i < state.length; i++)
+			{
+				System.arraycopy(state[i], 0, optimizerState[i], 0, state[i].length);
+			}
+			optimizerSteps = optimizer.getNumSteps();
+		}
+		
+		try
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream out = new ObjectOutputStream(bytes);
+			out.writeObject(rand);
+			out.close();
+			randState = bytes.toByteArray();
+		}
+		catch (IOException e)
+		{ // Writing to memory cannot fail.
+			randState = null;
+		}
+	}
+	
+	// Copies the checkpointed weights and optimizer state into the network and optimizer.
+	// Returns false if they do not match the checkpoint.
+	public boolean restore(NeuralNetwork nn, Optimizer optimizer)
+	{
+		String name = (optimizer == null) ? "sgd" : optimizer.getName();
+		if (nn.numWeights() != weights.length || !name.equals(optimizerName)) return false;
+		
+		nn.setWeights(weights);
+		
+		if (optimizer != null)
+		{
+			double[][] state = optimizer.getState();
+			if (state.length != optimizerState.length) return false;
+			for (int i = 0; i < state.length; i++)
+			{
+				System.arraycopy(optimizerState[i], 0, state[i], 0, state[i].length);
+			}
+			optimizer.setNumSteps(optimizerSteps);
+		}
+		
+		return true;
+	}
+	
+	// Returns the checkpointed random number generator, or a new one if the stored state is not a plain java.util.Random.
+	// The state comes from a file, so the stream is filtered to refuse every other class before anything is instantiated.
+	public Random getRandom()
+	{
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(randState)))
+		{
+			in.setObjectInputFilter(RANDOM_FILTER);
+			return (Random)in.readObject();
+		}
+		catch (IOException | ClassNotFoundException | ClassCastException | NullPointerException e)
+		{
+			System.out.println("The checkpoint's random number generator could not be restored; a new one is used.");
+			return new Random();
+		}
+	}
+	
+	// Returns the number of hidden units of the checkpointed network.
+	public int numHiddenUnits()
+	{
+		return weights.length / ((128 * 120) + 1);
+	}
+	
+	// Saves the checkpoint. The file is written under a temporary name and then renamed,
+	// so an interrupted save never leaves a partial checkpoint behind. Returns true iff the operation was successful.
+	public boolean saveToFile(String fileName)
+	{
+		Path target = Paths.get(fileName).toAbsolutePath();
+		Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+		
+		try
+		{
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp))))
+			{
+				out.writeInt(FILE_MAGIC);
+				out.writeInt(FILE_FORMAT_VERSION);
+				out.writeInt(round);
+				
+				out.writeInt(weights.length);
+				for (int i = 0; i < weights.length; i++)
+				{
+					out.writeDouble(weights[i]);
+				}
+				
+				out.writeUTF(optimizerName);
+				out.writeLong(optimizerSteps);
+				out.writeInt(optimizerState.length);
+				for (int s = 0; s < optimizerState.length; s++)
+				{
+					out.writeInt(optimizerState[s].length);
+					for (int i = 0; i < optimizerState[s].length; i++)
+					{
+						out.writeDouble(optimizerState[s][i]);
+					}
+				}
+				
+				out.writeInt(randState.length);
+				out.write(randState);
+				
+				out.writeDouble(learningRate);
+				out.writeDouble(momentum);
+				out.writeUTF(schedule);
+				out.writeInt(trainingRounds);
+				out.writeLong(seed);
+			}
+			
+			try
+			{
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (AtomicMoveNotSupportedException e)
+			{
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+			
+			return true;
+		}
+		catch (IOException e)
+		{
+			System.out.printf("Error saving checkpoint to file \"%s\".%n", fileName);
+		}
+		return false;
+	}
+	
+	// Loads a checkpoint from a file. Returns null if the file could not be loaded.
+	public static TrainingCheckpoint load(String fileName)
+	{
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName))))
+		{
+			if (in.readInt() != FILE_MAGIC)
+			{
+				throw new IOException("Unsupported checkpoint file.");
+			}
+			int version = in.readInt();
+			if (version != 1 && version != FILE_FORMAT_VERSION)
+			{
+				throw new IOException("Unsupported checkpoint file.");
+			}
+			
+			TrainingCheckpoint result = new TrainingCheckpoint();
+			result.round = in.readInt();
+			
+			result.weights = new double[in.readInt()];
+			for (int i = 0; i < result.weights.length; i++)
+			{
+				result.weights[i] = in.readDouble();
+			}
+			
+			result.optimizerName = in.readUTF();
+			result.optimizerSteps = in.readLong();
+			result.optimizerState = new double[in.readInt()][];
+			for (int s = 0; s < result.optimizerState.length; s++)
+			{
+				result.optimizerState[s] = new double[in.readInt()];
+				for (int i = 0; i < result.optimizerState[s].length; i++)
+				{
+					result.optimizerState[s][i] = in.readDouble();
+				}
+			}
+			
+			int randLength = in.readInt();
+			if (randLength < 0 || randLength > MAX_RANDOM_STATE_BYTES)
+			{
+				throw new IOException("Invalid random number generator state.");
+			}
+			result.randState = new byte[randLength];
+			in.readFully(result.randState);
+			
+			if (version >= 2)
+			{
+				result.hasSettings = true;
+				result.learningRate = in.readDouble();
+				result.momentum = in.readDouble();
+				result.schedule = in.readUTF();
+				result.trainingRounds = in.readInt();
+				result.seed = in.readLong();
+			}
+			
+			return result;
+		}
+		catch (IOException e)
+		{
+			System.out.printf("Error loading checkpoint from file \"%s\".%n", fileName);
+		}
+		return null;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,350 @@
+/* TrainingMetrics.java
+ * 
+ * Collects metrics while a network trains: throughput, per-round loss and accuracy, the time spent in each phase of
+ * training, heap usage and garbage collection. The metrics can be published as a JMX MBean (so a running job can be
+ * watched with jconsole or any other JMX client) and written to a file as one line of JSON every few seconds.
+ * The training thread records the metrics; any thread may read them.
+ * 
+ */
+
+import java.io.*;
+import java.lang.management.*;
+import java.util.Locale;
+import java.util.concurrent.*;
+import javax.management.*;
+
+public class TrainingMetrics implements TrainingMetricsMBean
+{
+	private ObjectName objectName = null;
+	private ScheduledExecutorService logExecutor = null;
+	private PrintWriter logWriter = null;
+	
+	private volatile int round = 0;
+	private volatile int totalRounds = 0;
+	private volatile long imagesTrained = 0;
+	
+	private volatile long startNanos = System.nanoTime();
+	private volatile long roundStartNanos = startNanos;
+	private volatile long lastImageNanos = startNanos;
+	private volatile long roundImages = 0;
+	
+	// Running totals for the current round, and the results of the last completed round.
+	private double roundLoss = 0.0;
+	private long roundCorrect = 0;
+	private volatile double lastRoundMeanLoss = Double.NaN;
+	private volatile double lastRoundAccuracy = Double.NaN;
+	
+	private volatile long dataPrepNanos = 0;
+	private volatile long forwardNanos = 0;
+	private volatile long backwardNanos = 0;
+	
+	// The memory estimated from the training job when it started (see MemoryPlan), or null if it was not estimated.
+	private volatile MemoryPlan memoryPlan = null;
+	
+	// Garbage collection totals when training started.
+	private long gcCountStart = 0;
+	private long gcMillisStart = 0;
+	
+	// Publishes the metrics as a JMX MBean with the passed name. Returns true iff the operation was successful.
+	public boolean register(String name)
+	{
+		try
+		{
+			objectName = new ObjectName("NeuralNetwork:type=TrainingMetrics,name=" + ObjectName.quote(name));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+			return true;
+		}
+		catch (JMException e)
+		{
+			System.out.printf("Error registering training metrics \"%s\": %s%n", name, e.getMessage());
+			objectName = null;
+		}
+		return false;
+	}
+	
+	// Writes the metrics to the file as one line of JSON every intervalSeconds seconds, and once more when closed.
+	// Returns true iff the file was opened.
+	public boolean startLog(String fileName, double intervalSeconds)
+	{
+		try
+		{
+			logWriter = new PrintWriter(new BufferedWriter(new FileWriter(fileName, true)));
+		}
+		catch (IOException e)
+		{
+			System.out.printf("Error opening metrics log \"%s\".%n", fileName);
+			return false;
+		}
+		
+		logExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+		{
+			public Thread newThread(Runnable r)
+			{
+				Thread thread = new Thread(r, "TrainingMetricsLog");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		long intervalMillis = Math.max(1, (long)(intervalSeconds * 1000.0));
+		logExecutor.scheduleAtFixedRate(new Runnable()
+		{
+			public void run()
+			{
+				writeLogLine();
+			}
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+		
+		return true;
+	}
+	
+	// Writes one line of JSON to the log.
+	private synchronized void writeLogLine()
+	{
+		if (logWriter == null) return;
+		logWriter.println(toJson());
+		logWriter.flush();
+	}
+	
+	// Stops logging and unpublishes the MBean. The final metrics are written to the log.
+	public void close()
+	{
+		if (logExecutor != null)
+		{
+			logExecutor.shutdownNow();
+			logExecutor = null;
+		}
+		synchronized (this)
+		{
+			if (logWriter != null)
+			{
+				logWriter.println(toJson());
+				logWriter.close();
+				logWriter = null;
+			}
+		}
+		if (objectName != null)
+		{
+			try
+			{
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			}
+			catch (JMException e)
+			{
+			}
+			objectName = null;
+		}
+	}
+	
+	// Marks the start of training.
+	public void beginTraining(int totalRounds)
+	{
+		this.totalRounds = totalRounds;
+		startNanos = System.nanoTime();
+		lastImageNanos = startNanos;
+		gcCountStart = totalGcCount();
+		gcMillisStart = totalGcMillis();
+	}
+	
+	// Marks the start of a round (counting from 0).
+	public void beginRound(int round)
+	{
+		this.round = round + 1;
+		roundStartNanos = System.nanoTime();
+		roundImages = 0;
+		roundLoss = 0.0;
+		roundCorrect = 0;
+	}
+	
+	// Adds time spent preparing data outside of recordImage (e.g. shuffling the images at the start of a round).
+	public void recordDataPrep(long nanos)
+	{
+		dataPrepNanos += nanos;
+	}
+	
+	// Records the network's output for an image, before the network is updated for it.
+	public void recordOutput(double output, double target)
+	{
+		double error = target - output;
+		roundLoss += error * error;
+		if ((output >= 0.5) == (target >= 0.5)) roundCorrect++;
+	}
+	
+	// Records the training of one image: the time spent in each phase.
+	public void recordImage(long prepNanos, long forwardNanos, long backwardNanos)
+	{
+		this.dataPrepNanos += prepNanos;
+		this.forwardNanos += forwardNanos;
+		this.backwardNanos += backwardNanos;
+		
+		roundImages++;
+		imagesTrained++;
+		lastImageNanos = System.nanoTime();
+	}
+	
+	// Marks the end of a round.
+	public void endRound()
+	{
+		if (roundImages > 0)
+		{
+			lastRoundMeanLoss = roundLoss / roundImages;
+			lastRoundAccuracy = (double)roundCorrect / roundImages;
+		}
+	}
+	
+	public int getRound()
+	{
+		return round;
+	}
+	
+	public int getTotalRounds()
+	{
+		return totalRounds;
+	}
+	
+	public long getImagesTrained()
+	{
+		return imagesTrained;
+	}
+	
+	public double getImagesPerSecond()
+	{
+		double seconds = (lastImageNanos - roundStartNanos) / 1.0e9;
+		return (seconds > 0.0) ? roundImages / seconds : 0.0;
+	}
+	
+	public double getAverageImagesPerSecond()
+	{
+		double seconds = (lastImageNanos - startNanos) / 1.0e9;
+		return (seconds > 0.0) ? imagesTrained / seconds : 0.0;
+	}
+	
+	public double getLastRoundMeanLoss()
+	{
+		return lastRoundMeanLoss;
+	}
+	
+	public double getLastRoundAccuracy()
+	{
+		return lastRoundAccuracy;
+	}
+	
+	public double getDataPrepSeconds()
+	{
+		return dataPrepNanos / 1.0e9;
+	}
+	
+	public double getForwardSeconds()
+	{
+		return forwardNanos / 1.0e9;
+	}
+	
+	public double getBackwardSeconds()
+	{
+		return backwardNanos / 1.0e9;
+	}
+	
+	// Sets the memory estimated for the training job.
+	public void setMemoryPlan(MemoryPlan memoryPlan)
+	{
+		this.memoryPlan = memoryPlan;
+	}
+	
+	public long getModelBytes()
+	{
+		MemoryPlan plan = memoryPlan;
+		return (plan == null) ? 0 : plan.getModelBytes();
+	}
+	
+	public long getTrainingStateBytes()
+	{
+		MemoryPlan plan = memoryPlan;
+		return (plan == null) ? 0 : plan.getTrainingStateBytes();
+	}
+	
+	public long getActivationBytes()
+	{
+		MemoryPlan plan = memoryPlan;
+		return (plan == null) ? 0 : plan.getActivationBytes();
+	}
+	
+	public long getDatasetBytes()
+	{
+		MemoryPlan plan = memoryPlan;
+		return (plan == null) ? 0 : plan.getDatasetBytes();
+	}
+	
+	public long getHeapUsedBytes()
+	{
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+	
+	public long getHeapMaxBytes()
+	{
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getMax();
+	}
+	
+	public long getGcCount()
+	{
+		return totalGcCount() - gcCountStart;
+	}
+	
+	public long getGcPauseMillis()
+	{
+		return totalGcMillis() - gcMillisStart;
+	}
+	
+	public double getElapsedSeconds()
+	{
+		return (System.nanoTime() - startNanos) / 1.0e9;
+	}
+	
+	public double getSecondsSinceLastImage()
+	{
+		return (System.nanoTime() - lastImageNanos) / 1.0e9;
+	}
+	
+	// Returns the total number of collections by every garbage collector.
+	private static long totalGcCount()
+	{
+		long result = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+		{
+			result += Math.max(0, gc.getCollectionCount());
+		}
+		return result;
+	}
+	
+	// Returns the total time spent collecting by every garbage collector.
+	private static long totalGcMillis()
+	{
+		long result = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+		{
+			result += Math.max(0, gc.getCollectionTime());
+		}
+		return result;
+	}
+	
+	public String toJson()
+	{
+		return String.format(Locale.ROOT,
+			"{\"time\":%d,\"round\":%d,\"total_rounds\":%d,\"images_trained\":%d,\"images_per_sec\":%.2f,\"avg_images_per_sec\":%.2f,"
+			+ "\"last_round_loss\":%s,\"last_round_accuracy\":%s,"
+			+ "\"data_prep_sec\":%.4f,\"forward_sec\":%.4f,\"backward_sec\":%.4f,"
+			+ "\"heap_used_bytes\":%d,\"heap_max_bytes\":%d,\"gc_count\":%d,\"gc_pause_ms\":%d,"
+			+ "\"model_bytes\":%d,\"training_state_bytes\":%d,\"activation_bytes\":%d,\"dataset_bytes\":%d,"
+			+ "\"elapsed_sec\":%.3f,\"sec_since_last_image\":%.3f}",
+			System.currentTimeMillis(), getRound(), getTotalRounds(), getImagesTrained(), getImagesPerSecond(), getAverageImagesPerSecond(),
+			jsonNumber(getLastRoundMeanLoss()), jsonNumber(getLastRoundAccuracy()),
+			getDataPrepSeconds(), getForwardSeconds(), getBackwardSeconds(),
+			getHeapUsedBytes(), getHeapMaxBytes(), getGcCount(), getGcPauseMillis(),
+			getModelBytes(), getTrainingStateBytes(), getActivationBytes(), getDatasetBytes(),
+			getElapsedSeconds(), getSecondsSinceLastImage());
+	}
+	
+	// Formats a number for JSON, which has no NaN.
+	private static String jsonNumber(double value)
+	{
+		return Double.isNaN(value) ? "null" : String.format(Locale.ROOT, "%.6f", value);
+	}
+}
@@ -0,0 +1,48 @@
+/* TrainingMetricsMBean.java
+ * 
+ * Defines the training metrics published over JMX (see TrainingMetrics).
+ * 
+ */
+
+public interface TrainingMetricsMBean
+{
+	// Progress: the current round (counting from 1), the number of rounds, and the images trained on so far.
+	int getRound();
+	int getTotalRounds();
+	long getImagesTrained();
+	
+	// Throughput in the current round, and over the whole run.
+	double getImagesPerSecond();
+	double getAverageImagesPerSecond();
+	
+	// Mean squared error and accuracy of the network's outputs on the images trained on in the last completed round.
+	// Each output is measured before the network is updated for that image.
+	double getLastRoundMeanLoss();
+	double getLastRoundAccuracy();
+	
+	// Total time spent in each phase of training: preparing the data (ordering and fetching images), the forward pass,
+	// and the backward pass (calculating the deltas and changing the weights).
+	double getDataPrepSeconds();
+	double getForwardSeconds();
+	double getBackwardSeconds();
+	
+	// Memory estimated from the job's network, optimizer and images when training started (see MemoryPlan): the model weights,
+	// the training state, the activation buffers and the dataset. These are sizes computed from the object layout, not heap samples.
+	long getModelBytes();
+	long getTrainingStateBytes();
+	long getActivationBytes();
+	long getDatasetBytes();
+	
+	// Heap usage, and garbage collection since training started.
+	long getHeapUsedBytes();
+	long getHeapMaxBytes();
+	long getGcCount();
+	long getGcPauseMillis();
+	
+	// Time since training started, and since the last image was trained on (a growing value means training has stalled).
+	double getElapsedSeconds();
+	double getSecondsSinceLastImage();
+	
+	// Returns the metrics as a single line of JSON.
+	String toJson();
+}
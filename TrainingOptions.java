@@ -0,0 +1,57 @@
+/* TrainingOptions.java
+ * 
+ * Stores the settings used to train a neural network.
+ * 
+ */
+
+import java.util.Random;
+
+public class TrainingOptions
+{
+	public TrainingOptions(int trainingRounds, double learningRate)
+	{
+		this.trainingRounds = trainingRounds;
+		this.learningRate = learningRate;
+	}
+	
+	// The maximum number of passes over the training images.
+	public int trainingRounds;
+	// The base learning rate.
+	public double learningRate;
+	
+	// Decides each weight change. When null, plain gradient descent is used.
+	public Optimizer optimizer = null;
+	// Changes the learning rate from round to round. When null, the learning rate is constant.
+	public LearningRateSchedule schedule = null;
+	
+	// The momentum the optimizer was built with, and the seed the validation data was drawn with. The trainer does not use
+	// them, but they are saved in checkpoints along with the other settings, so a resumed run continues the same run.
+	public double momentum = 0.9;
+	public long seed = 0;
+	
+	// Decides the order the training images are visited in.
+	public Random rand = new Random();
+	// Prints a progress bar while training.
+	public boolean showProgress = true;
+	
+	// Early stopping. When validation data is set, the network is evaluated on it every validationInterval rounds.
+	// Training stops once the validation loss has not improved for patience evaluations in a row,
+	// and the weights from the best evaluation are restored.
+	public ImageCollection validationData = null;
+	public int validationInterval = 1;
+	public int patience = 3;
+	
+	// Hard-example sampling. When the fraction is below 1, every refreshInterval rounds visit all images and record their losses,
+	// and the rounds in between visit only that fraction of the images, drawn mostly from those with high losses.
+	public double hardExampleFraction = 1.0;
+	public int hardExampleRefreshInterval = 4;
+	
+	// Checkpoints. When a checkpoint file is set, the training state is saved to it in the background every checkpointInterval rounds.
+	// Training starts at startRound, so a run restored from a checkpoint continues where it stopped.
+	public String checkpointFile = null;
+	public int checkpointInterval = 1;
+	public int startRound = 0;
+	
+	// Collects throughput, loss, timing, heap and garbage collection metrics while training. When null, nothing is measured.
+	public TrainingMetrics metrics = null;
+}
@@ -0,0 +1,27 @@
+/* WeightStorage.java
+ * 
+ * Defines the interface for a flat array of neural network weights.
+ * Implementations may keep the weights on the Java heap or off-heap.
+ * 
+ */
+
+public interface WeightStorage
+{
+	// Returns the number of weights.
+	int size();
+	
+	// Returns/sets the weight at the passed index.
+	double get(int index);
+	void set(int index, double value);
+	
+	// Returns the sum of weight[offset + i] * values[i] over every index i of the values array.
+	double dot(int offset, double[] values);
+	// Stores the dot product of row r with the values in dest[r], for every index r of the dest array.
+	// Row r is the values.length weights starting at offset + (r * values.length).
+	void dotRows(int offset, double[] values, double[] dest);
+	// Adds scale * values[i] to weight[offset + i] for every index i of the values array.
+	void addScaled(int offset, double[] values, double scale);
+	
+	// Returns true iff the weights cannot be modified.
+	boolean isReadOnly();
+}
@@ -0,0 +1,61 @@
+/* BenchmarkTargets.java
+ * 
+ * Gives the JMH benchmarks (in the nnbench package) access to the network classes in the default package.
+ * 
+ */
+
+import java.io.File;
+import java.util.Random;
+
+public class BenchmarkTargets implements nnbench.Targets
+{
+	public Object newNetwork(int hiddenUnits, Random rand)
+	{
+		return new NeuralNetwork_AllConnected(hiddenUnits, rand);
+	}
+	
+	public void calculateOutputs(Object nn, Object image)
+	{
+		((NeuralNetwork)nn).calculateOutputs((FaceImage)image);
+	}
+	
+	public double getFinalOutput(Object nn)
+	{
+		return ((NeuralNetwork)nn).getFinalOutput();
+	}
+	
+	public void backpropagateUpdate(Object nn, double trueOutput, double learningRate)
+	{
+		((NeuralNetwork)nn).backpropagateUpdate(trueOutput, learningRate);
+	}
+	
+	public boolean saveToFile(Object nn, String fileName)
+	{
+		return ((NeuralNetwork)nn).saveToFile(fileName);
+	}
+	
+	public boolean loadFromFile(Object nn, String fileName)
+	{
+		return ((NeuralNetwork)nn).loadFromFile(fileName);
+	}
+	
+	public Object loadImage(File file)
+	{
+		return new FaceImage(file, "");
+	}
+	
+	public Object loadCollection(File directory)
+	{
+		return new ImageCollection(directory.getPath(), "");
+	}
+	
+	public Object deepCopy(Object collection)
+	{
+		return ((ImageCollection)collection).deepCopy();
+	}
+	
+	public Object[] getRandomFolds(Object collection, int numFolds, Random rand)
+	{
+		return ((ImageCollection)collection).getRandomFolds(numFolds, rand);
+	}
+}
@@ -0,0 +1,100 @@
+/* BenchmarkMain.java
+ * 
+ * Runs the benchmarks once for each thread count, with the GC profiler enabled, and writes each run's results
+ * to a JSON file that can be compared with the results from other commits.
+ * 
+ * Usage: java -jar target/benchmarks.jar [-threads 1,4] [-out <Dir>] [-hidden 2,16] [<BenchmarkRegex>]
+ *   "-threads" sets the thread counts to run with (default 1 and the number of processors).
+ *   "-out" sets the directory the JSON files are written to (default "jmh-results"); each file is named after
+ *   the thread count, e.g. "threads-4.json".
+ *   "-hidden" overrides the hidden unit counts of the network benchmarks.
+ *   The regular expression selects the benchmarks to run (default all of them).
+ * Passing "-jmh" followed by regular JMH arguments runs JMH's own command line instead.
+ * 
+ */
+
+package nnbench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+public class BenchmarkMain
+{
+	public static void main(String[] args)
+		throws Exception
+	{
+		if (args.length > 0 && args[0].equals("-jmh"))
+		{
+			String[] jmhArgs = new String[args.length - 1];
+			System.arraycopy(args, 1, jmhArgs, 0, jmhArgs.length);
+			org.openjdk.jmh.Main.main(jmhArgs);
+			return;
+		}
+		
+		List<Integer> threadCounts = new ArrayList<Integer>();
+		String outputDir = "jmh-results";
+		String[] hiddenUnits = null;
+		String include = ".*";
+		
+		for (int i = 0; i < args.length; i++)
+		{
+			if (args[i].equals("-threads") && i + 1 < args.length)
+			{
+				for (String count : args[++i].split(","))
+				{
+					threadCounts.add(Integer.parseInt(count.trim()));
+				}
+			}
+			else if (args[i].equals("-out") && i + 1 < args.length)
+			{
+				outputDir = args[++i];
+			}
+			else if (args[i].equals("-hidden") && i + 1 < args.length)
+			{
+				hiddenUnits = args[++i].split(",");
+			}
+			else
+			{
+				include = args[i];
+			}
+		}
+		if (threadCounts.isEmpty())
+		{
+			threadCounts.add(1);
+			int processors = Runtime.getRuntime().availableProcessors();
+			if (processors > 1) threadCounts.add(processors);
+		}
+		
+		new File(outputDir).mkdirs();
+		for (int threads : threadCounts)
+		{
+			run(include, threads, hiddenUnits, new File(outputDir, "threads-" + threads + ".json").getPath());
+		}
+	}
+	
+	// Runs the selected benchmarks with the passed number of threads, and writes the results to a JSON file.
+	private static void run(String include, int threads, String[] hiddenUnits, String resultFile)
+		throws RunnerException
+	{
+		ChainedOptionsBuilder options = new OptionsBuilder()
+			.include(include)
+			.threads(threads)
+			.addProfiler(GCProfiler.class)
+			.resultFormat(ResultFormatType.JSON)
+			.result(resultFile);
+		if (hiddenUnits != null)
+		{
+			options.param("hiddenUnits", hiddenUnits);
+		}
+		
+		new Runner(options.build()).run();
+		System.out.printf("Results for %d thread(s) saved to \"%s\".%n", threads, resultFile);
+	}
+}
@@ -0,0 +1,56 @@
+/* CollectionBenchmarks.java
+ * 
+ * Measures copying an image collection (deepCopy) and splitting it into crossfold validation folds (getRandomFolds).
+ * The collection is shared by all benchmark threads, and is only read.
+ * 
+ */
+
+package nnbench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CollectionBenchmarks
+{
+	@Param({ "100", "500" })
+	public int numImages;
+	
+	private Targets targets;
+	private Object collection;
+	
+	@Setup(Level.Trial)
+	public void setup()
+		throws IOException
+	{
+		targets = Targets.load();
+		File directory = SyntheticImages.createDirectory(numImages, new Random(42));
+		collection = targets.loadCollection(directory);
+	}
+	
+	@State(Scope.Thread)
+	public static class ThreadRandom
+	{
+		public Random rand = new Random(42);
+	}
+	
+	@Benchmark
+	public Object deepCopy()
+	{
+		return targets.deepCopy(collection);
+	}
+	
+	@Benchmark
+	public Object[] getRandomFolds(ThreadRandom state)
+	{
+		return targets.getRandomFolds(collection, 5, state.rand);
+	}
+}
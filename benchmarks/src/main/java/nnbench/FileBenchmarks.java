@@ -0,0 +1,72 @@
+/* FileBenchmarks.java
+ * 
+ * Measures saving and loading neural network files (saveToFile, loadFromFile) and parsing face image files.
+ * Each benchmark thread uses its own files.
+ * 
+ */
+
+package nnbench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileBenchmarks
+{
+	@Param({ "2", "16" })
+	public int hiddenUnits;
+	
+	private Targets targets;
+	private Object nn;
+	private String savedFile;
+	private String loadFile;
+	private File imageFile;
+	
+	@Setup(Level.Trial)
+	public void setup()
+		throws IOException
+	{
+		targets = Targets.load();
+		Random rand = new Random(42);
+		nn = targets.newNetwork(hiddenUnits, rand);
+		
+		File saved = File.createTempFile("nnbench", ".data");
+		saved.deleteOnExit();
+		savedFile = saved.getPath();
+		
+		File load = File.createTempFile("nnbench", ".data");
+		load.deleteOnExit();
+		loadFile = load.getPath();
+		targets.saveToFile(nn, loadFile);
+		
+		imageFile = File.createTempFile("nnbench", ".txt");
+		imageFile.deleteOnExit();
+		SyntheticImages.write(imageFile, rand);
+	}
+	
+	@Benchmark
+	public boolean saveToFile()
+	{
+		return targets.saveToFile(nn, savedFile);
+	}
+	
+	@Benchmark
+	public boolean loadFromFile()
+	{
+		return targets.loadFromFile(nn, loadFile);
+	}
+	
+	@Benchmark
+	public Object parseImage()
+	{
+		return targets.loadImage(imageFile);
+	}
+}
@@ -0,0 +1,77 @@
+/* NetworkBenchmarks.java
+ * 
+ * Measures network construction, the forward pass (calculateOutputs) and the backward pass (backpropagateUpdate)
+ * of NeuralNetwork_AllConnected. Each benchmark thread works on its own network.
+ * 
+ */
+
+package nnbench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NetworkBenchmarks
+{
+	@Param({ "2", "16", "64" })
+	public int hiddenUnits;
+	
+	private Targets targets;
+	private Random rand;
+	private Object nn;
+	private Object image;
+	
+	@Setup(Level.Trial)
+	public void setup()
+		throws IOException
+	{
+		targets = Targets.load();
+		rand = new Random(42);
+		nn = targets.newNetwork(hiddenUnits, rand);
+		
+		File file = File.createTempFile("nnbench", ".txt");
+		file.deleteOnExit();
+		SyntheticImages.write(file, rand);
+		image = targets.loadImage(file);
+		
+		// The backward pass uses the outputs of the most recent forward pass.
+		targets.calculateOutputs(nn, image);
+	}
+	
+	@Benchmark
+	public Object construct()
+	{
+		return targets.newNetwork(hiddenUnits, rand);
+	}
+	
+	@Benchmark
+	public double calculateOutputs()
+	{
+		targets.calculateOutputs(nn, image);
+		return targets.getFinalOutput(nn);
+	}
+	
+	@Benchmark
+	public double backpropagateUpdate()
+	{
+		// A tiny learning rate keeps the weights (and so the work done) stable over millions of updates.
+		targets.backpropagateUpdate(nn, 1.0, 1.0e-9);
+		return targets.getFinalOutput(nn);
+	}
+	
+	@Benchmark
+	public double trainImage()
+	{
+		targets.calculateOutputs(nn, image);
+		targets.backpropagateUpdate(nn, 1.0, 1.0e-9);
+		return targets.getFinalOutput(nn);
+	}
+}
@@ -0,0 +1,53 @@
+/* SyntheticImages.java
+ * 
+ * Writes random face image files (in the same text format as the data set), so the benchmarks do not depend on
+ * the data set directories.
+ * 
+ */
+
+package nnbench;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.Random;
+
+public class SyntheticImages
+{
+	public static final int width = 128;
+	public static final int height = 120;
+	
+	// Writes one random image file.
+	public static void write(File file, Random rand)
+		throws IOException
+	{
+		try (Writer writer = new BufferedWriter(new FileWriter(file)))
+		{
+			for (int y = 0; y < height; y++)
+			{
+				for (int x = 0; x < width; x++)
+				{
+					writer.write(Integer.toString(rand.nextInt(256)));
+					writer.write(' ');
+				}
+				writer.write('\n');
+			}
+		}
+	}
+	
+	// Creates a temporary directory holding numImages random image files. The directory is deleted when the JVM exits.
+	public static File createDirectory(int numImages, Random rand)
+		throws IOException
+	{
+		File directory = Files.createTempDirectory("nnbench").toFile();
+		directory.deleteOnExit();
+		
+		for (int i = 0; i < numImages; i++)
+		{
+			File file = new File(directory, (i + 1) + ".txt");
+			file.deleteOnExit();
+			write(file, rand);
+		}
+		
+		return directory;
+	}
+}
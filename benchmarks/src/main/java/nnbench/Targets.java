@@ -0,0 +1,46 @@
+/* Targets.java
+ * 
+ * The operations measured by the benchmarks. The network classes live in the default package, which code in a named
+ * package (as JMH requires benchmarks to be) cannot refer to. BenchmarkTargets, in the default package, implements this
+ * interface and is loaded by name; the benchmarks only hold its objects as opaque handles.
+ * 
+ */
+
+package nnbench;
+
+import java.io.File;
+import java.util.Random;
+
+public interface Targets
+{
+	// Returns a new NeuralNetwork_AllConnected with random weights.
+	public Object newNetwork(int hiddenUnits, Random rand);
+	
+	// NeuralNetwork operations.
+	public void calculateOutputs(Object nn, Object image);
+	public double getFinalOutput(Object nn);
+	public void backpropagateUpdate(Object nn, double trueOutput, double learningRate);
+	public boolean saveToFile(Object nn, String fileName);
+	public boolean loadFromFile(Object nn, String fileName);
+	
+	// Loads a FaceImage from a file.
+	public Object loadImage(File file);
+	
+	// ImageCollection operations. Collections are loaded from every image file in a directory.
+	public Object loadCollection(File directory);
+	public Object deepCopy(Object collection);
+	public Object[] getRandomFolds(Object collection, int numFolds, Random rand);
+	
+	// Returns the implementation, loaded by name from the default package.
+	public static Targets load()
+	{
+		try
+		{
+			return (Targets)Class.forName("BenchmarkTargets").getDeclaredConstructor().newInstance();
+		}
+		catch (ReflectiveOperationException e)
+		{
+			throw new IllegalStateException("BenchmarkTargets is missing from the class path.", e);
+		}
+	}
+}